@@ -0,0 +1,48 @@
+package com.pehrs.langchain4j;
+
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * An EmbeddingStore that can search without blocking the calling thread.
+ */
+public interface AsyncEmbeddingStore<Embedded> extends EmbeddingStore<Embedded> {
+
+  CompletableFuture<EmbeddingSearchResult<Embedded>> searchAsync(EmbeddingSearchRequest request);
+
+  /**
+   * Search with the text the query embedding was created from. Stores that support hybrid
+   * retrieval match the text as well, the others ignore it.
+   */
+  default CompletableFuture<EmbeddingSearchResult<Embedded>> searchAsync(
+      EmbeddingSearchRequest request, String queryText) {
+    return searchAsync(request);
+  }
+
+  /**
+   * @return {@code searchAsync} of async stores, otherwise {@code search} run on the executor
+   */
+  static <Embedded> CompletableFuture<EmbeddingSearchResult<Embedded>> searchAsync(
+      EmbeddingStore<Embedded> store, EmbeddingSearchRequest request,
+      Executor executor) {
+    return searchAsync(store, request, null, executor);
+  }
+
+  /**
+   * @param queryText the text of the query embedding or null
+   * @return {@code searchAsync} of async stores, otherwise {@code search} run on the executor
+   */
+  static <Embedded> CompletableFuture<EmbeddingSearchResult<Embedded>> searchAsync(
+      EmbeddingStore<Embedded> store, EmbeddingSearchRequest request, String queryText,
+      Executor executor) {
+    if (store instanceof AsyncEmbeddingStore<Embedded> asyncStore) {
+      return queryText == null
+          ? asyncStore.searchAsync(request)
+          : asyncStore.searchAsync(request, queryText);
+    }
+    return CompletableFuture.supplyAsync(() -> store.search(request), executor);
+  }
+}
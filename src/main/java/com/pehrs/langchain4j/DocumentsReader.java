@@ -1,8 +1,20 @@
 package com.pehrs.langchain4j;
 
 import dev.langchain4j.data.document.Document;
+import java.util.function.Predicate;
 import java.util.stream.Stream;
 
 public interface DocumentsReader {
   Stream<Document> readDocuments();
+
+  /**
+   * Read the documents but skip the sources where {@code skipSource} matches the
+   * {@link RagSample#METADATA_SRC_ID}. Readers that know the source id before reading a
+   * document should override this so skipped sources are never read.
+   */
+  default Stream<Document> readDocuments(Predicate<String> skipSource) {
+    return readDocuments()
+        .filter(document -> document == null
+            || !skipSource.test(document.metadata().getString(RagSample.METADATA_SRC_ID)));
+  }
 }
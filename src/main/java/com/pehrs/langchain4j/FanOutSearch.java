@@ -0,0 +1,129 @@
+package com.pehrs.langchain4j;
+
+import com.codahale.metrics.Meter;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Searches several stores in parallel, the merge of their matches is up to the caller.
+ *
+ * <p>A store that has not answered within {@code timeout}, or fails, is left out with no matches
+ * and marks the timeout or error meter, a timed-out search is cancelled. The search only fails
+ * when all stores do.
+ */
+public class FanOutSearch<Embedded> {
+
+  static Logger log = LoggerFactory.getLogger(FanOutSearch.class);
+
+  private final List<String> names;
+  private final List<? extends EmbeddingStore<Embedded>> stores;
+  private final Duration timeout;
+  // Runs the search of stores that can not search asynchronously
+  private final ExecutorService executor;
+
+  private final Meter timeouts;
+  private final Meter errors;
+
+  private record StoreResult<Embedded>(List<EmbeddingMatch<Embedded>> matches,
+                                       Throwable error) {
+
+  }
+
+  /**
+   * @param names the names of the stores in the log, in the order of the stores
+   */
+  public FanOutSearch(List<String> names, List<? extends EmbeddingStore<Embedded>> stores,
+      Duration timeout, ExecutorService executor, Meter timeouts, Meter errors) {
+    this.names = names;
+    this.stores = stores;
+    this.timeout = timeout;
+    this.executor = executor;
+    this.timeouts = timeouts;
+    this.errors = errors;
+  }
+
+  /**
+   * @param queryText the text of the query embedding or null
+   * @return the matches of every store, in the order of the stores
+   */
+  public CompletableFuture<List<List<EmbeddingMatch<Embedded>>>> search(
+      EmbeddingSearchRequest request, String queryText) {
+    List<CompletableFuture<StoreResult<Embedded>>> results = new ArrayList<>(stores.size());
+    for (int store = 0; store < stores.size(); store++) {
+      results.add(searchStore(store, request, queryText));
+    }
+    return CompletableFuture.allOf(results.toArray(new CompletableFuture[0]))
+        .thenApply(done -> matches(results.stream().map(CompletableFuture::join).toList()));
+  }
+
+  /**
+   * @return the result of the store, completed with its error or an empty result on timeout,
+   * when the search of the store is cancelled
+   */
+  private CompletableFuture<StoreResult<Embedded>> searchStore(int store,
+      EmbeddingSearchRequest request, String queryText) {
+    String name = names.get(store);
+    CompletableFuture<EmbeddingSearchResult<Embedded>> started;
+    try {
+      started = AsyncEmbeddingStore.searchAsync(stores.get(store), request, queryText, executor);
+    } catch (RuntimeException ex) {
+      started = CompletableFuture.failedFuture(ex);
+    }
+    CompletableFuture<EmbeddingSearchResult<Embedded>> search = started;
+    return search
+        .thenApply(result -> new StoreResult<>(result.matches(), null))
+        .exceptionally(error -> {
+          Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+          errors.mark();
+          log.warn("Search of {} failed: {}", name, cause.getMessage());
+          return new StoreResult<Embedded>(List.of(), cause);
+        })
+        .completeOnTimeout(null, timeout.toMillis(), TimeUnit.MILLISECONDS)
+        .thenApply(result -> {
+          if (result != null) {
+            return result;
+          }
+          search.cancel(true);
+          timeouts.mark();
+          log.warn("Search of {} timed out after {}", name, timeout);
+          return new StoreResult<>(List.of(), null);
+        });
+  }
+
+  private static <Embedded> List<List<EmbeddingMatch<Embedded>>> matches(
+      List<StoreResult<Embedded>> results) {
+    List<StoreResult<Embedded>> failed = results.stream()
+        .filter(result -> result.error() != null)
+        .toList();
+    if (!failed.isEmpty() && failed.size() == results.size()) {
+      Throwable error = failed.get(0).error();
+      throw error instanceof RuntimeException rex ? rex : new RuntimeException(error);
+    }
+    return results.stream().map(StoreResult::matches).toList();
+  }
+
+  /**
+   * @return the value of the future, rethrows the cause of a failure
+   */
+  public static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException rex) {
+        throw rex;
+      }
+      throw new RuntimeException(ex.getCause());
+    }
+  }
+}
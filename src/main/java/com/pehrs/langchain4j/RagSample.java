@@ -2,7 +2,14 @@ package com.pehrs.langchain4j;
 
 
 import com.codahale.metrics.MetricRegistry;
+import com.pehrs.langchain4j.cache.CachingEmbeddingStore;
+import com.pehrs.langchain4j.federated.FederatedEmbeddingStore;
+import com.pehrs.langchain4j.local.FlatEmbeddingStore;
+import com.pehrs.langchain4j.local.HnswEmbeddingStore;
+import com.pehrs.langchain4j.local.IvfPqEmbeddingStore;
 import com.pehrs.langchain4j.opensearch.OpenSearchUtils;
+import com.pehrs.langchain4j.projection.ProjectingEmbeddingModel;
+import com.pehrs.langchain4j.sharded.ShardedEmbeddingStore;
 import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingConfig;
 import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingStore;
 import com.pehrs.langchain4j.vespa.VespaDocumentHandler;
@@ -42,11 +49,29 @@ public abstract class RagSample {
 
   @NotNull
   public static EmbeddingStore createEmbeddingStore(MetricRegistry metricRegistry, Config config) {
+    return CachingEmbeddingStore.wrapFromConfig(metricRegistry, config,
+        createUncachedEmbeddingStore(metricRegistry, config));
+  }
+
+  @NotNull
+  private static EmbeddingStore createUncachedEmbeddingStore(MetricRegistry metricRegistry,
+      Config config) {
     switch ( config.getString("embeddings.store")) {
 //      case "vespa":
 //        return createVespaEmbeddingStore(config);
       case "vespa":
         return SimpleVespaEmbeddingStore.createSimpleVespaEmbeddingStore(metricRegistry, config);
+      case "federated":
+        return FederatedEmbeddingStore.fromConfig(metricRegistry, config);
+      case "local-flat":
+        return FlatEmbeddingStore.fromConfig(config);
+      case "local-hnsw":
+        return HnswEmbeddingStore.fromConfig(config);
+      case "local-ivfpq":
+        return IvfPqEmbeddingStore.fromConfig(config);
+      case "sharded":
+        return ShardedEmbeddingStore.fromConfig(metricRegistry, config,
+            shardConfig -> createUncachedEmbeddingStore(metricRegistry, shardConfig));
       case "opensearch":
         return OpenSearchUtils.createOpenSearchEmbeddingStore(config);
       default:
@@ -77,7 +102,17 @@ public abstract class RagSample {
         .build();
   }
 
+  /**
+   * @return the embedding model with the projection of {@code embeddings.projection}, if any
+   */
   public static EmbeddingModel createEmbeddingModel(Config config) {
+    return ProjectingEmbeddingModel.wrapFromConfig(config, createOllamaEmbeddingModel(config));
+  }
+
+  /**
+   * @return the embedding model without projection, the embeddings have the width of the model
+   */
+  public static EmbeddingModel createOllamaEmbeddingModel(Config config) {
     // The AllMiniLmL6V2EmbeddingModel creates 384 sized floating vectors
 //    EmbeddingModel embeddingModel = new AllMiniLmL6V2EmbeddingModel();
 
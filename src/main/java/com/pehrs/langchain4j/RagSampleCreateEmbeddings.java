@@ -3,21 +3,29 @@ package com.pehrs.langchain4j;
 import com.codahale.metrics.Clock;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
+import com.pehrs.langchain4j.cache.CachingEmbeddingModel;
+import com.pehrs.langchain4j.cache.EmbeddingCache;
 import com.pehrs.langchain4j.epub.EpubDocumentsReader;
+import com.pehrs.langchain4j.ingest.EmbeddingStage;
+import com.pehrs.langchain4j.ingest.IngestJournal;
+import com.pehrs.langchain4j.ingest.IngestPipeline;
+import com.pehrs.langchain4j.ingest.UpdateMarker;
 import com.pehrs.langchain4j.metrics.ConsoleTableReporter;
+import com.pehrs.langchain4j.projection.ProjectingEmbeddingModel;
 import com.pehrs.langchain4j.rss.RssFeedReader;
-import com.pehrs.langchain4j.util.CustomBatchIterator;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
+import dev.langchain4j.data.document.Document;
 import dev.langchain4j.data.document.DocumentSplitter;
 import dev.langchain4j.data.document.splitter.DocumentSplitters;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.store.embedding.EmbeddingStore;
+import java.io.Closeable;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +35,7 @@ public class RagSampleCreateEmbeddings {
   static Logger log = LoggerFactory.getLogger(RagSampleCreateEmbeddings.class);
 
   public static final String VECTOR_GEN_MS = "vector.gen.ms";
+  public static final String VECTOR_GEN_BATCH_MS = "vector.gen.batch.ms";
   public static final String VECTOR_SAVE_MS = "vector.save.ms";
 
   public static void main(String[] args) {
@@ -37,6 +46,7 @@ public class RagSampleCreateEmbeddings {
         .outputTo(System.out)
         .histogramScaleFactor(EpubDocumentsReader.PARSE_EPUB_MS, 1_000_000d)
         .histogramScaleFactor(VECTOR_GEN_MS, 1_000_000d)
+        .histogramScaleFactor(VECTOR_GEN_BATCH_MS, 1_000_000d)
         .histogramScaleFactor(VECTOR_SAVE_MS, 1_000_000d)
         .histogramScaleFactor(RssFeedReader.RSS_SOURCE_MS, 1_000_000d)
         .histogramScaleFactor(RssFeedReader.RSS_ARTICLE_MS, 1_000_000d)
@@ -45,11 +55,23 @@ public class RagSampleCreateEmbeddings {
 
       Config config = ConfigFactory.load("rag-sample");
 
-      EmbeddingModel embeddingModel = RagSample.createEmbeddingModel(config);
+      // The cache keeps the full width embeddings, the projection is applied after it
+      EmbeddingModel embeddingModel = RagSample.createOllamaEmbeddingModel(config);
       EmbeddingStore embeddingStore = RagSample.createEmbeddingStore(metricRegistry, config);
       DocumentsReader documentsReader = RagSample.createDocumentsReader(metricRegistry, config);
 
-      createEmbeddings(metricRegistry, config, embeddingStore, embeddingModel, documentsReader);
+      try (EmbeddingCache embeddingCache = EmbeddingCache.fromConfig(metricRegistry, config)) {
+        if (embeddingCache != null) {
+          embeddingModel = new CachingEmbeddingModel(embeddingModel, embeddingCache);
+        }
+        embeddingModel = ProjectingEmbeddingModel.wrapFromConfig(config, embeddingModel);
+        createEmbeddings(metricRegistry, config, embeddingStore, embeddingModel, documentsReader);
+      } finally {
+        // Flushes the documents still being fed
+        if (embeddingStore instanceof Closeable closeable) {
+          closeable.close();
+        }
+      }
     } catch (Exception ex) {
       ex.printStackTrace();
     }
@@ -67,34 +89,58 @@ public class RagSampleCreateEmbeddings {
             config.getInt("embeddings.segments.maxSegmentSizeInTokens"),
             config.getInt("embeddings.segments.maxOverlapSizeInTokens"));
 
-    Histogram generateHistogram = metricRegistry.histogram(VECTOR_GEN_MS);
+    EmbeddingStage embeddingStage = new EmbeddingStage(metricRegistry, embeddingModel);
     Histogram saveHistogram = metricRegistry.histogram(VECTOR_SAVE_MS);
 
-    Stream<TextSegment> textSegments = documentsReader.readDocuments()
-        .flatMap(document -> {
-          if (document != null) {
-            return splitter.split(document).stream();
-          }
-          log.warn("null document from document reader");
-          return Stream.of();
-        });
-
+    Config pipelineConfig = config.getConfig("embeddings.pipeline");
     int batchSize = config.getInt("embeddings.batchSize");
-    CustomBatchIterator.batchStreamOf(textSegments, batchSize)
-        .forEach(segments -> {
-          // Generate Embeddings
-
-          List<Embedding> embeddings = segments.stream().map(segment -> {
+    // Number of batches being embedded at the same time
+    int embedConcurrency = config.getInt("embeddings.embedConcurrency");
+    // Tells the gRPC service to drop its cached answers
+    UpdateMarker updateMarker = UpdateMarker.fromConfig(config);
+
+    try (IngestJournal journal = IngestJournal.fromConfig(config)) {
+      Stream<Document> documents = journal == null
+          ? documentsReader.readDocuments()
+          : documentsReader.readDocuments(journal::isCompleted);
+
+      IngestPipeline.source(metricRegistry, pipelineConfig.getInt("queueSize"),
+              "read", documents.iterator())
+          .stage("split", pipelineConfig.getInt("splitWorkers"),
+              (Document document, Consumer<TextSegment> emit) -> {
+                List<TextSegment> segments = splitter.split(document);
+                if (journal == null) {
+                  segments.forEach(emit);
+                  return;
+                }
+                // Resume partially fed sources after the acknowledged segments
+                journal.expectSegments(
+                    document.metadata().getString(RagSample.METADATA_SRC_ID), segments.size());
+                segments.stream()
+                    .filter(segment -> !journal.isAcknowledged(segment))
+                    .forEach(emit);
+              })
+          .stage("batch", 1, new IngestPipeline.Batcher<TextSegment>(batchSize))
+          .stage("embed", embedConcurrency,
+              (List<TextSegment> segments, Consumer<EmbeddedBatch> emit) ->
+                  emit.accept(new EmbeddedBatch(segments, embeddingStage.embed(segments))))
+          .stage("feed", pipelineConfig.getInt("feedWorkers"),
+              (EmbeddedBatch batch, Consumer<Void> emit) -> {
                 long start = System.nanoTime();
-                Embedding embedding = embeddingModel.embed(segment).content();
-                generateHistogram.update(System.nanoTime() - start);
-                return embedding;
-              }).collect(Collectors.toList());
-
-          // Save batch
-          long start = System.nanoTime();
-          embeddingStore.addAll(embeddings, segments);
-          saveHistogram.update(System.nanoTime() - start);
-        });
+                embeddingStore.addAll(batch.embeddings(), batch.segments());
+                saveHistogram.update(System.nanoTime() - start);
+                if (updateMarker != null) {
+                  updateMarker.touch();
+                }
+                if (journal != null) {
+                  journal.acknowledge(batch.segments());
+                }
+              })
+          .run();
+    }
+  }
+
+  private record EmbeddedBatch(List<TextSegment> segments, List<Embedding> embeddings) {
+
   }
 }
@@ -0,0 +1,90 @@
+package com.pehrs.langchain4j;
+
+import com.codahale.metrics.MetricRegistry;
+import com.pehrs.langchain4j.cache.CachingEmbeddingModel;
+import com.pehrs.langchain4j.cache.EmbeddingCache;
+import com.pehrs.langchain4j.projection.PcaProjection;
+import com.pehrs.langchain4j.projection.ProjectionRecall;
+import com.pehrs.langchain4j.projection.TruncatingProjection;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import dev.langchain4j.data.document.DocumentSplitter;
+import dev.langchain4j.data.document.splitter.DocumentSplitters;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fits the PCA projection of {@code embeddings.projection} on a sample of the corpus, saves it to
+ * {@code pcaFile} and prints the recall@k of truncation and PCA against the full width
+ * embeddings. Every tenth embedding of the sample is used as a query against the others.
+ */
+public class RagSampleFitProjection {
+
+  static Logger log = LoggerFactory.getLogger(RagSampleFitProjection.class);
+
+  public static void main(String[] args) throws Exception {
+    Config config = ConfigFactory.load("rag-sample");
+    Config projectionConfig = config.getConfig("embeddings.projection");
+    Config fitConfig = projectionConfig.getConfig("fit");
+    int dimension = projectionConfig.getInt("dimension");
+    int sampleSize = fitConfig.getInt("sampleSize");
+    int k = fitConfig.getInt("recallK");
+
+    MetricRegistry metricRegistry = new MetricRegistry();
+    DocumentsReader documentsReader = RagSample.createDocumentsReader(metricRegistry, config);
+    DocumentSplitter splitter =
+        DocumentSplitters.recursive(
+            config.getInt("embeddings.segments.maxSegmentSizeInTokens"),
+            config.getInt("embeddings.segments.maxOverlapSizeInTokens"));
+
+    List<TextSegment> segments = documentsReader.readDocuments()
+        .filter(Objects::nonNull)
+        .flatMap(document -> splitter.split(document).stream())
+        .limit(sampleSize)
+        .toList();
+    log.info("Embedding {} segments", segments.size());
+
+    List<float[]> corpus = new ArrayList<>();
+    List<float[]> queries = new ArrayList<>();
+    try (EmbeddingCache embeddingCache = EmbeddingCache.fromConfig(metricRegistry, config)) {
+      EmbeddingModel embeddingModel = RagSample.createOllamaEmbeddingModel(config);
+      if (embeddingCache != null) {
+        embeddingModel = new CachingEmbeddingModel(embeddingModel, embeddingCache);
+      }
+      int batchSize = config.getInt("embeddings.batchSize");
+      for (int start = 0; start < segments.size(); start += batchSize) {
+        List<Embedding> embeddings = embeddingModel.embedAll(
+            segments.subList(start, Math.min(start + batchSize, segments.size()))).content();
+        for (Embedding embedding : embeddings) {
+          if ((corpus.size() + queries.size()) % 10 == 9) {
+            queries.add(embedding.vector());
+          } else {
+            corpus.add(embedding.vector());
+          }
+        }
+      }
+    }
+
+    log.info("Fitting {} components on {} embeddings of width {}",
+        dimension, corpus.size(), corpus.get(0).length);
+    PcaProjection pca = PcaProjection.fit(corpus, dimension, fitConfig.getInt("iterations"));
+    Path pcaFile = Path.of(projectionConfig.getString("pcaFile"));
+    pca.save(pcaFile);
+    log.info("Saved the PCA projection to {}", pcaFile);
+
+    System.out.printf("%n%d queries against %d embeddings of width %d%n",
+        queries.size(), corpus.size(), pca.inputDimension());
+    System.out.printf("%-20s %10s%n", "projection", "recall@" + k);
+    System.out.printf("%-20s %10.3f%n", "truncate " + dimension,
+        ProjectionRecall.recallAtK(corpus, queries, new TruncatingProjection(dimension), k));
+    System.out.printf("%-20s %10.3f%n", "pca " + dimension,
+        ProjectionRecall.recallAtK(corpus, queries, pca, k));
+  }
+}
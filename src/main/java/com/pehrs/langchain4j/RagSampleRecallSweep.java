@@ -0,0 +1,173 @@
+package com.pehrs.langchain4j;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SlidingWindowReservoir;
+import com.codahale.metrics.Snapshot;
+import com.pehrs.langchain4j.vespa.Quantization;
+import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingConfig;
+import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingStore;
+import com.pehrs.langchain4j.vespa.VespaSearchRequest;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays a set of questions against Vespa with the nearestNeighbor settings in
+ * {@code recallSweep.settings} and reports recall@k against an exact search together with the
+ * search latency percentiles.
+ *
+ * <p>The questions are embedded once up front, so the latencies only cover the Vespa search. All
+ * searches, the exact one included, rank with the {@value #RANK_PROFILE} profile of the schema and
+ * are not sorted by recency or quantized, so the recall compares float nearest neighbor sets.
+ */
+public class RagSampleRecallSweep {
+
+  static Logger log = LoggerFactory.getLogger(RagSampleRecallSweep.class);
+
+  static final String RANK_PROFILE = "closeness";
+
+  record Setting(int targetHits, boolean approximate, int exploreAdditionalHits) {
+
+    @Override
+    public String toString() {
+      return approximate
+          ? "targetHits=" + targetHits + " exploreAdditionalHits=" + exploreAdditionalHits
+          : "exact";
+    }
+  }
+
+  record SweepResult(Setting setting, double recall, Snapshot latencyMicros) {
+
+  }
+
+  public static void main(String[] args) throws IOException {
+    Config config = ConfigFactory.load("rag-sample");
+    Config sweepConfig = config.getConfig("recallSweep");
+    int k = sweepConfig.getInt("k");
+    int repetitions = sweepConfig.getInt("repetitions");
+
+    List<String> questions = Files.readAllLines(Path.of(sweepConfig.getString("questions")))
+        .stream()
+        .map(String::trim)
+        .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+        .toList();
+    log.info("Embedding {} questions", questions.size());
+    EmbeddingModel embeddingModel = RagSample.createEmbeddingModel(config);
+    List<float[]> queryEmbeddings = questions.stream()
+        .map(question -> embeddingModel.embed(question).content().vector())
+        .toList();
+
+    MetricRegistry metricRegistry = new MetricRegistry();
+    Setting exact = new Setting(k, false, 0);
+    List<Set<String>> exactIds = new ArrayList<>();
+    try (SimpleVespaEmbeddingStore store = createStore(metricRegistry, config, exact)) {
+      for (float[] queryEmbedding : queryEmbeddings) {
+        exactIds.add(ids(search(store, queryEmbedding, k)));
+      }
+    }
+
+    List<SweepResult> results = new ArrayList<>();
+    results.add(sweep(metricRegistry, config, exact, queryEmbeddings, exactIds, k, repetitions));
+    for (Config settingConfig : sweepConfig.getConfigList("settings")) {
+      Setting setting = new Setting(
+          settingConfig.getInt("targetHits"),
+          true,
+          settingConfig.hasPath("exploreAdditionalHits")
+              ? settingConfig.getInt("exploreAdditionalHits") : 0);
+      results.add(sweep(metricRegistry, config, setting, queryEmbeddings, exactIds, k,
+          repetitions));
+    }
+
+    System.out.printf("%n%d questions, %d repetitions, rank profile %s, no ordering or quantization%n",
+        questions.size(), repetitions, RANK_PROFILE);
+    System.out.printf("%-45s %10s %10s %10s %10s%n",
+        "setting", "recall@" + k, "p50 ms", "p95 ms", "p99 ms");
+    for (SweepResult result : results) {
+      System.out.printf("%-45s %10.3f %10.1f %10.1f %10.1f%n",
+          result.setting(),
+          result.recall(),
+          result.latencyMicros().getMedian() / 1000.0,
+          result.latencyMicros().get95thPercentile() / 1000.0,
+          result.latencyMicros().get99thPercentile() / 1000.0);
+    }
+  }
+
+  static SweepResult sweep(MetricRegistry metricRegistry, Config config, Setting setting,
+      List<float[]> queryEmbeddings, List<Set<String>> exactIds, int k, int repetitions)
+      throws IOException {
+    log.info("Sweeping {}", setting);
+    Histogram latencyMicros = new Histogram(
+        new SlidingWindowReservoir(queryEmbeddings.size() * repetitions));
+    double recallSum = 0.0;
+    try (SimpleVespaEmbeddingStore store = createStore(metricRegistry, config, setting)) {
+      // Warm up the connections and the caches of the content nodes
+      for (float[] queryEmbedding : queryEmbeddings) {
+        search(store, queryEmbedding, k);
+      }
+      for (int repetition = 0; repetition < repetitions; repetition++) {
+        for (int i = 0; i < queryEmbeddings.size(); i++) {
+          long start = System.nanoTime();
+          List<EmbeddingMatch<TextSegment>> matches = search(store, queryEmbeddings.get(i), k);
+          latencyMicros.update((System.nanoTime() - start) / 1_000L);
+          if (repetition == 0) {
+            recallSum += recall(ids(matches), exactIds.get(i));
+          }
+        }
+      }
+    }
+    return new SweepResult(setting, recallSum / queryEmbeddings.size(),
+        latencyMicros.getSnapshot());
+  }
+
+  static SimpleVespaEmbeddingStore createStore(MetricRegistry metricRegistry, Config config,
+      Setting setting) {
+    SimpleVespaEmbeddingConfig vespaConfig =
+        SimpleVespaEmbeddingConfig.fromConfig(config.getConfig("vespa"))
+            .setTargetHits(setting.targetHits())
+            .setApproximate(setting.approximate())
+            .setExploreAdditionalHits(setting.exploreAdditionalHits())
+            // Compare the nearestNeighbor search only
+            .setRankProfile(RANK_PROFILE)
+            .setOrderByRecency(false)
+            .setHybrid(false)
+            .setQuantization(Quantization.NONE)
+            .setIncludeEmbedding(false)
+            .build();
+    return new SimpleVespaEmbeddingStore(metricRegistry, vespaConfig);
+  }
+
+  static List<EmbeddingMatch<TextSegment>> search(SimpleVespaEmbeddingStore store,
+      float[] queryEmbedding, int k) {
+    return store.search(new VespaSearchRequest(queryEmbedding, k, 0.0, null, false)).matches();
+  }
+
+  static Set<String> ids(List<EmbeddingMatch<TextSegment>> matches) {
+    return matches.stream()
+        .map(EmbeddingMatch::embeddingId)
+        .collect(Collectors.toCollection(HashSet::new));
+  }
+
+  /**
+   * @return the share of the exact top k that the approximate search found
+   */
+  static double recall(Set<String> found, Set<String> exact) {
+    if (exact.isEmpty()) {
+      return 1.0;
+    }
+    long hits = exact.stream().filter(found::contains).count();
+    return (double) hits / exact.size();
+  }
+}
@@ -0,0 +1,52 @@
+package com.pehrs.langchain4j.cache;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * EmbeddingModel that looks up every segment in an {@link EmbeddingCache} and only sends the
+ * misses to the wrapped model.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel {
+
+  private final EmbeddingModel delegate;
+  private final EmbeddingCache cache;
+
+  public CachingEmbeddingModel(EmbeddingModel delegate, EmbeddingCache cache) {
+    this.delegate = delegate;
+    this.cache = cache;
+  }
+
+  @Override
+  public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+    Embedding[] embeddings = new Embedding[textSegments.size()];
+    List<TextSegment> misses = new ArrayList<>();
+    List<Integer> missIndexes = new ArrayList<>();
+
+    for (int i = 0; i < textSegments.size(); i++) {
+      float[] vector = cache.get(textSegments.get(i).text());
+      if (vector != null) {
+        embeddings[i] = Embedding.from(vector);
+      } else {
+        misses.add(textSegments.get(i));
+        missIndexes.add(i);
+      }
+    }
+
+    if (!misses.isEmpty()) {
+      List<Embedding> generated = delegate.embedAll(misses).content();
+      for (int i = 0; i < generated.size(); i++) {
+        Embedding embedding = generated.get(i);
+        cache.put(misses.get(i).text(), embedding.vector());
+        embeddings[missIndexes.get(i)] = embedding;
+      }
+    }
+
+    return Response.from(Arrays.asList(embeddings));
+  }
+}
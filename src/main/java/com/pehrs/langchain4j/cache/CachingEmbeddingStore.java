@@ -0,0 +1,319 @@
+package com.pehrs.langchain4j.cache;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.pehrs.langchain4j.AsyncEmbeddingStore;
+import com.pehrs.langchain4j.ingest.UpdateMarker;
+import com.typesafe.config.Config;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * EmbeddingStore decorator that caches search results.
+ *
+ * <p>The cache key is the query embedding, normalized and quantized to steps of
+ * {@code 1/quantizationScale}, together with {@code maxResults}, {@code minScore}, the filter and
+ * the query text of hybrid searches.
+ * A lower scale lets slightly different embeddings of the same question share a result. Results
+ * expire after {@code ttl}, the least recently used one is evicted when the cache holds
+ * {@code maxEntries} results and every write to the store clears the cache.
+ *
+ * <p>The cache is per process. Writes by other processes, like the ingestion feeding the store
+ * of the gRPC service, only clear it through the {@link UpdateMarker}, checked at most once a
+ * second. Without a marker a result can be up to {@code ttl} old.
+ */
+public class CachingEmbeddingStore<Embedded> implements AsyncEmbeddingStore<Embedded>, Closeable {
+
+  public static final String RETRIEVAL_CACHE_HIT = "retrieval.cache.hit";
+  public static final String RETRIEVAL_CACHE_MISS = "retrieval.cache.miss";
+  public static final String RETRIEVAL_CACHE_EVICT = "retrieval.cache.evict";
+  public static final String RETRIEVAL_CACHE_INVALIDATE = "retrieval.cache.invalidate";
+
+  private record Key(ByteBuffer quantizedEmbedding, int maxResults, double minScore,
+                     Filter filter, String queryText) {
+
+  }
+
+  private record Entry<Embedded>(EmbeddingSearchResult<Embedded> result, long expiresAtNanos) {
+
+  }
+
+  private final EmbeddingStore<Embedded> delegate;
+  private final Clock clock;
+  private final int maxEntries;
+  private final long ttlNanos;
+  private final float quantizationScale;
+  // Null without an update marker
+  private final UpdateMarker.Watch updateMarker;
+
+  // Access ordered, the first entry is the least recently used one
+  private final LinkedHashMap<Key, Entry<Embedded>> cache =
+      new LinkedHashMap<>(16, 0.75f, true);
+  // Incremented after every write, results of searches started before it are not cached
+  private long generation = 0;
+
+  private final Meter hits;
+  private final Meter misses;
+  private final Meter evictions;
+  private final Meter invalidations;
+
+  public CachingEmbeddingStore(MetricRegistry metricRegistry, Clock clock,
+      EmbeddingStore<Embedded> delegate, int maxEntries, Duration ttl, float quantizationScale,
+      UpdateMarker updateMarker) {
+    this.delegate = delegate;
+    this.clock = clock;
+    this.maxEntries = maxEntries;
+    this.ttlNanos = ttl.toNanos();
+    this.quantizationScale = quantizationScale;
+    this.updateMarker = updateMarker == null ? null : updateMarker.watch(clock);
+    this.hits = metricRegistry.meter(RETRIEVAL_CACHE_HIT);
+    this.misses = metricRegistry.meter(RETRIEVAL_CACHE_MISS);
+    this.evictions = metricRegistry.meter(RETRIEVAL_CACHE_EVICT);
+    this.invalidations = metricRegistry.meter(RETRIEVAL_CACHE_INVALIDATE);
+  }
+
+  /**
+   * @return the store wrapped in the cache configured in {@code embeddings.retrievalCache} or
+   * the store itself if the cache is not enabled
+   */
+  public static <Embedded> EmbeddingStore<Embedded> wrapFromConfig(MetricRegistry metricRegistry,
+      Config config, EmbeddingStore<Embedded> store) {
+    if (!config.hasPath("embeddings.retrievalCache")
+        || !config.getBoolean("embeddings.retrievalCache.enabled")) {
+      return store;
+    }
+    Config cacheConfig = config.getConfig("embeddings.retrievalCache");
+    return new CachingEmbeddingStore<>(
+        metricRegistry,
+        Clock.defaultClock(),
+        store,
+        cacheConfig.getInt("maxEntries"),
+        cacheConfig.getDuration("ttl"),
+        (float) cacheConfig.getDouble("quantizationScale"),
+        UpdateMarker.fromConfig(config));
+  }
+
+  @Override
+  public EmbeddingSearchResult<Embedded> search(EmbeddingSearchRequest request) {
+    Key key = key(request, null);
+    long searchGeneration;
+    synchronized (this) {
+      EmbeddingSearchResult<Embedded> cached = lookup(key);
+      if (cached != null) {
+        return cached;
+      }
+      searchGeneration = generation;
+    }
+    EmbeddingSearchResult<Embedded> result = delegate.search(request);
+    store(key, result, searchGeneration);
+    return result;
+  }
+
+  @Override
+  public CompletableFuture<EmbeddingSearchResult<Embedded>> searchAsync(
+      EmbeddingSearchRequest request) {
+    return searchAsync(request, null);
+  }
+
+  @Override
+  public CompletableFuture<EmbeddingSearchResult<Embedded>> searchAsync(
+      EmbeddingSearchRequest request, String queryText) {
+    Key key = key(request, queryText);
+    long searchGeneration;
+    synchronized (this) {
+      EmbeddingSearchResult<Embedded> cached = lookup(key);
+      if (cached != null) {
+        return CompletableFuture.completedFuture(cached);
+      }
+      searchGeneration = generation;
+    }
+    return AsyncEmbeddingStore.searchAsync(delegate, request, queryText,
+            ForkJoinPool.commonPool())
+        .thenApply(result -> {
+          store(key, result, searchGeneration);
+          return result;
+        });
+  }
+
+  public synchronized int size() {
+    return cache.size();
+  }
+
+  private EmbeddingSearchResult<Embedded> lookup(Key key) {
+    checkUpdateMarker();
+    Entry<Embedded> entry = cache.get(key);
+    if (entry != null && entry.expiresAtNanos() - clock.getTick() > 0) {
+      hits.mark();
+      return entry.result();
+    }
+    if (entry != null) {
+      cache.remove(key);
+    }
+    misses.mark();
+    return null;
+  }
+
+  private synchronized void store(Key key, EmbeddingSearchResult<Embedded> result,
+      long searchGeneration) {
+    checkUpdateMarker();
+    if (searchGeneration != generation) {
+      return;
+    }
+    cache.put(key, new Entry<>(result, clock.getTick() + ttlNanos));
+    if (cache.size() > maxEntries) {
+      Iterator<Map.Entry<Key, Entry<Embedded>>> eldest = cache.entrySet().iterator();
+      eldest.next();
+      eldest.remove();
+      evictions.mark();
+    }
+  }
+
+  /**
+   * Invalidate the cache if another process has written to the store since the last check.
+   */
+  private void checkUpdateMarker() {
+    if (updateMarker != null && updateMarker.changed(false)) {
+      invalidate();
+    }
+  }
+
+  /**
+   * Called after every write, searches that started before it are not cached.
+   */
+  private synchronized void invalidate() {
+    generation++;
+    if (!cache.isEmpty()) {
+      cache.clear();
+      invalidations.mark();
+    }
+  }
+
+  private Key key(EmbeddingSearchRequest request, String queryText) {
+    float[] vector = request.queryEmbedding().vector();
+    double norm = 0.0;
+    for (float value : vector) {
+      norm += value * value;
+    }
+    double scale = norm == 0.0 ? 0.0 : quantizationScale / Math.sqrt(norm);
+    ByteBuffer quantized = ByteBuffer.allocate(vector.length * 2);
+    for (float value : vector) {
+      long step = Math.round(value * scale);
+      quantized.putShort((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, step)));
+    }
+    quantized.flip();
+    return new Key(quantized, request.maxResults(), request.minScore(), request.filter(),
+        queryText);
+  }
+
+  @Override
+  public String add(Embedding embedding) {
+    try {
+      return delegate.add(embedding);
+    } finally {
+      invalidate();
+    }
+  }
+
+  @Override
+  public void add(String id, Embedding embedding) {
+    try {
+      delegate.add(id, embedding);
+    } finally {
+      invalidate();
+    }
+  }
+
+  @Override
+  public String add(Embedding embedding, Embedded embedded) {
+    try {
+      return delegate.add(embedding, embedded);
+    } finally {
+      invalidate();
+    }
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings) {
+    try {
+      return delegate.addAll(embeddings);
+    } finally {
+      invalidate();
+    }
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings, List<Embedded> embedded) {
+    try {
+      return delegate.addAll(embeddings, embedded);
+    } finally {
+      invalidate();
+    }
+  }
+
+  @Override
+  public void addAll(List<String> ids, List<Embedding> embeddings, List<Embedded> embedded) {
+    try {
+      delegate.addAll(ids, embeddings, embedded);
+    } finally {
+      invalidate();
+    }
+  }
+
+  @Override
+  public void remove(String id) {
+    try {
+      delegate.remove(id);
+    } finally {
+      invalidate();
+    }
+  }
+
+  @Override
+  public void removeAll(Collection<String> ids) {
+    try {
+      delegate.removeAll(ids);
+    } finally {
+      invalidate();
+    }
+  }
+
+  @Override
+  public void removeAll(Filter filter) {
+    try {
+      delegate.removeAll(filter);
+    } finally {
+      invalidate();
+    }
+  }
+
+  @Override
+  public void removeAll() {
+    try {
+      delegate.removeAll();
+    } finally {
+      invalidate();
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (delegate instanceof Closeable closeable) {
+      closeable.close();
+    }
+  }
+}
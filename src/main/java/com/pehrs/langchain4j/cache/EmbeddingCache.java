@@ -0,0 +1,359 @@
+package com.pehrs.langchain4j.cache;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.pehrs.langchain4j.util.HalfFloat;
+import com.typesafe.config.Config;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent, content addressed cache of embedding vectors.
+ *
+ * <p>Vectors are keyed by the SHA-256 of the model name and the segment text. Each model has its
+ * own directory with:
+ * <ul>
+ *   <li>{@code meta.properties} - vector dimension and precision</li>
+ *   <li>{@code vectors.bin} - fixed size slots with float32 or fp16 values, memory mapped</li>
+ *   <li>{@code index.log} - append-only {@code "<slot> <key> <crc>"} lines, compacted on
+ *   close</li>
+ * </ul>
+ * The vectors are not forced before their index line is written, instead the line holds the
+ * CRC-32 of the slot and entries whose slot does not match it after a crash are dropped on load.
+ * When the cache holds {@code maxEntries} vectors the least recently used one is evicted and its
+ * slot reused. Hits, misses and evictions are reported as meters.
+ */
+public class EmbeddingCache implements Closeable {
+
+  static Logger log = LoggerFactory.getLogger(EmbeddingCache.class);
+
+  public static final String EMBEDDINGS_CACHE_HIT = "embeddings.cache.hit";
+  public static final String EMBEDDINGS_CACHE_MISS = "embeddings.cache.miss";
+  public static final String EMBEDDINGS_CACHE_EVICT = "embeddings.cache.evict";
+
+  private static final String META_FILE = "meta.properties";
+  private static final String INDEX_FILE = "index.log";
+  private static final String VECTORS_FILE = "vectors.bin";
+
+  // Max size of one memory mapped region of the vectors file
+  private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+  public enum Precision {
+    FLOAT32(4),
+    FLOAT16(2);
+
+    final int bytes;
+
+    Precision(int bytes) {
+      this.bytes = bytes;
+    }
+  }
+
+  private final Path dir;
+  private final String modelName;
+  private final Precision precision;
+  private final int maxEntries;
+
+  // Access ordered, the first entry is the least recently used one
+  private final LinkedHashMap<String, Integer> index = new LinkedHashMap<>(16, 0.75f, true);
+  private int nextSlot = 0;
+
+  private final FileChannel vectorsChannel;
+  private MappedByteBuffer[] chunks;
+  private int dimension = 0;
+  private int slotBytes;
+  private int slotsPerChunk;
+
+  private BufferedWriter indexWriter;
+
+  private final Meter hits;
+  private final Meter misses;
+  private final Meter evictions;
+
+  public EmbeddingCache(MetricRegistry metricRegistry, Path baseDir, String modelName,
+      Precision precision, int maxEntries) throws IOException {
+    this.dir = baseDir.resolve(modelName.replaceAll("[^A-Za-z0-9._-]", "_"));
+    this.modelName = modelName;
+    this.precision = precision;
+    this.maxEntries = maxEntries;
+    this.hits = metricRegistry.meter(EMBEDDINGS_CACHE_HIT);
+    this.misses = metricRegistry.meter(EMBEDDINGS_CACHE_MISS);
+    this.evictions = metricRegistry.meter(EMBEDDINGS_CACHE_EVICT);
+
+    Files.createDirectories(dir);
+    loadMeta();
+    this.vectorsChannel = FileChannel.open(dir.resolve(VECTORS_FILE),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    if (dimension > 0) {
+      initLayout();
+      loadIndex();
+    }
+    this.indexWriter = Files.newBufferedWriter(dir.resolve(INDEX_FILE), StandardCharsets.UTF_8,
+        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    log.info("Embedding cache {}: {} vectors", dir, index.size());
+  }
+
+  /**
+   * @return the cache configured in {@code embeddings.cache} or null if it is not enabled
+   */
+  public static EmbeddingCache fromConfig(MetricRegistry metricRegistry, Config config)
+      throws IOException {
+    if (!config.hasPath("embeddings.cache")
+        || !config.getBoolean("embeddings.cache.enabled")) {
+      return null;
+    }
+    Config cacheConfig = config.getConfig("embeddings.cache");
+    return new EmbeddingCache(
+        metricRegistry,
+        Path.of(cacheConfig.getString("dir")),
+        config.getString("ollama.modelName"),
+        Precision.valueOf(cacheConfig.getString("precision").toUpperCase(Locale.ROOT)),
+        cacheConfig.getInt("maxEntries"));
+  }
+
+  /**
+   * @return the cached vector or null
+   */
+  public synchronized float[] get(String text) {
+    Integer slot = dimension == 0 ? null : index.get(key(text));
+    if (slot == null) {
+      misses.mark();
+      return null;
+    }
+    hits.mark();
+    return readVector(slot);
+  }
+
+  public synchronized void put(String text, float[] vector) {
+    if (dimension == 0) {
+      this.dimension = vector.length;
+      storeMeta();
+      initLayout();
+    } else if (vector.length != dimension) {
+      log.warn("Not caching vector of dimension {}, the cache for {} has dimension {}",
+          vector.length, modelName, dimension);
+      return;
+    }
+
+    String key = key(text);
+    if (index.containsKey(key)) {
+      return;
+    }
+    int slot;
+    if (nextSlot < maxEntries) {
+      slot = nextSlot++;
+    } else {
+      Iterator<Map.Entry<String, Integer>> eldest = index.entrySet().iterator();
+      slot = eldest.next().getValue();
+      eldest.remove();
+      evictions.mark();
+    }
+    writeVector(slot, vector);
+    index.put(key, slot);
+    try {
+      indexWriter.write(slot + " " + key + " " + checksum(slot) + "\n");
+      indexWriter.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  public synchronized int size() {
+    return index.size();
+  }
+
+  private String key(String text) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(modelName.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(text.getBytes(StandardCharsets.UTF_8));
+      return HexFormat.of().formatHex(digest.digest());
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private void initLayout() {
+    this.slotBytes = dimension * precision.bytes;
+    this.slotsPerChunk = (int) Math.max(1, MAX_CHUNK_BYTES / slotBytes);
+    this.chunks = new MappedByteBuffer[(maxEntries + slotsPerChunk - 1) / slotsPerChunk];
+  }
+
+  private MappedByteBuffer chunk(int slot) {
+    int chunkIndex = slot / slotsPerChunk;
+    if (chunks[chunkIndex] == null) {
+      long firstSlot = (long) chunkIndex * slotsPerChunk;
+      long slots = Math.min(slotsPerChunk, maxEntries - firstSlot);
+      try {
+        chunks[chunkIndex] = vectorsChannel.map(MapMode.READ_WRITE,
+            firstSlot * slotBytes, slots * slotBytes);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return chunks[chunkIndex];
+  }
+
+  private float[] readVector(int slot) {
+    MappedByteBuffer buffer = chunk(slot);
+    int offset = (slot % slotsPerChunk) * slotBytes;
+    float[] vector = new float[dimension];
+    if (precision == Precision.FLOAT32) {
+      for (int i = 0; i < dimension; i++) {
+        vector[i] = buffer.getFloat(offset + i * 4);
+      }
+    } else {
+      for (int i = 0; i < dimension; i++) {
+        vector[i] = HalfFloat.toFloat(buffer.getShort(offset + i * 2));
+      }
+    }
+    return vector;
+  }
+
+  private long checksum(int slot) {
+    MappedByteBuffer buffer = chunk(slot);
+    CRC32 crc = new CRC32();
+    crc.update(buffer.slice((slot % slotsPerChunk) * slotBytes, slotBytes));
+    return crc.getValue();
+  }
+
+  private void writeVector(int slot, float[] vector) {
+    MappedByteBuffer buffer = chunk(slot);
+    int offset = (slot % slotsPerChunk) * slotBytes;
+    if (precision == Precision.FLOAT32) {
+      for (int i = 0; i < dimension; i++) {
+        buffer.putFloat(offset + i * 4, vector[i]);
+      }
+    } else {
+      for (int i = 0; i < dimension; i++) {
+        buffer.putShort(offset + i * 2, HalfFloat.fromFloat(vector[i]));
+      }
+    }
+  }
+
+  private void loadMeta() throws IOException {
+    Path metaFile = dir.resolve(META_FILE);
+    if (!Files.exists(metaFile)) {
+      return;
+    }
+    Properties meta = new Properties();
+    try (InputStream in = Files.newInputStream(metaFile)) {
+      meta.load(in);
+    }
+    if (!precision.name().equals(meta.getProperty("precision"))) {
+      log.info("Embedding cache precision changed to {}, clearing {}", precision, dir);
+      Files.deleteIfExists(dir.resolve(INDEX_FILE));
+      Files.deleteIfExists(dir.resolve(VECTORS_FILE));
+      Files.delete(metaFile);
+      return;
+    }
+    this.dimension = Integer.parseInt(meta.getProperty("dimension"));
+  }
+
+  private void storeMeta() {
+    Properties meta = new Properties();
+    meta.setProperty("model", modelName);
+    meta.setProperty("dimension", String.valueOf(dimension));
+    meta.setProperty("precision", precision.name());
+    try (OutputStream out = Files.newOutputStream(dir.resolve(META_FILE))) {
+      meta.store(out, "Embedding cache");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void loadIndex() throws IOException {
+    Path indexFile = dir.resolve(INDEX_FILE);
+    if (!Files.exists(indexFile)) {
+      return;
+    }
+    Map<Integer, String> slotOwners = new LinkedHashMap<>();
+    Map<String, Long> checksums = new LinkedHashMap<>();
+    try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] parts = line.split(" ");
+        if (parts.length != 3) {
+          // Partially written line, or a line without checksum
+          continue;
+        }
+        int slot = Integer.parseInt(parts[0]);
+        if (slot >= maxEntries) {
+          // maxEntries has been lowered since the entry was written
+          continue;
+        }
+        String previousOwner = slotOwners.put(slot, parts[1]);
+        if (previousOwner != null) {
+          index.remove(previousOwner);
+        }
+        index.put(parts[1], slot);
+        checksums.put(parts[1], Long.parseLong(parts[2]));
+        nextSlot = Math.max(nextSlot, slot + 1);
+      }
+    }
+    // The vector of a slot may not have reached the disk before a crash
+    Iterator<Map.Entry<String, Integer>> entries = index.entrySet().iterator();
+    while (entries.hasNext()) {
+      Map.Entry<String, Integer> entry = entries.next();
+      if (checksum(entry.getValue()) != checksums.get(entry.getKey())) {
+        log.warn("Dropping the cached vector in slot {} of {}, it does not match its checksum",
+            entry.getValue(), dir);
+        entries.remove();
+      }
+    }
+  }
+
+  /**
+   * Rewrite the index in LRU order so the next run starts with the same eviction order.
+   */
+  private void compactIndex() throws IOException {
+    Path tmpFile = dir.resolve(INDEX_FILE + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Integer> entry : index.entrySet()) {
+        writer.write(entry.getValue() + " " + entry.getKey() + " " + checksum(entry.getValue())
+            + "\n");
+      }
+    }
+    Files.move(tmpFile, dir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (chunks != null) {
+      for (MappedByteBuffer chunk : chunks) {
+        if (chunk != null) {
+          chunk.force();
+        }
+      }
+    }
+    indexWriter.close();
+    compactIndex();
+    vectorsChannel.close();
+  }
+}
@@ -22,6 +22,7 @@ import java.util.Map;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.Stack;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -96,7 +97,7 @@ public class EpubDocumentsReader implements DocumentsReader {
             return handler.toString();
           }).collect(Collectors.joining("\n"));
 
-      String srcId = DatatypeConverter.printHexBinary(file.getName().getBytes(Charset.defaultCharset()));
+      String srcId = srcId(file);
 
       dev.langchain4j.data.document.Metadata l4jMetadata = dev.langchain4j.data.document.Metadata.from(
           Map.of(
@@ -113,6 +114,10 @@ public class EpubDocumentsReader implements DocumentsReader {
   }
 
 
+  static String srcId(File file) {
+    return DatatypeConverter.printHexBinary(file.getName().getBytes(Charset.defaultCharset()));
+  }
+
   public Iterator<Document> iterator() {
     return new Iterator<Document>() {
       @Override
@@ -136,4 +141,11 @@ public class EpubDocumentsReader implements DocumentsReader {
         Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED),
         false);
   }
+
+  @Override
+  public Stream<Document> readDocuments(Predicate<String> skipSource) {
+    // The source id is derived from the file name, no need to parse skipped books
+    this.files.removeIf(file -> skipSource.test(srcId(file)));
+    return readDocuments();
+  }
 }
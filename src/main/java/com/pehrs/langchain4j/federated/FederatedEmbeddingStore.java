@@ -0,0 +1,161 @@
+package com.pehrs.langchain4j.federated;
+
+import com.codahale.metrics.MetricRegistry;
+import com.pehrs.langchain4j.AsyncEmbeddingStore;
+import com.pehrs.langchain4j.FanOutSearch;
+import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingConfig;
+import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingStore;
+import com.typesafe.config.Config;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+
+/**
+ * Searches several stores in parallel and merges their hits into one top {@code maxResults}.
+ *
+ * <p>The scores of different stores are not comparable (the news are ranked with the timestamp
+ * as well), so the hits are merged with reciprocal rank fusion: a hit scores
+ * {@code 1 / (RRF_K + rank)} for its rank in every store that returned it, and the scores of the
+ * returned matches are these sums. The {@code minScore} of the request is applied to the scores of
+ * every store before the fusion, not all stores filter by it themselves. The stores are searched
+ * by a {@link FanOutSearch} with the {@code timeout}. The stores are fed separately, writes are not
+ * supported.
+ */
+public class FederatedEmbeddingStore<Embedded> implements AsyncEmbeddingStore<Embedded>,
+    Closeable {
+
+  public static final String FEDERATED_SOURCE_TIMEOUT = "federated.source.timeout";
+  public static final String FEDERATED_SOURCE_ERROR = "federated.source.error";
+
+  // Damps the weight of the first ranks, the value of Cormack et al
+  static final int RRF_K = 60;
+
+  private final List<EmbeddingStore<Embedded>> stores;
+  // Runs the search of stores that can not search asynchronously
+  private final ExecutorService executor;
+  private final FanOutSearch<Embedded> fanOut;
+
+  public FederatedEmbeddingStore(MetricRegistry metricRegistry,
+      List<EmbeddingStore<Embedded>> stores, Duration timeout) {
+    this.stores = stores;
+    this.executor = Executors.newCachedThreadPool();
+    this.fanOut = new FanOutSearch<>(
+        IntStream.range(0, stores.size()).mapToObj(source -> "federated source " + source)
+            .toList(),
+        stores, timeout, executor,
+        metricRegistry.meter(FEDERATED_SOURCE_TIMEOUT),
+        metricRegistry.meter(FEDERATED_SOURCE_ERROR));
+  }
+
+  /**
+   * One {@link SimpleVespaEmbeddingStore} per entry of {@code vespa.federated.sources}, each entry
+   * overrides the settings of the {@code vespa} section, typically the docType and the
+   * vespaDocumentHandler.
+   */
+  public static FederatedEmbeddingStore<TextSegment> fromConfig(MetricRegistry metricRegistry,
+      Config config) {
+    Config vespaConfig = config.getConfig("vespa");
+    Config federatedConfig = vespaConfig.getConfig("federated");
+    List<EmbeddingStore<TextSegment>> stores = new ArrayList<>();
+    for (Config sourceConfig : federatedConfig.getConfigList("sources")) {
+      stores.add(new SimpleVespaEmbeddingStore(metricRegistry,
+          SimpleVespaEmbeddingConfig.fromConfig(sourceConfig.withFallback(vespaConfig)).build()));
+    }
+    return new FederatedEmbeddingStore<>(metricRegistry, stores,
+        federatedConfig.getDuration("timeout"));
+  }
+
+  @Override
+  public EmbeddingSearchResult<Embedded> search(EmbeddingSearchRequest request) {
+    return FanOutSearch.join(searchAsync(request));
+  }
+
+  @Override
+  public CompletableFuture<EmbeddingSearchResult<Embedded>> searchAsync(
+      EmbeddingSearchRequest request) {
+    return searchAsync(request, null);
+  }
+
+  @Override
+  public CompletableFuture<EmbeddingSearchResult<Embedded>> searchAsync(
+      EmbeddingSearchRequest request, String queryText) {
+    return fanOut.search(request, queryText)
+        .thenApply(matches -> merge(matches, request.minScore(), request.maxResults()));
+  }
+
+  static <Embedded> EmbeddingSearchResult<Embedded> merge(
+      List<List<EmbeddingMatch<Embedded>>> results, double minScore, int maxResults) {
+    Map<String, EmbeddingMatch<Embedded>> fused = new LinkedHashMap<>();
+    for (List<EmbeddingMatch<Embedded>> result : results) {
+      List<EmbeddingMatch<Embedded>> matches = result.stream()
+          .filter(match -> match.score() >= minScore)
+          .sorted(Comparator.comparingDouble(
+              (EmbeddingMatch<Embedded> match) -> match.score()).reversed())
+          .toList();
+      for (int rank = 1; rank <= matches.size(); rank++) {
+        EmbeddingMatch<Embedded> match = matches.get(rank - 1);
+        double score = 1.0 / (RRF_K + rank);
+        fused.merge(match.embeddingId(),
+            new EmbeddingMatch<>(score, match.embeddingId(), match.embedding(),
+                match.embedded()),
+            (first, other) -> new EmbeddingMatch<>(first.score() + other.score(),
+                first.embeddingId(), first.embedding(), first.embedded()));
+      }
+    }
+    List<EmbeddingMatch<Embedded>> merged = new ArrayList<>(fused.values());
+    merged.sort(Comparator.comparingDouble(
+        (EmbeddingMatch<Embedded> match) -> match.score()).reversed());
+    return new EmbeddingSearchResult<>(
+        merged.size() > maxResults ? new ArrayList<>(merged.subList(0, maxResults)) : merged);
+  }
+
+  @Override
+  public void close() throws IOException {
+    executor.shutdown();
+    for (EmbeddingStore<Embedded> store : stores) {
+      if (store instanceof Closeable closeable) {
+        closeable.close();
+      }
+    }
+  }
+
+  @Override
+  public String add(Embedding embedding) {
+    throw new UnsupportedOperationException("Add to the federated stores directly");
+  }
+
+  @Override
+  public void add(String id, Embedding embedding) {
+    throw new UnsupportedOperationException("Add to the federated stores directly");
+  }
+
+  @Override
+  public String add(Embedding embedding, Embedded embedded) {
+    throw new UnsupportedOperationException("Add to the federated stores directly");
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings) {
+    throw new UnsupportedOperationException("Add to the federated stores directly");
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings, List<Embedded> embedded) {
+    throw new UnsupportedOperationException("Add to the federated stores directly");
+  }
+}
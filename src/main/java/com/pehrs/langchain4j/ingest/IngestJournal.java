@@ -0,0 +1,191 @@
+package com.pehrs.langchain4j.ingest;
+
+import com.pehrs.langchain4j.RagSample;
+import com.typesafe.config.Config;
+import dev.langchain4j.data.segment.TextSegment;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only journal of the text segments that the EmbeddingStore has acknowledged, so a
+ * restarted ingestion can skip the sources that are done and the segments already fed.
+ *
+ * <p>Sources are identified by {@link RagSample#METADATA_SRC_ID} and segments by
+ * {@link RagSample#METADATA_SEGMENT_INDEX}. The journal has two kinds of lines:
+ * <pre>
+ *   A &lt;segment-index&gt;[,&lt;segment-index&gt;...] &lt;src-id&gt;
+ *   C &lt;src-id&gt;
+ * </pre>
+ * {@code A} lines are written (and synced to disk) for every acknowledged batch and a {@code C}
+ * line when all segments of a source have been acknowledged, or when it has no segments.
+ * Delete the journal file to ingest everything again.
+ */
+public class IngestJournal implements Closeable {
+
+  static Logger log = LoggerFactory.getLogger(IngestJournal.class);
+
+  private final Set<String> completedSources = new HashSet<>();
+  // Acknowledged segments of sources not yet completed
+  private final Map<String, Set<Integer>> ackedSegments = new HashMap<>();
+  // Number of segments for the sources split in this run
+  private final Map<String, Integer> expectedSegments = new HashMap<>();
+
+  private final FileOutputStream out;
+  private final BufferedWriter writer;
+
+  public IngestJournal(Path file) throws IOException {
+    if (Files.exists(file)) {
+      load(file);
+      log.info("Ingest journal {}: {} completed sources, {} partially fed sources",
+          file, completedSources.size(), ackedSegments.size());
+    }
+    this.out = new FileOutputStream(file.toFile(), true);
+    this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @return the journal configured in {@code embeddings.journal} or null if it is not enabled
+   */
+  public static IngestJournal fromConfig(Config config) throws IOException {
+    if (!config.hasPath("embeddings.journal")
+        || !config.getBoolean("embeddings.journal.enabled")) {
+      return null;
+    }
+    return new IngestJournal(Path.of(config.getString("embeddings.journal.file")));
+  }
+
+  public synchronized boolean isCompleted(String srcId) {
+    return srcId != null && completedSources.contains(srcId);
+  }
+
+  public synchronized boolean isAcknowledged(TextSegment segment) {
+    String srcId = srcId(segment);
+    Integer segmentIndex = segmentIndex(segment);
+    if (srcId == null || segmentIndex == null) {
+      return false;
+    }
+    if (completedSources.contains(srcId)) {
+      return true;
+    }
+    Set<Integer> acked = ackedSegments.get(srcId);
+    return acked != null && acked.contains(segmentIndex);
+  }
+
+  /**
+   * Register the number of segments a source was split into. Needed to know when the source is
+   * completed.
+   */
+  public synchronized void expectSegments(String srcId, int segmentCount) throws IOException {
+    if (srcId == null || completedSources.contains(srcId)) {
+      return;
+    }
+    expectedSegments.put(srcId, segmentCount);
+    // All segments might have been fed before a crash
+    if (completeIfDone(srcId)) {
+      sync();
+    }
+  }
+
+  /**
+   * Record a batch of segments acknowledged by the EmbeddingStore.
+   */
+  public synchronized void acknowledge(List<TextSegment> segments) throws IOException {
+    Map<String, List<Integer>> bySource = new LinkedHashMap<>();
+    for (TextSegment segment : segments) {
+      String srcId = srcId(segment);
+      Integer segmentIndex = segmentIndex(segment);
+      if (srcId != null && segmentIndex != null) {
+        bySource.computeIfAbsent(srcId, key -> new ArrayList<>()).add(segmentIndex);
+      }
+    }
+    if (bySource.isEmpty()) {
+      return;
+    }
+
+    for (Map.Entry<String, List<Integer>> entry : bySource.entrySet()) {
+      String indexes = entry.getValue().stream()
+          .map(String::valueOf)
+          .collect(Collectors.joining(","));
+      writer.write("A " + indexes + " " + entry.getKey() + "\n");
+      ackedSegments.computeIfAbsent(entry.getKey(), key -> new HashSet<>())
+          .addAll(entry.getValue());
+    }
+    for (String srcId : bySource.keySet()) {
+      completeIfDone(srcId);
+    }
+    sync();
+  }
+
+  private boolean completeIfDone(String srcId) throws IOException {
+    Integer expected = expectedSegments.get(srcId);
+    Set<Integer> acked = ackedSegments.get(srcId);
+    // A source without segments is done as soon as it has been split
+    if (expected == null || (acked == null ? 0 : acked.size()) < expected) {
+      return false;
+    }
+    writer.write("C " + srcId + "\n");
+    completedSources.add(srcId);
+    ackedSegments.remove(srcId);
+    expectedSegments.remove(srcId);
+    return true;
+  }
+
+  private void sync() throws IOException {
+    writer.flush();
+    out.getFD().sync();
+  }
+
+  private void load(Path file) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("A ")) {
+          String[] parts = line.split(" ", 3);
+          if (parts.length != 3 || completedSources.contains(parts[2])) {
+            continue;
+          }
+          Set<Integer> acked = ackedSegments.computeIfAbsent(parts[2], key -> new HashSet<>());
+          for (String index : parts[1].split(",")) {
+            acked.add(Integer.parseInt(index));
+          }
+        } else if (line.startsWith("C ")) {
+          String srcId = line.substring(2);
+          completedSources.add(srcId);
+          ackedSegments.remove(srcId);
+        }
+        // Anything else is a partially written line from a crash
+      }
+    }
+  }
+
+  private static String srcId(TextSegment segment) {
+    return segment.metadata().getString(RagSample.METADATA_SRC_ID);
+  }
+
+  private static Integer segmentIndex(TextSegment segment) {
+    String index = segment.metadata().getString(RagSample.METADATA_SEGMENT_INDEX);
+    return index == null ? null : Integer.valueOf(index);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    writer.close();
+  }
+}
@@ -0,0 +1,299 @@
+package com.pehrs.langchain4j.ingest;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A simple staged pipeline where every stage has its own worker threads and a bounded input
+ * queue. A full queue blocks the stage in front of it, so the slowest stage sets the throughput
+ * instead of the sum of all stages.
+ *
+ * <pre>
+ *   IngestPipeline.source(metricRegistry, 16, "read", documents)
+ *       .stage("split", 2, (Document doc, Consumer&lt;TextSegment&gt; emit) -> ...)
+ *       .stage("batch", 1, new IngestPipeline.Batcher&lt;&gt;(40))
+ *       ...
+ *       .run();
+ * </pre>
+ *
+ * For every stage the following gauges are registered:
+ * <ul>
+ *   <li>{@code pipeline.<stage>.queue} - items waiting in the input queue</li>
+ *   <li>{@code pipeline.<stage>.busy.ms} - time spent processing items (all workers)</li>
+ *   <li>{@code pipeline.<stage>.idle.ms} - time spent waiting for input or for the next stage</li>
+ *   <li>{@code pipeline.<stage>.busy.pct} - busy time in percent of busy + idle time</li>
+ * </ul>
+ */
+public class IngestPipeline {
+
+  static Logger log = LoggerFactory.getLogger(IngestPipeline.class);
+
+  public static final String PIPELINE_METRICS_PREFIX = "pipeline.";
+
+  /**
+   * End of stream marker passed between the stages.
+   */
+  private static final Object END = new Object();
+
+  /**
+   * A pipeline stage. {@code process} is called concurrently by all workers of the stage.
+   */
+  @FunctionalInterface
+  public interface Stage<I, O> {
+
+    void process(I item, Consumer<O> emit) throws Exception;
+
+    /**
+     * Called once when all workers of the stage have seen the end of the input.
+     */
+    default void flush(Consumer<O> emit) throws Exception {
+    }
+  }
+
+  /**
+   * Collects items into lists of {@code batchSize}. Run it with one worker to keep the item order.
+   */
+  public static class Batcher<T> implements Stage<T, List<T>> {
+
+    private final int batchSize;
+    private List<T> batch;
+
+    public Batcher(int batchSize) {
+      this.batchSize = batchSize;
+      this.batch = new ArrayList<>(batchSize);
+    }
+
+    @Override
+    public synchronized void process(T item, Consumer<List<T>> emit) {
+      batch.add(item);
+      if (batch.size() >= batchSize) {
+        emit.accept(batch);
+        batch = new ArrayList<>(batchSize);
+      }
+    }
+
+    @Override
+    public synchronized void flush(Consumer<List<T>> emit) {
+      if (!batch.isEmpty()) {
+        emit.accept(batch);
+        batch = new ArrayList<>(batchSize);
+      }
+    }
+  }
+
+  private final MetricRegistry metricRegistry;
+  private final int queueSize;
+  private final String sourceName;
+  private final Iterator<?> source;
+  private final List<StageRunner> stages = new ArrayList<>();
+
+  private final LongAdder sourceBusyNanos = new LongAdder();
+  private final LongAdder sourceIdleNanos = new LongAdder();
+
+  private IngestPipeline(MetricRegistry metricRegistry, int queueSize, String sourceName,
+      Iterator<?> source) {
+    this.metricRegistry = metricRegistry;
+    this.queueSize = queueSize;
+    this.sourceName = sourceName;
+    this.source = source;
+    registerTimeGauges(sourceName, sourceBusyNanos, sourceIdleNanos);
+  }
+
+  /**
+   * Start a new pipeline. The source iterator is read by a single thread and {@code null} items
+   * are skipped.
+   */
+  public static <T> Builder<T> source(MetricRegistry metricRegistry, int queueSize,
+      String name, Iterator<T> source) {
+    return new Builder<>(new IngestPipeline(metricRegistry, queueSize, name, source));
+  }
+
+  public static class Builder<T> {
+
+    private final IngestPipeline pipeline;
+
+    private Builder(IngestPipeline pipeline) {
+      this.pipeline = pipeline;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <O> Builder<O> stage(String name, int workers, Stage<T, O> stage) {
+      pipeline.addStage(name, workers, (Stage<Object, Object>) stage);
+      return new Builder<>(pipeline);
+    }
+
+    /**
+     * Run the pipeline and block until all items have passed through all stages.
+     */
+    public void run() throws InterruptedException {
+      pipeline.run();
+    }
+  }
+
+  private void addStage(String name, int workers, Stage<Object, Object> stage) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("Stage " + name + " needs at least one worker");
+    }
+    StageRunner runner = new StageRunner(name, workers, stage, new ArrayBlockingQueue<>(queueSize));
+    if (!stages.isEmpty()) {
+      stages.get(stages.size() - 1).next = runner;
+    }
+    stages.add(runner);
+  }
+
+  private void run() throws InterruptedException {
+    if (stages.isEmpty()) {
+      throw new IllegalStateException("The pipeline has no stages");
+    }
+    int threads = 1 + stages.stream().mapToInt(stage -> stage.workers).sum();
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    ExecutorCompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+    try {
+      completionService.submit(named(PIPELINE_METRICS_PREFIX + sourceName, this::readSource));
+      for (StageRunner stage : stages) {
+        for (int i = 0; i < stage.workers; i++) {
+          completionService.submit(named(PIPELINE_METRICS_PREFIX + stage.name + "-" + i, stage::work));
+        }
+      }
+      for (int i = 0; i < threads; i++) {
+        try {
+          completionService.take().get();
+        } catch (ExecutionException ex) {
+          // Stop all the other stages, they might be blocked on a queue that will never move
+          executor.shutdownNow();
+          Throwable cause = ex.getCause();
+          if (cause instanceof RuntimeException rex) {
+            throw rex;
+          }
+          throw new RuntimeException(cause);
+        }
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private Callable<Void> named(String threadName, Callable<Void> task) {
+    return () -> {
+      Thread.currentThread().setName(threadName);
+      return task.call();
+    };
+  }
+
+  private Void readSource() throws InterruptedException {
+    BlockingQueue<Object> first = stages.get(0).input;
+    while (true) {
+      long busyStart = System.nanoTime();
+      if (!source.hasNext()) {
+        break;
+      }
+      Object item = source.next();
+      long idleStart = System.nanoTime();
+      sourceBusyNanos.add(idleStart - busyStart);
+      if (item == null) {
+        log.warn("null item from pipeline source " + sourceName);
+        continue;
+      }
+      first.put(item);
+      sourceIdleNanos.add(System.nanoTime() - idleStart);
+    }
+    first.put(END);
+    return null;
+  }
+
+  private void registerTimeGauges(String name, LongAdder busyNanos, LongAdder idleNanos) {
+    String prefix = PIPELINE_METRICS_PREFIX + name;
+    registerGauge(prefix + ".busy.ms", () -> busyNanos.sum() / 1_000_000L);
+    registerGauge(prefix + ".idle.ms", () -> idleNanos.sum() / 1_000_000L);
+    registerGauge(prefix + ".busy.pct", () -> {
+      long busy = busyNanos.sum();
+      long total = busy + idleNanos.sum();
+      return total == 0 ? 0L : (100L * busy) / total;
+    });
+  }
+
+  private void registerGauge(String name, Gauge<?> gauge) {
+    // A new pipeline replaces the gauges of an earlier run in the same registry
+    metricRegistry.remove(name);
+    metricRegistry.register(name, gauge);
+  }
+
+  private class StageRunner {
+
+    final String name;
+    final int workers;
+    final Stage<Object, Object> stage;
+    final BlockingQueue<Object> input;
+    final AtomicInteger activeWorkers;
+    final LongAdder busyNanos = new LongAdder();
+    final LongAdder idleNanos = new LongAdder();
+    StageRunner next;
+
+    StageRunner(String name, int workers, Stage<Object, Object> stage,
+        BlockingQueue<Object> input) {
+      this.name = name;
+      this.workers = workers;
+      this.stage = stage;
+      this.input = input;
+      this.activeWorkers = new AtomicInteger(workers);
+      registerGauge(PIPELINE_METRICS_PREFIX + name + ".queue", (Gauge<Integer>) input::size);
+      registerTimeGauges(name, busyNanos, idleNanos);
+    }
+
+    Void work() throws Exception {
+      Consumer<Object> emit = this::emit;
+      while (true) {
+        long idleStart = System.nanoTime();
+        Object item = input.take();
+        long busyStart = System.nanoTime();
+        idleNanos.add(busyStart - idleStart);
+        if (item == END) {
+          // Let the other workers of this stage see the end marker as well
+          input.put(END);
+          break;
+        }
+        stage.process(item, emit);
+        busyNanos.add(System.nanoTime() - busyStart);
+      }
+      if (activeWorkers.decrementAndGet() == 0) {
+        stage.flush(emit);
+        if (next != null) {
+          next.input.put(END);
+        }
+      }
+      return null;
+    }
+
+    private void emit(Object item) {
+      if (next == null || item == null) {
+        return;
+      }
+      long start = System.nanoTime();
+      try {
+        next.input.put(item);
+        // Time blocked on a full queue is back-pressure, not work
+        long blocked = System.nanoTime() - start;
+        busyNanos.add(-blocked);
+        idleNanos.add(blocked);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
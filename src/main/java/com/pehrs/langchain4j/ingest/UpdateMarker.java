@@ -0,0 +1,103 @@
+package com.pehrs.langchain4j.ingest;
+
+import com.codahale.metrics.Clock;
+import com.typesafe.config.Config;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A file that ingestion touches whenever it has written new segments to the embedding store. Other
+ * processes, like the gRPC service, compare its modification time to know when to drop cached
+ * answers.
+ */
+public class UpdateMarker {
+
+  private final Path file;
+
+  public UpdateMarker(Path file) {
+    this.file = file;
+  }
+
+  /**
+   * @return the marker configured in {@code embeddings.updateMarkerFile} or null
+   */
+  public static UpdateMarker fromConfig(Config config) {
+    if (!config.hasPath("embeddings.updateMarkerFile")) {
+      return null;
+    }
+    return new UpdateMarker(Path.of(config.getString("embeddings.updateMarkerFile")));
+  }
+
+  public void touch() {
+    try {
+      if (!Files.exists(file)) {
+        Files.createFile(file);
+      }
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @return the time of the last update in millis or 0 if there has not been any
+   */
+  public long lastModified() {
+    try {
+      return Files.exists(file) ? Files.getLastModifiedTime(file).toMillis() : 0L;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * @return a watch that reports changes made after now
+   */
+  public Watch watch(Clock clock) {
+    return new Watch(this, clock);
+  }
+
+  /**
+   * Tells a cache whether the marker has changed since its last check. The file is read at most
+   * once a second, unless the check is forced. Not thread safe, callers check it under their lock.
+   */
+  public static class Watch {
+
+    // Check the marker at most this often
+    private static final long CHECK_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final UpdateMarker marker;
+    private final Clock clock;
+    private long checkedNanos;
+    private long modified;
+
+    private Watch(UpdateMarker marker, Clock clock) {
+      this.marker = marker;
+      this.clock = clock;
+      this.modified = marker.lastModified();
+      this.checkedNanos = clock.getTick();
+    }
+
+    /**
+     * @param force read the marker even if it was checked less than a second ago
+     * @return true if the marker has changed since the last check that read it
+     */
+    public boolean changed(boolean force) {
+      long now = clock.getTick();
+      if (!force && now - checkedNanos < CHECK_NANOS) {
+        return false;
+      }
+      checkedNanos = now;
+      long lastModified = marker.lastModified();
+      if (lastModified == modified) {
+        return false;
+      }
+      modified = lastModified;
+      return true;
+    }
+  }
+}
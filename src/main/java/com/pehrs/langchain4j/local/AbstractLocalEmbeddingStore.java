@@ -0,0 +1,492 @@
+package com.pehrs.langchain4j.local;
+
+import static dev.langchain4j.internal.Utils.randomUUID;
+
+import com.pehrs.langchain4j.local.SegmentFile.Segment;
+import com.pehrs.langchain4j.projection.EmbeddingProjection;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.RelevanceScore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Base of the stores kept in a local directory. Every embedding has a slot, its normalized vector
+ * is in {@code vectors.bin} (see {@link VectorFile}) and its id, text and metadata in
+ * {@code segments.bin} (see {@link SegmentFile}). The subclasses add their index on top.
+ *
+ * <p>Adds and removes are written to a {@link WriteAheadLog} and synced before they return,
+ * concurrent writers share one sync. Every {@code snapshotInterval}, and on close, the files are
+ * forced to disk and {@code snapshot.bin} records the slots and removed slots in them, the log
+ * before it is deleted. On open the files are cut back to the snapshot and the log after it is
+ * replayed. A removed embedding keeps its slot, so the indexes of the subclasses stay valid, it
+ * is just no longer returned.
+ *
+ * <p>A directory has one writer: the store holds a lock on {@code store.lock} until it is closed,
+ * and opening a directory that another store or process has open fails. The gRPC service and
+ * RagSampleCreateEmbeddings can not share a directory.
+ *
+ * <p>Scores are {@link RelevanceScore#fromCosineSimilarity} like the InMemoryEmbeddingStore, and
+ * the returned embeddings are normalized.
+ */
+public abstract class AbstractLocalEmbeddingStore implements EmbeddingStore<TextSegment>,
+    Closeable {
+
+  static Logger log = LoggerFactory.getLogger(AbstractLocalEmbeddingStore.class);
+
+  static final String VECTORS_FILE = "vectors.bin";
+  static final String SEGMENTS_FILE = "segments.bin";
+  static final String SNAPSHOT_FILE = "snapshot.bin";
+  static final String LOCK_FILE = "store.lock";
+
+  public static final Duration DEFAULT_SNAPSHOT_INTERVAL = Duration.ofMinutes(1);
+
+  private static final int SNAPSHOT_MAGIC = 0x534e5031; // "SNP1"
+
+  protected final Path dir;
+  // Holds the lock of the directory until closed
+  private final FileChannel lockChannel;
+  final SegmentFile segments;
+  // Null until the first add to a new store, the dimension is not known before
+  protected volatile VectorFile vectors;
+  private volatile int size;
+  // Replaced on every remove, so searches read it without a lock
+  private volatile BitSet removed = new BitSet();
+
+  private final WriteAheadLog wal;
+  private final Duration snapshotInterval;
+  private final Object snapshotLock = new Object();
+  // Started by the first write
+  private ScheduledExecutorService snapshotExecutor;
+
+  private record Snapshot(int size, long walGeneration, BitSet removed) {
+
+  }
+
+  protected AbstractLocalEmbeddingStore(Path dir) throws IOException {
+    this(dir, DEFAULT_SNAPSHOT_INTERVAL);
+  }
+
+  /**
+   * @param snapshotInterval time between snapshots, zero for only on close
+   */
+  protected AbstractLocalEmbeddingStore(Path dir, Duration snapshotInterval) throws IOException {
+    this.dir = dir;
+    this.snapshotInterval = snapshotInterval;
+    Files.createDirectories(dir);
+    // Before anything is truncated or replayed, that would break the files of the other writer
+    this.lockChannel = lock(dir.resolve(LOCK_FILE));
+    try {
+      this.segments = new SegmentFile(dir.resolve(SEGMENTS_FILE));
+      this.vectors = VectorFile.open(dir.resolve(VECTORS_FILE));
+      int vectorCount = vectors == null ? 0 : vectors.size();
+      // Line up the files after a crash between the two writes of an append
+      this.size = Math.min(vectorCount, segments.size());
+
+      Snapshot snapshot = readSnapshot(dir.resolve(SNAPSHOT_FILE));
+      if (snapshot != null) {
+        if (snapshot.size() > size) {
+          throw new IOException(dir + " has " + size + " embeddings, the snapshot has "
+              + snapshot.size());
+        }
+        // The log has everything written after the snapshot
+        size = snapshot.size();
+        removed = snapshot.removed();
+      }
+      segments.truncate(size);
+      if (vectors != null) {
+        vectors.truncate(size);
+      }
+
+      if (snapshot == null) {
+        // A new store, or one from before the log: the files are the snapshot
+        long generation = WriteAheadLog.nextGeneration(dir);
+        forceFiles();
+        writeSnapshot(new Snapshot(size, generation, removed));
+        this.wal = new WriteAheadLog(dir, generation);
+      } else {
+        long generation = WriteAheadLog.replay(dir, snapshot.walGeneration(),
+            new WriteAheadLog.Replay() {
+              @Override
+              public void add(int slot, String id, float[] vector, TextSegment textSegment)
+                  throws IOException {
+                if (slot != size) {
+                  throw new IOException("The log of " + dir + " adds slot " + slot
+                      + " to a store of " + size + " embeddings");
+                }
+                append(id, vector, textSegment);
+              }
+
+              @Override
+              public void remove(int[] slots) {
+                markRemoved(slots);
+              }
+            });
+        if (generation != snapshot.walGeneration()) {
+          // Snapshot the replayed log right away, so it is only replayed once
+          forceFiles();
+          writeSnapshot(new Snapshot(size, generation, removed));
+        }
+        this.wal = new WriteAheadLog(dir, generation);
+        wal.deleteBefore(generation);
+      }
+    } catch (IOException | RuntimeException e) {
+      // Let the directory be opened again
+      lockChannel.close();
+      throw e;
+    }
+  }
+
+  private static FileChannel lock(Path lockFile) throws IOException {
+    FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE);
+    FileLock lock;
+    try {
+      lock = channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      // Held by another store in this JVM
+      lock = null;
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    if (lock == null) {
+      channel.close();
+      throw new IOException(lockFile.getParent() + " is used by another store, a local store "
+          + "directory can only be opened by one process at a time");
+    }
+    return channel;
+  }
+
+  /**
+   * @return the number of slots in the store, including the removed embeddings
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Write the vector and segment to the files, called with the store locked.
+   *
+   * @return the slot of the embedding
+   */
+  private int append(String id, float[] vector, TextSegment textSegment) throws IOException {
+    if (vectors == null) {
+      vectors = VectorFile.create(dir.resolve(VECTORS_FILE), vector.length);
+    }
+    int slot = vectors.append(vector);
+    segments.append(id, textSegment);
+    size = slot + 1;
+    return slot;
+  }
+
+  private void markRemoved(int[] slots) {
+    BitSet newRemoved = (BitSet) removed.clone();
+    for (int slot : slots) {
+      newRemoved.set(slot);
+    }
+    removed = newRemoved;
+  }
+
+  /**
+   * @return true if the embedding of the slot was removed
+   */
+  protected boolean isRemoved(int slot) {
+    return removed.get(slot);
+  }
+
+  /**
+   * @return the normalized query embedding
+   */
+  protected float[] query(EmbeddingSearchRequest request) {
+    float[] query = normalize(request.queryEmbedding());
+    VectorFile vectorFile = vectors;
+    if (vectorFile != null && query.length != vectorFile.dimension()) {
+      throw new IllegalArgumentException("The store has embeddings of dimension "
+          + vectorFile.dimension() + ", got a query of dimension " + query.length);
+    }
+    return query;
+  }
+
+  protected static float[] normalize(Embedding embedding) {
+    return EmbeddingProjection.normalize(embedding.vector().clone());
+  }
+
+  /**
+   * @return the cosine similarity of a relevance score
+   */
+  protected static float minCosine(double minScore) {
+    // score = (cosine + 1) / 2
+    return (float) (2.0 * minScore - 1.0);
+  }
+
+  protected EmbeddingMatch<TextSegment> match(int slot, float cosine) {
+    Segment segment = segments.read(slot);
+    return new EmbeddingMatch<>(
+        RelevanceScore.fromCosineSimilarity(cosine),
+        segment.id(),
+        Embedding.from(vectors.read(slot)),
+        segment.textSegment());
+  }
+
+  @Override
+  public String add(Embedding embedding) {
+    String id = randomUUID();
+    add(id, embedding);
+    return id;
+  }
+
+  @Override
+  public void add(String id, Embedding embedding) {
+    addAll(List.of(id), List.of(embedding), null);
+  }
+
+  @Override
+  public String add(Embedding embedding, TextSegment textSegment) {
+    return addAll(List.of(embedding), List.of(textSegment)).get(0);
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings) {
+    return addAll(embeddings, null);
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
+    List<String> ids = embeddings.stream().map(embedding -> randomUUID()).toList();
+    addAll(ids, embeddings, textSegments);
+    return ids;
+  }
+
+  @Override
+  public void addAll(List<String> ids, List<Embedding> embeddings,
+      List<TextSegment> textSegments) {
+    if (ids.size() != embeddings.size()
+        || (textSegments != null && textSegments.size() != embeddings.size())) {
+      throw new IllegalArgumentException(
+          "The lists of ids, embeddings and embedded must have the same size");
+    }
+    if (embeddings.isEmpty()) {
+      return;
+    }
+    List<float[]> normalized = embeddings.stream()
+        .map(AbstractLocalEmbeddingStore::normalize)
+        .toList();
+    int firstSlot;
+    long position;
+    synchronized (this) {
+      // Checked before the log is written, a record that can not be replayed would be lost
+      int dimension = vectors == null ? normalized.get(0).length : vectors.dimension();
+      for (float[] vector : normalized) {
+        if (vector.length != dimension) {
+          throw new IllegalArgumentException(
+              "Expected an embedding of dimension " + dimension + ", got " + vector.length);
+        }
+      }
+      startSnapshots();
+      firstSlot = size;
+      position = wal.logAdd(firstSlot, ids, normalized, textSegments);
+      try {
+        for (int i = 0; i < normalized.size(); i++) {
+          append(ids.get(i), normalized.get(i), textSegments == null ? null : textSegments.get(i));
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    for (int slot = firstSlot; slot < firstSlot + normalized.size(); slot++) {
+      index(slot);
+    }
+    wal.sync(position);
+  }
+
+  /**
+   * Add the appended slot to the index of the store, called concurrently by the threads adding
+   * embeddings.
+   */
+  protected abstract void index(int slot);
+
+  /**
+   * Remove the embeddings, every remove scans the segments.
+   */
+  @Override
+  public void removeAll(Collection<String> ids) {
+    if (ids == null || ids.isEmpty()) {
+      throw new IllegalArgumentException("ids cannot be null or empty");
+    }
+    Set<String> idSet = new HashSet<>(ids);
+    remove(slot -> idSet.contains(segments.read(slot).id()));
+  }
+
+  @Override
+  public void removeAll(Filter filter) {
+    if (filter == null) {
+      throw new IllegalArgumentException("filter cannot be null");
+    }
+    remove(slot -> filter.test(segments.read(slot).metadata()));
+  }
+
+  @Override
+  public void removeAll() {
+    remove(slot -> true);
+  }
+
+  private void remove(IntPredicate matches) {
+    // Slots never change once written, only the removal is locked
+    int count = size;
+    List<Integer> matching = new ArrayList<>();
+    for (int slot = 0; slot < count; slot++) {
+      if (!isRemoved(slot) && matches.test(slot)) {
+        matching.add(slot);
+      }
+    }
+    if (matching.isEmpty()) {
+      return;
+    }
+    int[] slots = matching.stream().mapToInt(Integer::intValue).toArray();
+    long position;
+    synchronized (this) {
+      startSnapshots();
+      position = wal.logRemove(slots);
+      markRemoved(slots);
+    }
+    wal.sync(position);
+  }
+
+  private void startSnapshots() {
+    if (snapshotExecutor != null || snapshotInterval.isZero()) {
+      return;
+    }
+    snapshotExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "local-snapshot");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long millis = snapshotInterval.toMillis();
+    snapshotExecutor.scheduleWithFixedDelay(() -> {
+      try {
+        snapshot();
+      } catch (Exception e) {
+        log.error("Failed to snapshot {}", dir, e);
+      }
+    }, millis, millis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Force the files to disk, record them in {@code snapshot.bin} and delete the log they
+   * contain. Does nothing if nothing was written since the last snapshot.
+   */
+  public void snapshot() throws IOException {
+    synchronized (snapshotLock) {
+      Snapshot snapshot;
+      synchronized (this) {
+        if (wal.isEmpty()) {
+          return;
+        }
+        snapshot = new Snapshot(size, wal.rotate(), removed);
+      }
+      // Writes after the rotation are forced as well, they are replayed on top anyway
+      forceFiles();
+      forceIndex();
+      writeSnapshot(snapshot);
+      wal.deleteBefore(snapshot.walGeneration());
+    }
+  }
+
+  private void forceFiles() throws IOException {
+    segments.force();
+    if (vectors != null) {
+      vectors.force();
+    }
+  }
+
+  /**
+   * Force the index files of the subclass to disk, called by {@link #snapshot()}.
+   */
+  protected void forceIndex() throws IOException {
+  }
+
+  private void writeSnapshot(Snapshot snapshot) throws IOException {
+    Path snapshotFile = dir.resolve(SNAPSHOT_FILE);
+    Path tmpFile = dir.resolve(SNAPSHOT_FILE + ".tmp");
+    try (FileOutputStream file = new FileOutputStream(tmpFile.toFile());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+      byte[] removedBytes = snapshot.removed().toByteArray();
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeInt(snapshot.size());
+      out.writeLong(snapshot.walGeneration());
+      out.writeInt(removedBytes.length);
+      out.write(removedBytes);
+      out.flush();
+      file.getFD().sync();
+    }
+    Files.move(tmpFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @return the snapshot or null if the file does not exist
+   */
+  private static Snapshot readSnapshot(Path file) throws IOException {
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != SNAPSHOT_MAGIC) {
+        throw new IOException(file + " is not a snapshot file");
+      }
+      int size = in.readInt();
+      long walGeneration = in.readLong();
+      byte[] removedBytes = new byte[in.readInt()];
+      in.readFully(removedBytes);
+      return new Snapshot(size, walGeneration, BitSet.valueOf(removedBytes));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      if (snapshotExecutor != null) {
+        snapshotExecutor.shutdown();
+      }
+    }
+    snapshot();
+    wal.close();
+    segments.close();
+    if (vectors != null) {
+      vectors.close();
+    }
+    lockChannel.close();
+  }
+}
@@ -0,0 +1,123 @@
+package com.pehrs.langchain4j.local;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Product quantization codes of an {@link IvfPqEmbeddingStore}, one fixed size slot per
+ * embedding (the list plus one, 0 for a slot that is not encoded yet, followed by
+ * {@code codeBytes} codes), memory mapped in chunks of up to 64MB.
+ *
+ * <p>The file starts with an 8 byte header (magic and codeBytes). The codes are written before
+ * the list, so a slot torn by a crash reads as not encoded.
+ */
+class CodeFile implements Closeable {
+
+  private static final int MAGIC = 0x50514331; // "PQC1"
+  private static final int HEADER_BYTES = 8;
+  private static final long MAX_CHUNK_BYTES = 1L << 26;
+
+  private final Path file;
+  private final FileChannel channel;
+  private final int codeBytes;
+  private final int slotBytes;
+  private final int slotsPerChunk;
+
+  private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+  /**
+   * @param slots the slots of the store, the codes of any slots after them are dropped
+   */
+  CodeFile(Path file, int codeBytes, int slots) throws IOException {
+    this.file = file;
+    boolean exists = Files.exists(file);
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    this.codeBytes = codeBytes;
+    this.slotBytes = 4 + codeBytes;
+    this.slotsPerChunk = (int) Math.max(1, MAX_CHUNK_BYTES / slotBytes);
+    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    if (exists) {
+      channel.read(header, 0);
+      if (header.getInt(0) != MAGIC || header.getInt(4) != codeBytes) {
+        channel.close();
+        throw new IOException(file + " is not a code file of " + codeBytes + " bytes");
+      }
+      // Before any mapping, the slots of embeddings lost in a crash could be reused
+      channel.truncate(HEADER_BYTES + (long) slots * slotBytes);
+    } else {
+      header.putInt(0, MAGIC);
+      header.putInt(4, codeBytes);
+      channel.write(header, 0);
+      channel.force(true);
+    }
+    if (slots > 0) {
+      ensureCapacity(slots);
+    }
+  }
+
+  /**
+   * @return the list of the slot, -1 if it is not encoded
+   */
+  int list(int slot) {
+    MappedByteBuffer[] current = chunks;
+    int chunkIndex = slot / slotsPerChunk;
+    if (chunkIndex >= current.length) {
+      return -1;
+    }
+    return current[chunkIndex].getInt((slot % slotsPerChunk) * slotBytes) - 1;
+  }
+
+  void read(int slot, byte[] code) {
+    chunks[slot / slotsPerChunk].get((slot % slotsPerChunk) * slotBytes + 4, code, 0, codeBytes);
+  }
+
+  void write(int slot, int list, byte[] code) {
+    ensureCapacity(slot + 1);
+    MappedByteBuffer chunk = chunks[slot / slotsPerChunk];
+    int offset = (slot % slotsPerChunk) * slotBytes;
+    chunk.put(offset + 4, code, 0, codeBytes);
+    chunk.putInt(offset, list + 1);
+  }
+
+  private synchronized void ensureCapacity(int slots) {
+    int needed = (slots + slotsPerChunk - 1) / slotsPerChunk;
+    if (needed <= chunks.length) {
+      return;
+    }
+    MappedByteBuffer[] newChunks = Arrays.copyOf(chunks, needed);
+    long chunkBytes = (long) slotsPerChunk * slotBytes;
+    try {
+      for (int c = chunks.length; c < needed; c++) {
+        newChunks[c] = channel.map(MapMode.READ_WRITE, HEADER_BYTES + c * chunkBytes,
+            chunkBytes);
+        newChunks[c].order(ByteOrder.LITTLE_ENDIAN);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to map " + file, e);
+    }
+    chunks = newChunks;
+  }
+
+  synchronized void force() {
+    for (MappedByteBuffer chunk : chunks) {
+      chunk.force();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    force();
+    channel.close();
+  }
+}
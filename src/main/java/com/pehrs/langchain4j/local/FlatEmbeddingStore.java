@@ -0,0 +1,145 @@
+package com.pehrs.langchain4j.local;
+
+import com.typesafe.config.Config;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exact search over vectors memory mapped from a directory, for corpora that fit on one node
+ * without a Vespa. See {@link AbstractLocalEmbeddingStore} for the files.
+ *
+ * <p>A search scans all vectors, split in ranges over {@code searchThreads} threads, each range
+ * keeps its own top {@code maxResults} heap and the heaps are merged. The vectors stay off-heap,
+ * the heap only holds 8 bytes per segment for the sidecar offsets.
+ */
+public class FlatEmbeddingStore extends AbstractLocalEmbeddingStore {
+
+  static Logger log = LoggerFactory.getLogger(FlatEmbeddingStore.class);
+
+  // Smaller stores are scanned on the calling thread
+  private static final int MIN_SLOTS_PER_TASK = 16 * 1024;
+
+  private final int searchThreads;
+  private final ForkJoinPool searchPool;
+
+  private record Candidate(int slot, float cosine) {
+
+  }
+
+  /**
+   * @param searchThreads threads scanning the vectors, 0 for one per core
+   */
+  public FlatEmbeddingStore(Path dir, int searchThreads) throws IOException {
+    this(dir, searchThreads, DEFAULT_SNAPSHOT_INTERVAL);
+  }
+
+  public FlatEmbeddingStore(Path dir, int searchThreads, Duration snapshotInterval)
+      throws IOException {
+    super(dir, snapshotInterval);
+    this.searchThreads = searchThreads > 0
+        ? searchThreads
+        : Runtime.getRuntime().availableProcessors();
+    this.searchPool = new ForkJoinPool(this.searchThreads);
+    log.info("Local flat store {}: {} embeddings", dir, size());
+  }
+
+  /**
+   * @return the store of {@code local.flat}
+   */
+  public static FlatEmbeddingStore fromConfig(Config config) {
+    Config flatConfig = config.getConfig("local.flat");
+    try {
+      return new FlatEmbeddingStore(Path.of(flatConfig.getString("directory")),
+          flatConfig.getInt("searchThreads"),
+          config.getDuration("local.snapshotInterval"));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+    int count = size();
+    VectorFile vectorFile = vectors;
+    if (count == 0 || request.maxResults() <= 0) {
+      return new EmbeddingSearchResult<>(List.of());
+    }
+    float[] query = query(request);
+    float minCosine = minCosine(request.minScore());
+    int maxResults = request.maxResults();
+    Filter filter = request.filter();
+
+    int tasks = Math.max(1, Math.min(searchThreads, count / MIN_SLOTS_PER_TASK));
+    List<Candidate> candidates = new ArrayList<>();
+    if (tasks == 1) {
+      candidates.addAll(topK(vectorFile, query, 0, count, maxResults, minCosine, filter));
+    } else {
+      int rangeSize = (count + tasks - 1) / tasks;
+      List<CompletableFuture<List<Candidate>>> ranges = IntStream.range(0, tasks)
+          .mapToObj(task -> CompletableFuture.supplyAsync(() -> topK(vectorFile, query,
+              task * rangeSize, Math.min(count, (task + 1) * rangeSize), maxResults, minCosine,
+              filter), searchPool))
+          .toList();
+      ranges.forEach(range -> candidates.addAll(range.join()));
+    }
+
+    candidates.sort(Comparator.comparingDouble(Candidate::cosine).reversed());
+    List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>();
+    for (Candidate candidate : candidates.subList(0, Math.min(maxResults, candidates.size()))) {
+      matches.add(match(candidate.slot(), candidate.cosine()));
+    }
+    return new EmbeddingSearchResult<>(matches);
+  }
+
+  /**
+   * @return the best {@code k} slots of {@code [from, to)}, in no particular order
+   */
+  private List<Candidate> topK(VectorFile vectorFile, float[] query, int from, int to, int k,
+      float minCosine, Filter filter) {
+    PriorityQueue<Candidate> heap =
+        new PriorityQueue<>(k + 1, Comparator.comparingDouble(Candidate::cosine));
+    for (int slot = from; slot < to; slot++) {
+      float cosine = vectorFile.dot(slot, query);
+      if (cosine < minCosine || (heap.size() == k && cosine <= heap.peek().cosine())
+          || isRemoved(slot)) {
+        continue;
+      }
+      // Only the segments that would make it into the heap are read for the filter
+      if (filter != null && !filter.test(segments.read(slot).metadata())) {
+        continue;
+      }
+      heap.add(new Candidate(slot, cosine));
+      if (heap.size() > k) {
+        heap.poll();
+      }
+    }
+    return new ArrayList<>(heap);
+  }
+
+  @Override
+  protected void index(int slot) {
+    // Every search scans all slots
+  }
+
+  @Override
+  public void close() throws IOException {
+    searchPool.shutdown();
+    super.close();
+  }
+}
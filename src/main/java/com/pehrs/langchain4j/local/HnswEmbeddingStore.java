@@ -0,0 +1,506 @@
+package com.pehrs.langchain4j.local;
+
+import com.typesafe.config.Config;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Approximate search with an HNSW graph (Malkov and Yashunin), kept in a local directory next to
+ * the files of {@link AbstractLocalEmbeddingStore}:
+ * <ul>
+ *   <li>{@code links.bin} - the bottom layer, {@code 2 * m} neighbors per node, memory mapped,
+ *   see {@link LinkFile}</li>
+ *   <li>{@code graph.bin} - entry point and the upper layers, written by every snapshot and on
+ *   close. Only about one node in {@code m} has upper layers, they are loaded on the heap.</li>
+ * </ul>
+ * The graph is not rebuilt on restart. Embeddings added after the last snapshot, e.g. before a
+ * crash, are linked again when the store is opened.
+ *
+ * <p>Embeddings can be added from several threads. A node is locked with one of
+ * {@code LOCK_STRIPES} locks while its neighbors are read or changed, searches and inserts only
+ * wait for each other on the same stripe. The filter of a search is applied to the
+ * {@code efSearch} candidates, a very selective filter can return less than maxResults matches.
+ */
+public class HnswEmbeddingStore extends AbstractLocalEmbeddingStore {
+
+  static Logger log = LoggerFactory.getLogger(HnswEmbeddingStore.class);
+
+  static final String LINKS_FILE = "links.bin";
+  static final String GRAPH_FILE = "graph.bin";
+
+  private static final int MAGIC = 0x484e5357; // "HNSW"
+  private static final int LOCK_STRIPES = 4096;
+  private static final int MAX_LEVEL = 16;
+
+  private final int m;
+  private final int efConstruction;
+  private final int efSearch;
+  private final double levelMultiplier;
+
+  private final LinkFile links;
+  // Neighbors of the nodes with upper layers, index 0 is layer 1
+  private final Map<Integer, int[][]> upperLinks = new ConcurrentHashMap<>();
+  private final Object[] locks = new Object[LOCK_STRIPES];
+  // Held by the inserts, and exclusively while the graph is saved
+  private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+  // Nodes with all their links, a node is appended before it is linked
+  private final BitSet linkedNodes = new BitSet();
+
+  private record EntryPoint(int node, int level) {
+
+  }
+
+  private final Object entryPointLock = new Object();
+  private volatile EntryPoint entryPoint;
+
+  private record Candidate(int slot, float cosine) {
+
+  }
+
+  private static final Comparator<Candidate> BY_COSINE =
+      Comparator.comparingDouble(Candidate::cosine);
+
+  /**
+   * @param m              neighbors per node and layer, twice as many on the bottom layer. An
+   *                       existing store keeps the m it was built with.
+   * @param efConstruction candidates kept while linking a new node
+   * @param efSearch       candidates kept while searching, at least maxResults
+   */
+  public HnswEmbeddingStore(Path dir, int m, int efConstruction, int efSearch)
+      throws IOException {
+    this(dir, m, efConstruction, efSearch, DEFAULT_SNAPSHOT_INTERVAL);
+  }
+
+  public HnswEmbeddingStore(Path dir, int m, int efConstruction, int efSearch,
+      Duration snapshotInterval) throws IOException {
+    super(dir, snapshotInterval);
+    for (int i = 0; i < LOCK_STRIPES; i++) {
+      locks[i] = new Object();
+    }
+    this.links = new LinkFile(dir.resolve(LINKS_FILE), 2 * m);
+    if (links.maxLinks() != 2 * m) {
+      log.warn("{} was built with m={}, ignoring m={}", dir, links.maxLinks() / 2, m);
+    }
+    this.m = links.maxLinks() / 2;
+    this.efConstruction = efConstruction;
+    this.efSearch = efSearch;
+    this.levelMultiplier = 1.0 / Math.log(this.m);
+
+    int linked = loadGraph();
+    links.load(linked);
+    linkedNodes.set(0, linked);
+    if (linked < size()) {
+      log.info("Linking the {} embeddings added to {} after the graph was saved",
+          size() - linked, dir);
+      for (int node = linked; node < size(); node++) {
+        links.write(node, new int[0], 0);
+        upperLinks.remove(node);
+      }
+      for (int node = linked; node < size(); node++) {
+        index(node);
+      }
+    }
+    log.info("Local HNSW store {}: {} embeddings, m={}", dir, size(), this.m);
+  }
+
+  /**
+   * @return the store of {@code local.hnsw}
+   */
+  public static HnswEmbeddingStore fromConfig(Config config) {
+    Config hnswConfig = config.getConfig("local.hnsw");
+    try {
+      return new HnswEmbeddingStore(
+          Path.of(hnswConfig.getString("directory")),
+          hnswConfig.getInt("m"),
+          hnswConfig.getInt("efConstruction"),
+          hnswConfig.getInt("efSearch"),
+          config.getDuration("local.snapshotInterval"));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+    EntryPoint entry = entryPoint;
+    if (entry == null || request.maxResults() <= 0) {
+      return new EmbeddingSearchResult<>(List.of());
+    }
+    float[] query = query(request);
+    float minCosine = minCosine(request.minScore());
+    Filter filter = request.filter();
+
+    Candidate nearest = new Candidate(entry.node(), vectors.dot(entry.node(), query));
+    for (int level = entry.level(); level > 0; level--) {
+      nearest = greedySearch(query, nearest, level);
+    }
+    List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>();
+    for (Candidate candidate : searchLayer(query, nearest,
+        Math.max(efSearch, request.maxResults()), 0)) {
+      if (candidate.cosine() < minCosine || matches.size() == request.maxResults()) {
+        break;
+      }
+      if (isRemoved(candidate.slot())) {
+        continue;
+      }
+      if (filter == null || filter.test(segments.read(candidate.slot()).metadata())) {
+        matches.add(match(candidate.slot(), candidate.cosine()));
+      }
+    }
+    return new EmbeddingSearchResult<>(matches);
+  }
+
+  @Override
+  protected void index(int node) {
+    indexLock.readLock().lock();
+    try {
+      link(node);
+      synchronized (linkedNodes) {
+        linkedNodes.set(node);
+      }
+    } finally {
+      indexLock.readLock().unlock();
+    }
+  }
+
+  private void link(int node) {
+    float[] vector = vectors.read(node);
+    int level = randomLevel();
+    if (level > 0) {
+      int[][] upper = new int[level][];
+      Arrays.fill(upper, new int[0]);
+      synchronized (lock(node)) {
+        upperLinks.put(node, upper);
+      }
+    }
+
+    EntryPoint entry = entryPoint;
+    if (entry == null) {
+      synchronized (entryPointLock) {
+        if (entryPoint == null) {
+          entryPoint = new EntryPoint(node, level);
+          return;
+        }
+        entry = entryPoint;
+      }
+    }
+
+    Candidate nearest = new Candidate(entry.node(), vectors.dot(entry.node(), vector));
+    for (int l = entry.level(); l > level; l--) {
+      nearest = greedySearch(vector, nearest, l);
+    }
+    for (int l = Math.min(level, entry.level()); l >= 0; l--) {
+      List<Candidate> candidates = searchLayer(vector, nearest, efConstruction, l);
+      candidates.removeIf(candidate -> candidate.slot() == node);
+      int[] neighbors = selectNeighbors(candidates, maxLinks(l));
+      setLinks(node, l, neighbors, neighbors.length);
+      for (int neighbor : neighbors) {
+        connect(neighbor, node, l);
+      }
+      if (!candidates.isEmpty()) {
+        nearest = candidates.get(0);
+      }
+    }
+
+    if (level > entry.level()) {
+      synchronized (entryPointLock) {
+        if (level > entryPoint.level()) {
+          entryPoint = new EntryPoint(node, level);
+        }
+      }
+    }
+  }
+
+  private int randomLevel() {
+    double random = 1.0 - ThreadLocalRandom.current().nextDouble();
+    return Math.min(MAX_LEVEL, (int) (-Math.log(random) * levelMultiplier));
+  }
+
+  private int maxLinks(int level) {
+    return level == 0 ? 2 * m : m;
+  }
+
+  private Object lock(int node) {
+    return locks[node & (LOCK_STRIPES - 1)];
+  }
+
+  private int[] neighbors(int node, int level) {
+    synchronized (lock(node)) {
+      if (level == 0) {
+        return links.read(node);
+      }
+      int[][] upper = upperLinks.get(node);
+      return upper == null || upper.length < level ? new int[0] : upper[level - 1];
+    }
+  }
+
+  private void setLinks(int node, int level, int[] neighbors, int count) {
+    synchronized (lock(node)) {
+      if (level == 0) {
+        links.write(node, neighbors, count);
+        return;
+      }
+      int[][] upper = upperLinks.get(node);
+      if (upper != null && upper.length >= level) {
+        upper[level - 1] = Arrays.copyOf(neighbors, count);
+      }
+    }
+  }
+
+  /**
+   * Add the link from the node to the new node, and prune the neighbors of the node if it has
+   * too many.
+   */
+  private void connect(int node, int newNode, int level) {
+    synchronized (lock(node)) {
+      int[] current = neighbors(node, level);
+      for (int neighbor : current) {
+        if (neighbor == newNode) {
+          return;
+        }
+      }
+      int[] updated = Arrays.copyOf(current, current.length + 1);
+      updated[current.length] = newNode;
+      if (updated.length <= maxLinks(level)) {
+        setLinks(node, level, updated, updated.length);
+        return;
+      }
+      float[] vector = vectors.read(node);
+      List<Candidate> candidates = new ArrayList<>(updated.length);
+      for (int neighbor : updated) {
+        candidates.add(new Candidate(neighbor, vectors.dot(neighbor, vector)));
+      }
+      candidates.sort(BY_COSINE.reversed());
+      int[] pruned = selectNeighbors(candidates, maxLinks(level));
+      setLinks(node, level, pruned, pruned.length);
+    }
+  }
+
+  /**
+   * The neighbor heuristic of the paper: a candidate is skipped when it is closer to an already
+   * selected neighbor than to the node, which keeps links in several directions.
+   *
+   * @param candidates sorted best first
+   */
+  private int[] selectNeighbors(List<Candidate> candidates, int maxLinks) {
+    int[] selected = new int[Math.min(maxLinks, candidates.size())];
+    float[][] selectedVectors = new float[selected.length][];
+    int count = 0;
+    for (Candidate candidate : candidates) {
+      if (count == selected.length) {
+        break;
+      }
+      boolean diverse = true;
+      for (int s = 0; s < count && diverse; s++) {
+        diverse = vectors.dot(candidate.slot(), selectedVectors[s]) < candidate.cosine();
+      }
+      if (diverse) {
+        selected[count] = candidate.slot();
+        selectedVectors[count] = vectors.read(candidate.slot());
+        count++;
+      }
+    }
+    return Arrays.copyOf(selected, count);
+  }
+
+  private Candidate greedySearch(float[] query, Candidate start, int level) {
+    Candidate nearest = start;
+    boolean improved = true;
+    while (improved) {
+      improved = false;
+      for (int neighbor : neighbors(nearest.slot(), level)) {
+        float cosine = vectors.dot(neighbor, query);
+        if (cosine > nearest.cosine()) {
+          nearest = new Candidate(neighbor, cosine);
+          improved = true;
+        }
+      }
+    }
+    return nearest;
+  }
+
+  /**
+   * @return the best {@code ef} nodes of the layer found from the start node, best first
+   */
+  private List<Candidate> searchLayer(float[] query, Candidate start, int ef, int level) {
+    int count = size();
+    BitSet visited = new BitSet();
+    visited.set(start.slot());
+    PriorityQueue<Candidate> candidates = new PriorityQueue<>(BY_COSINE.reversed());
+    PriorityQueue<Candidate> results = new PriorityQueue<>(ef + 1, BY_COSINE);
+    candidates.add(start);
+    results.add(start);
+
+    while (!candidates.isEmpty()) {
+      Candidate candidate = candidates.poll();
+      if (results.size() >= ef && candidate.cosine() < results.peek().cosine()) {
+        break;
+      }
+      for (int neighbor : neighbors(candidate.slot(), level)) {
+        // A link to a node beyond the saved vectors can only be left by a crash
+        if (neighbor >= count || visited.get(neighbor)) {
+          continue;
+        }
+        visited.set(neighbor);
+        float cosine = vectors.dot(neighbor, query);
+        if (results.size() < ef || cosine > results.peek().cosine()) {
+          Candidate next = new Candidate(neighbor, cosine);
+          candidates.add(next);
+          results.add(next);
+          if (results.size() > ef) {
+            results.poll();
+          }
+        }
+      }
+    }
+    List<Candidate> best = new ArrayList<>(results);
+    best.sort(BY_COSINE.reversed());
+    return best;
+  }
+
+  /**
+   * @return the number of nodes linked in the saved graph
+   */
+  private int loadGraph() throws IOException {
+    Path graphFile = dir.resolve(GRAPH_FILE);
+    if (!Files.exists(graphFile)) {
+      return 0;
+    }
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(graphFile)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(graphFile + " is not an HNSW graph file");
+      }
+      int linked = Math.min(in.readInt(), size());
+      int entryNode = in.readInt();
+      int entryLevel = in.readInt();
+      int upperNodes = in.readInt();
+      for (int n = 0; n < upperNodes; n++) {
+        int node = in.readInt();
+        int[][] upper = new int[in.readInt()][];
+        for (int l = 0; l < upper.length; l++) {
+          upper[l] = new int[in.readInt()];
+          for (int i = 0; i < upper[l].length; i++) {
+            upper[l][i] = in.readInt();
+          }
+        }
+        if (node < linked) {
+          upperLinks.put(node, upper);
+        }
+      }
+      if (entryNode >= 0 && entryNode < linked) {
+        entryPoint = new EntryPoint(entryNode, entryLevel);
+        return linked;
+      }
+      return 0;
+    }
+  }
+
+  /**
+   * Write the entry point and upper layers of the nodes linked so far, the bottom layer is
+   * already in the mapped file. The inserts wait until it is written.
+   */
+  private void saveGraph() throws IOException {
+    Path graphFile = dir.resolve(GRAPH_FILE);
+    Path tmpFile = dir.resolve(GRAPH_FILE + ".tmp");
+    indexLock.writeLock().lock();
+    try {
+      int linked;
+      synchronized (linkedNodes) {
+        // Nodes appended by other threads can still wait for their links
+        linked = Math.min(linkedNodes.nextClearBit(0), size());
+      }
+      List<Map.Entry<Integer, int[][]>> upperNodes = upperLinks.entrySet().stream()
+          .filter(node -> node.getKey() < linked)
+          .toList();
+      EntryPoint entry = entryPoint(linked, upperNodes);
+      try (FileOutputStream file = new FileOutputStream(tmpFile.toFile());
+          DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+        out.writeInt(MAGIC);
+        out.writeInt(linked);
+        out.writeInt(entry == null ? -1 : entry.node());
+        out.writeInt(entry == null ? 0 : entry.level());
+        out.writeInt(upperNodes.size());
+        for (Map.Entry<Integer, int[][]> node : upperNodes) {
+          out.writeInt(node.getKey());
+          out.writeInt(node.getValue().length);
+          for (int[] neighbors : node.getValue()) {
+            out.writeInt(neighbors.length);
+            for (int neighbor : neighbors) {
+              out.writeInt(neighbor);
+            }
+          }
+        }
+        out.flush();
+        // On disk before the move, a torn graph file would keep the store from opening
+        file.getFD().sync();
+      }
+      links.force();
+      Files.move(tmpFile, graphFile, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      indexLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * @return the entry point of the graph, or the highest of the saved nodes if the entry point
+   * is not one of them
+   */
+  private EntryPoint entryPoint(int linked, List<Map.Entry<Integer, int[][]>> upperNodes) {
+    EntryPoint entry = entryPoint;
+    if (entry == null || entry.node() < linked) {
+      return entry;
+    }
+    EntryPoint highest = linked > 0 ? new EntryPoint(0, 0) : null;
+    for (Map.Entry<Integer, int[][]> node : upperNodes) {
+      if (node.getValue().length > highest.level()) {
+        highest = new EntryPoint(node.getKey(), node.getValue().length);
+      }
+    }
+    return highest;
+  }
+
+  /**
+   * Save the graph with the snapshot, so a store that is not closed is not linked again.
+   */
+  @Override
+  protected void forceIndex() throws IOException {
+    saveGraph();
+  }
+
+  @Override
+  public void close() throws IOException {
+    // The final snapshot first, the saved graph must not link more nodes than it has
+    super.close();
+    saveGraph();
+    links.close();
+  }
+}
@@ -0,0 +1,321 @@
+package com.pehrs.langchain4j.local;
+
+import com.typesafe.config.Config;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.stream.IntStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Approximate search with an inverted file of product quantization codes (IVF-PQ, Jegou et al),
+ * for corpora with more and wider vectors than the heap can hold. Kept in a local directory next
+ * to the files of {@link AbstractLocalEmbeddingStore}:
+ * <ul>
+ *   <li>{@code ivfpq.bin} - coarse centroids and codebooks, see {@link IvfPqQuantizer}</li>
+ *   <li>{@code codes.bin} - list and {@code subQuantizers} bytes per embedding, memory mapped,
+ *   see {@link CodeFile}</li>
+ * </ul>
+ * The quantizer is trained once the store has {@code trainingSize} embeddings, on a sample of
+ * that size, until then every search is exact. The heap only holds the quantizer and the lists,
+ * 4 bytes per embedding.
+ *
+ * <p>A search scores the embeddings of the {@code nprobe} lists nearest to the query from their
+ * codes, and re-ranks the best {@code maxResults * rerankFactor} with the full vectors. The filter
+ * of a search is applied to these candidates, a very selective filter can return less than
+ * maxResults matches.
+ */
+public class IvfPqEmbeddingStore extends AbstractLocalEmbeddingStore {
+
+  static Logger log = LoggerFactory.getLogger(IvfPqEmbeddingStore.class);
+
+  static final String QUANTIZER_FILE = "ivfpq.bin";
+  static final String CODES_FILE = "codes.bin";
+
+  private final int trainingSize;
+  private final int lists;
+  private final int nprobe;
+  private final int subQuantizers;
+  private final int rerankFactor;
+  private final int trainingIterations;
+
+  private final Object trainLock = new Object();
+  private final Object encodeLock = new Object();
+  // Null until trained, the codes and postings are set before it
+  private volatile IvfPqQuantizer quantizer;
+  private CodeFile codes;
+  private Postings[] postings;
+
+  private record Candidate(int slot, float score) {
+
+  }
+
+  private static final Comparator<Candidate> BY_SCORE =
+      Comparator.comparingDouble(Candidate::score);
+
+  /**
+   * Slots of the embeddings in one list. The slots are written before the count, so a search
+   * reading the count first sees them without a lock.
+   */
+  private static final class Postings {
+
+    private volatile int[] slots = new int[16];
+    private volatile int count;
+
+    // Called with the encodeLock held
+    void add(int slot) {
+      if (count == slots.length) {
+        slots = Arrays.copyOf(slots, count * 2);
+      }
+      slots[count] = slot;
+      count = count + 1;
+    }
+  }
+
+  /**
+   * @param trainingSize       embeddings needed to train the quantizer, also the sample size
+   * @param lists              coarse centroids, only used when the quantizer is trained
+   * @param nprobe             lists scored by a search
+   * @param subQuantizers      code bytes per embedding, at most the dimension. Only used when the
+   *                           quantizer is trained.
+   * @param rerankFactor       candidates per result re-ranked with the full vectors
+   * @param trainingIterations k-means iterations of the centroids and codebooks
+   */
+  public IvfPqEmbeddingStore(Path dir, int trainingSize, int lists, int nprobe,
+      int subQuantizers, int rerankFactor, int trainingIterations) throws IOException {
+    this(dir, trainingSize, lists, nprobe, subQuantizers, rerankFactor, trainingIterations,
+        DEFAULT_SNAPSHOT_INTERVAL);
+  }
+
+  public IvfPqEmbeddingStore(Path dir, int trainingSize, int lists, int nprobe,
+      int subQuantizers, int rerankFactor, int trainingIterations, Duration snapshotInterval)
+      throws IOException {
+    super(dir, snapshotInterval);
+    this.trainingSize = trainingSize;
+    this.lists = lists;
+    this.nprobe = nprobe;
+    this.subQuantizers = subQuantizers;
+    this.rerankFactor = rerankFactor;
+    this.trainingIterations = trainingIterations;
+
+    IvfPqQuantizer loaded = IvfPqQuantizer.load(dir.resolve(QUANTIZER_FILE));
+    if (loaded == null) {
+      // Codes of a lost quantizer are useless
+      Files.deleteIfExists(dir.resolve(CODES_FILE));
+      if (size() >= trainingSize) {
+        train();
+      }
+    } else {
+      open(loaded);
+    }
+    log.info("Local IVF-PQ store {}: {} embeddings, {}", dir, size(),
+        quantizer == null ? "not trained" : quantizer.lists() + " lists");
+  }
+
+  /**
+   * @return the store of {@code local.ivfpq}
+   */
+  public static IvfPqEmbeddingStore fromConfig(Config config) {
+    Config ivfPqConfig = config.getConfig("local.ivfpq");
+    try {
+      return new IvfPqEmbeddingStore(
+          Path.of(ivfPqConfig.getString("directory")),
+          ivfPqConfig.getInt("trainingSize"),
+          ivfPqConfig.getInt("lists"),
+          ivfPqConfig.getInt("nprobe"),
+          ivfPqConfig.getInt("subQuantizers"),
+          ivfPqConfig.getInt("rerankFactor"),
+          ivfPqConfig.getInt("trainingIterations"),
+          config.getDuration("local.snapshotInterval"));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void open(IvfPqQuantizer loaded) throws IOException {
+    codes = new CodeFile(dir.resolve(CODES_FILE), loaded.codeBytes(), size());
+    postings = newPostings(loaded.lists());
+    quantizer = loaded;
+    int encoded = 0;
+    for (int slot = 0; slot < size(); slot++) {
+      int list = codes.list(slot);
+      if (list < 0) {
+        encode(loaded, slot);
+        encoded++;
+      } else {
+        postings[list].add(slot);
+      }
+    }
+    if (encoded > 0) {
+      log.info("Encoded the {} embeddings added to {} after the codes were saved", encoded, dir);
+    }
+  }
+
+  private static Postings[] newPostings(int lists) {
+    Postings[] newPostings = new Postings[lists];
+    for (int list = 0; list < lists; list++) {
+      newPostings[list] = new Postings();
+    }
+    return newPostings;
+  }
+
+  /**
+   * Train the quantizer on a sample of the embeddings and encode them, called by the add that
+   * reaches {@code trainingSize}. Does nothing if the store is already trained.
+   */
+  public void train() {
+    synchronized (trainLock) {
+      int count = size();
+      if (quantizer != null || count == 0) {
+        return;
+      }
+      Random random = new Random();
+      int[] sample = random.ints(0, count).distinct().limit(Math.min(count, trainingSize))
+          .sorted().toArray();
+      log.info("Training {} lists and {} sub-quantizers of {} on {} embeddings", lists,
+          subQuantizers, dir, sample.length);
+      long start = System.currentTimeMillis();
+      IvfPqQuantizer trained = IvfPqQuantizer.train(vectors, sample, lists, subQuantizers,
+          trainingIterations, random);
+      try {
+        Files.deleteIfExists(dir.resolve(CODES_FILE));
+        codes = new CodeFile(dir.resolve(CODES_FILE), trained.codeBytes(), 0);
+        trained.save(dir.resolve(QUANTIZER_FILE));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      postings = newPostings(trained.lists());
+      quantizer = trained;
+      // Slots appended from here on are also encoded by their own index call
+      for (int slot = 0; slot < size(); slot++) {
+        encode(trained, slot);
+      }
+      log.info("Trained {} in {}ms", dir, System.currentTimeMillis() - start);
+    }
+  }
+
+  private void encode(IvfPqQuantizer trained, int slot) {
+    byte[] code = new byte[trained.codeBytes()];
+    int list = trained.encode(vectors.read(slot), code);
+    synchronized (encodeLock) {
+      if (codes.list(slot) < 0) {
+        codes.write(slot, list, code);
+        postings[list].add(slot);
+      }
+    }
+  }
+
+  @Override
+  protected void index(int slot) {
+    IvfPqQuantizer trained = quantizer;
+    if (trained != null) {
+      encode(trained, slot);
+    } else if (size() >= trainingSize) {
+      train();
+    }
+  }
+
+  @Override
+  public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+    int count = size();
+    if (count == 0 || request.maxResults() <= 0) {
+      return new EmbeddingSearchResult<>(List.of());
+    }
+    float[] query = query(request);
+    float minCosine = minCosine(request.minScore());
+    int maxResults = request.maxResults();
+    Filter filter = request.filter();
+
+    IvfPqQuantizer trained = quantizer;
+    int[] slots = trained == null
+        ? IntStream.range(0, count).toArray()
+        : candidates(trained, query, maxResults * rerankFactor);
+
+    PriorityQueue<Candidate> heap = new PriorityQueue<>(maxResults + 1, BY_SCORE);
+    for (int slot : slots) {
+      float cosine = vectors.dot(slot, query);
+      if (cosine < minCosine || (heap.size() == maxResults && cosine <= heap.peek().score())
+          || isRemoved(slot)) {
+        continue;
+      }
+      if (filter != null && !filter.test(segments.read(slot).metadata())) {
+        continue;
+      }
+      heap.add(new Candidate(slot, cosine));
+      if (heap.size() > maxResults) {
+        heap.poll();
+      }
+    }
+    List<Candidate> best = new ArrayList<>(heap);
+    best.sort(BY_SCORE.reversed());
+    List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>();
+    for (Candidate candidate : best) {
+      matches.add(match(candidate.slot(), candidate.score()));
+    }
+    return new EmbeddingSearchResult<>(matches);
+  }
+
+  /**
+   * @return the {@code k} slots of the probed lists with the best approximate dot product
+   */
+  private int[] candidates(IvfPqQuantizer trained, float[] query, int k) {
+    float[][] table = trained.distanceTable(query);
+    byte[] code = new byte[trained.codeBytes()];
+    PriorityQueue<Candidate> heap = new PriorityQueue<>(k + 1, BY_SCORE);
+    for (int list : trained.probe(query, nprobe)) {
+      float centroidDot = trained.centroidDot(query, list);
+      Postings listPostings = postings[list];
+      int listCount = listPostings.count;
+      int[] listSlots = listPostings.slots;
+      for (int i = 0; i < listCount; i++) {
+        int slot = listSlots[i];
+        codes.read(slot, code);
+        float score = centroidDot;
+        for (int s = 0; s < code.length; s++) {
+          score += table[s][code[s] & 0xff];
+        }
+        if (heap.size() == k && score <= heap.peek().score()) {
+          continue;
+        }
+        heap.add(new Candidate(slot, score));
+        if (heap.size() > k) {
+          heap.poll();
+        }
+      }
+    }
+    return heap.stream().mapToInt(Candidate::slot).toArray();
+  }
+
+  @Override
+  protected void forceIndex() {
+    synchronized (trainLock) {
+      if (codes != null) {
+        codes.force();
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    super.close();
+    synchronized (trainLock) {
+      if (codes != null) {
+        codes.close();
+      }
+    }
+  }
+}
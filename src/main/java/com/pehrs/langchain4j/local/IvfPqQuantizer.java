@@ -0,0 +1,241 @@
+package com.pehrs.langchain4j.local;
+
+import com.pehrs.langchain4j.local.KMeans.Points;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+/**
+ * Coarse centroids and product quantization codebooks of an {@link IvfPqEmbeddingStore}.
+ *
+ * <p>A vector is assigned to the list of its nearest centroid, and the residual (vector minus
+ * centroid) is split in {@code subQuantizers} sub-vectors that are each replaced by the number of
+ * the nearest of up to 256 codebook entries, one byte per sub-vector. The dot product of a query
+ * and an encoded vector is {@code q.centroid + sum(q_s.codebook[s][code[s]])}, the second part
+ * is looked up in a per query {@link #distanceTable} (asymmetric distance computation).
+ */
+class IvfPqQuantizer {
+
+  private static final int MAGIC = 0x49565051; // "IVPQ"
+  private static final int CODEBOOK_SIZE = 256;
+
+  private final int dimension;
+  private final float[][] centroids;
+  private final float[] halfNorms;
+  // First value of every sub-vector, and dimension at the end
+  private final int[] subStarts;
+  // [subQuantizer][entry][sub-vector value]
+  private final float[][][] codebooks;
+  private final float[][] codebookHalfNorms;
+
+  IvfPqQuantizer(int dimension, float[][] centroids, float[][][] codebooks) {
+    this.dimension = dimension;
+    this.centroids = centroids;
+    this.halfNorms = KMeans.halfNorms(centroids);
+    this.codebooks = codebooks;
+    this.subStarts = subStarts(dimension, codebooks.length);
+    this.codebookHalfNorms = new float[codebooks.length][];
+    for (int s = 0; s < codebooks.length; s++) {
+      codebookHalfNorms[s] = KMeans.halfNorms(codebooks[s]);
+    }
+  }
+
+  /**
+   * @param sample     slots of the vectors to train on
+   * @param lists      number of coarse centroids
+   * @param iterations k-means iterations of the centroids and every codebook
+   */
+  static IvfPqQuantizer train(VectorFile vectors, int[] sample, int lists, int subQuantizers,
+      int iterations, Random random) {
+    int dimension = vectors.dimension();
+    if (subQuantizers > dimension) {
+      throw new IllegalArgumentException(
+          subQuantizers + " sub-quantizers for vectors of dimension " + dimension);
+    }
+    Points samplePoints = new Points() {
+      @Override
+      public int size() {
+        return sample.length;
+      }
+
+      @Override
+      public void read(int point, float[] into) {
+        System.arraycopy(vectors.read(sample[point]), 0, into, 0, dimension);
+      }
+    };
+    float[][] centroids = KMeans.train(samplePoints, dimension, lists, iterations, random);
+    float[] halfNorms = KMeans.halfNorms(centroids);
+
+    int[] assignments = new int[sample.length];
+    for (int p = 0; p < sample.length; p++) {
+      assignments[p] = KMeans.nearest(centroids, halfNorms, vectors.read(sample[p]));
+    }
+
+    // One sub-vector of the residuals at a time, to keep the heap small for wide vectors
+    int[] subStarts = subStarts(dimension, subQuantizers);
+    float[][][] codebooks = new float[subQuantizers][][];
+    for (int s = 0; s < subQuantizers; s++) {
+      int start = subStarts[s];
+      int subDimension = subStarts[s + 1] - start;
+      float[][] residuals = new float[sample.length][subDimension];
+      for (int p = 0; p < sample.length; p++) {
+        float[] vector = vectors.read(sample[p]);
+        float[] centroid = centroids[assignments[p]];
+        for (int i = 0; i < subDimension; i++) {
+          residuals[p][i] = vector[start + i] - centroid[start + i];
+        }
+      }
+      codebooks[s] = KMeans.train(KMeans.of(residuals), subDimension, CODEBOOK_SIZE,
+          iterations, random);
+    }
+    return new IvfPqQuantizer(dimension, centroids, codebooks);
+  }
+
+  private static int[] subStarts(int dimension, int subQuantizers) {
+    int[] starts = new int[subQuantizers + 1];
+    for (int s = 0; s <= subQuantizers; s++) {
+      starts[s] = (int) ((long) s * dimension / subQuantizers);
+    }
+    return starts;
+  }
+
+  int lists() {
+    return centroids.length;
+  }
+
+  int codeBytes() {
+    return codebooks.length;
+  }
+
+  /**
+   * @return the list of the vector, its code is written to {@code code}
+   */
+  int encode(float[] vector, byte[] code) {
+    int list = KMeans.nearest(centroids, halfNorms, vector);
+    float[] centroid = centroids[list];
+    for (int s = 0; s < codebooks.length; s++) {
+      int start = subStarts[s];
+      float[] residual = new float[subStarts[s + 1] - start];
+      for (int i = 0; i < residual.length; i++) {
+        residual[i] = vector[start + i] - centroid[start + i];
+      }
+      code[s] = (byte) KMeans.nearest(codebooks[s], codebookHalfNorms[s], residual);
+    }
+    return list;
+  }
+
+  /**
+   * @return the {@code nprobe} lists with the nearest centroids, nearest first
+   */
+  int[] probe(float[] query, int nprobe) {
+    nprobe = Math.min(nprobe, centroids.length);
+    Integer[] order = new Integer[centroids.length];
+    float[] scores = new float[centroids.length];
+    for (int c = 0; c < centroids.length; c++) {
+      order[c] = c;
+      scores[c] = KMeans.dot(centroids[c], query) - halfNorms[c];
+    }
+    java.util.Arrays.sort(order, (a, b) -> Float.compare(scores[b], scores[a]));
+    int[] lists = new int[nprobe];
+    for (int i = 0; i < nprobe; i++) {
+      lists[i] = order[i];
+    }
+    return lists;
+  }
+
+  /**
+   * @return the dot product of the query and the centroid of the list
+   */
+  float centroidDot(float[] query, int list) {
+    return KMeans.dot(centroids[list], query);
+  }
+
+  /**
+   * @return {@code [subQuantizer][entry]} dot products of the query sub-vectors and codebooks
+   */
+  float[][] distanceTable(float[] query) {
+    float[][] table = new float[codebooks.length][];
+    for (int s = 0; s < codebooks.length; s++) {
+      int start = subStarts[s];
+      float[][] codebook = codebooks[s];
+      table[s] = new float[codebook.length];
+      for (int entry = 0; entry < codebook.length; entry++) {
+        float sum = 0.0f;
+        for (int i = 0; i < codebook[entry].length; i++) {
+          sum += query[start + i] * codebook[entry][i];
+        }
+        table[s][entry] = sum;
+      }
+    }
+    return table;
+  }
+
+  void save(Path file) throws IOException {
+    Path tmpFile = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileOutputStream stream = new FileOutputStream(tmpFile.toFile());
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+      out.writeInt(MAGIC);
+      out.writeInt(dimension);
+      out.writeInt(centroids.length);
+      out.writeInt(codebooks.length);
+      for (float[] centroid : centroids) {
+        for (float value : centroid) {
+          out.writeFloat(value);
+        }
+      }
+      for (float[][] codebook : codebooks) {
+        out.writeInt(codebook.length);
+        for (float[] entry : codebook) {
+          for (float value : entry) {
+            out.writeFloat(value);
+          }
+        }
+      }
+      out.flush();
+      // On disk before the move, a torn quantizer file would keep the store from opening
+      stream.getFD().sync();
+    }
+    Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @return the quantizer or null if the file does not exist
+   */
+  static IvfPqQuantizer load(Path file) throws IOException {
+    if (!Files.exists(file)) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(file + " is not an IVF-PQ quantizer file");
+      }
+      int dimension = in.readInt();
+      float[][] centroids = new float[in.readInt()][dimension];
+      int[] subStarts = subStarts(dimension, in.readInt());
+      for (float[] centroid : centroids) {
+        for (int i = 0; i < dimension; i++) {
+          centroid[i] = in.readFloat();
+        }
+      }
+      float[][][] codebooks = new float[subStarts.length - 1][][];
+      for (int s = 0; s < codebooks.length; s++) {
+        codebooks[s] = new float[in.readInt()][subStarts[s + 1] - subStarts[s]];
+        for (float[] entry : codebooks[s]) {
+          for (int i = 0; i < entry.length; i++) {
+            entry[i] = in.readFloat();
+          }
+        }
+      }
+      return new IvfPqQuantizer(dimension, centroids, codebooks);
+    }
+  }
+}
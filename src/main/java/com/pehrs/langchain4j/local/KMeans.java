@@ -0,0 +1,143 @@
+package com.pehrs.langchain4j.local;
+
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Lloyd's k-means with L2 distance, the assignment step runs on all cores.
+ */
+class KMeans {
+
+  /**
+   * Points read one at a time, so a sample of large vectors does not have to be copied to the
+   * heap.
+   */
+  interface Points {
+
+    int size();
+
+    void read(int point, float[] into);
+  }
+
+  static Points of(float[][] points) {
+    return new Points() {
+      @Override
+      public int size() {
+        return points.length;
+      }
+
+      @Override
+      public void read(int point, float[] into) {
+        System.arraycopy(points[point], 0, into, 0, into.length);
+      }
+    };
+  }
+
+  private record Sums(double[][] sums, int[] counts) {
+
+  }
+
+  private KMeans() {
+  }
+
+  /**
+   * @return {@code k} centroids, fewer if there are fewer points
+   */
+  static float[][] train(Points points, int dimension, int k, int iterations, Random random) {
+    k = Math.min(k, points.size());
+    float[][] centroids = new float[k][dimension];
+    int[] seeds = random.ints(0, points.size()).distinct().limit(k).toArray();
+    for (int c = 0; c < k; c++) {
+      points.read(seeds[c], centroids[c]);
+    }
+
+    int chunks = Math.max(1, Math.min(points.size() / 1024,
+        Runtime.getRuntime().availableProcessors()));
+    for (int iteration = 0; iteration < iterations; iteration++) {
+      float[][] current = centroids;
+      float[] halfNorms = halfNorms(current);
+      List<Sums> partials = IntStream.range(0, chunks).parallel()
+          .mapToObj(chunk -> {
+            Sums partial = new Sums(new double[current.length][dimension],
+                new int[current.length]);
+            float[] point = new float[dimension];
+            for (int p = chunk; p < points.size(); p += chunks) {
+              points.read(p, point);
+              int nearest = nearest(current, halfNorms, point);
+              partial.counts()[nearest]++;
+              double[] sum = partial.sums()[nearest];
+              for (int i = 0; i < dimension; i++) {
+                sum[i] += point[i];
+              }
+            }
+            return partial;
+          })
+          .toList();
+
+      float[][] next = new float[k][dimension];
+      for (int c = 0; c < k; c++) {
+        int count = 0;
+        double[] sum = new double[dimension];
+        for (Sums partial : partials) {
+          count += partial.counts()[c];
+          double[] partialSum = partial.sums()[c];
+          for (int i = 0; i < dimension; i++) {
+            sum[i] += partialSum[i];
+          }
+        }
+        if (count == 0) {
+          // Empty cluster, restart it from a random point
+          points.read(random.nextInt(points.size()), next[c]);
+          continue;
+        }
+        for (int i = 0; i < dimension; i++) {
+          next[c][i] = (float) (sum[i] / count);
+        }
+      }
+      centroids = next;
+    }
+    return centroids;
+  }
+
+  /**
+   * @return {@code |c|^2 / 2} of every centroid, see {@link #nearest}
+   */
+  static float[] halfNorms(float[][] centroids) {
+    float[] halfNorms = new float[centroids.length];
+    for (int c = 0; c < centroids.length; c++) {
+      halfNorms[c] = dot(centroids[c], centroids[c]) / 2;
+    }
+    return halfNorms;
+  }
+
+  /**
+   * The nearest centroid by L2 distance, {@code argmin |x - c|^2 = argmax x.c - |c|^2 / 2}.
+   */
+  static int nearest(float[][] centroids, float[] halfNorms, float[] point) {
+    int nearest = 0;
+    float best = Float.NEGATIVE_INFINITY;
+    for (int c = 0; c < centroids.length; c++) {
+      float score = dot(centroids[c], point) - halfNorms[c];
+      if (score > best) {
+        best = score;
+        nearest = c;
+      }
+    }
+    return nearest;
+  }
+
+  static float dot(float[] a, float[] b) {
+    float sum0 = 0.0f;
+    float sum1 = 0.0f;
+    int i = 0;
+    for (int unrolled = a.length & ~1; i < unrolled; i += 2) {
+      sum0 += a[i] * b[i];
+      sum1 += a[i + 1] * b[i + 1];
+    }
+    if (i < a.length) {
+      sum0 += a[i] * b[i];
+    }
+    return sum0 + sum1;
+  }
+}
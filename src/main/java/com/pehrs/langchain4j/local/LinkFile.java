@@ -0,0 +1,135 @@
+package com.pehrs.langchain4j.local;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Neighbor lists of the bottom layer of an HNSW graph, one fixed size slot per node (the count
+ * followed by up to {@code maxLinks} node slots), memory mapped in chunks of up to 64MB.
+ *
+ * <p>The file starts with an 8 byte header (magic and maxLinks). The caller locks the node
+ * while reading or writing its list.
+ */
+class LinkFile implements Closeable {
+
+  private static final int MAGIC = 0x4c4e4b31; // "LNK1"
+  private static final int HEADER_BYTES = 8;
+  private static final long MAX_CHUNK_BYTES = 1L << 26;
+
+  private final Path file;
+  private final FileChannel channel;
+  private final int maxLinks;
+  private final int slotInts;
+  private final int slotsPerChunk;
+
+  private volatile MappedByteBuffer[] mapped = new MappedByteBuffer[0];
+  private volatile IntBuffer[] chunks = new IntBuffer[0];
+
+  /**
+   * @param maxLinks only used for a new file, an existing file keeps its own
+   */
+  LinkFile(Path file, int maxLinks) throws IOException {
+    this.file = file;
+    boolean exists = Files.exists(file);
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER_BYTES);
+    if (exists) {
+      if (header.getInt(0) != MAGIC) {
+        channel.close();
+        throw new IOException(file + " is not a link file");
+      }
+      maxLinks = header.getInt(4);
+    } else {
+      header.putInt(0, MAGIC);
+      header.putInt(4, maxLinks);
+      header.force();
+    }
+    this.maxLinks = maxLinks;
+    this.slotInts = 1 + maxLinks;
+    this.slotsPerChunk = (int) Math.max(1, MAX_CHUNK_BYTES / (slotInts * 4L));
+  }
+
+  int maxLinks() {
+    return maxLinks;
+  }
+
+  /**
+   * @return the neighbors of the node, an empty list for a node without a slot yet
+   */
+  int[] read(int node) {
+    IntBuffer[] current = chunks;
+    int chunkIndex = node / slotsPerChunk;
+    if (chunkIndex >= current.length) {
+      return new int[0];
+    }
+    IntBuffer chunk = current[chunkIndex];
+    int offset = (node % slotsPerChunk) * slotInts;
+    int[] links = new int[chunk.get(offset)];
+    chunk.get(offset + 1, links);
+    return links;
+  }
+
+  void write(int node, int[] links, int count) {
+    if (count > maxLinks) {
+      throw new IllegalArgumentException(count + " links, the max is " + maxLinks);
+    }
+    ensureCapacity(node + 1);
+    IntBuffer chunk = chunks[node / slotsPerChunk];
+    int offset = (node % slotsPerChunk) * slotInts;
+    chunk.put(offset + 1, links, 0, count);
+    chunk.put(offset, count);
+  }
+
+  private synchronized void ensureCapacity(int slots) {
+    int needed = (slots + slotsPerChunk - 1) / slotsPerChunk;
+    if (needed <= chunks.length) {
+      return;
+    }
+    MappedByteBuffer[] newMapped = Arrays.copyOf(mapped, needed);
+    IntBuffer[] newChunks = Arrays.copyOf(chunks, needed);
+    long chunkBytes = (long) slotsPerChunk * slotInts * 4;
+    try {
+      for (int c = chunks.length; c < needed; c++) {
+        newMapped[c] = channel.map(MapMode.READ_WRITE, HEADER_BYTES + c * chunkBytes,
+            chunkBytes);
+        newChunks[c] = newMapped[c].order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to map " + file, e);
+    }
+    mapped = newMapped;
+    chunks = newChunks;
+  }
+
+  /**
+   * Map the chunks of the nodes already in the file.
+   */
+  void load(int nodes) {
+    if (nodes > 0) {
+      ensureCapacity(nodes);
+    }
+  }
+
+  synchronized void force() {
+    for (MappedByteBuffer chunk : mapped) {
+      chunk.force();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    force();
+    channel.close();
+  }
+}
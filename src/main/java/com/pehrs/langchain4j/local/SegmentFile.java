@@ -0,0 +1,175 @@
+package com.pehrs.langchain4j.local;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only sidecar with the id, text and metadata of every vector of a local store, one
+ * length prefixed JSON record per slot.
+ *
+ * <p>Only the record offsets are kept on the heap, the records are read with positional reads
+ * when a search returns them. A partially written record at the end of the file is dropped on
+ * open.
+ */
+class SegmentFile implements Closeable {
+
+  static Logger log = LoggerFactory.getLogger(SegmentFile.class);
+
+  private static final ObjectMapper objectMapper = new ObjectMapper();
+
+  /**
+   * @param textSegment null for embeddings added without a segment
+   */
+  record Segment(String id, TextSegment textSegment) {
+
+    Metadata metadata() {
+      return textSegment == null ? new Metadata() : textSegment.metadata();
+    }
+  }
+
+  record SegmentRecord(String id, String text, Map<String, Object> metadata) {
+
+  }
+
+  private final Path file;
+  private final FileChannel channel;
+  private volatile long[] offsets = new long[1024];
+  private volatile int size;
+  private long end;
+
+  SegmentFile(Path file) throws IOException {
+    this.file = file;
+    this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    scan();
+  }
+
+  private void scan() throws IOException {
+    ByteBuffer length = ByteBuffer.allocate(4);
+    long position = 0;
+    long fileSize = channel.size();
+    while (position + 4 <= fileSize) {
+      length.clear();
+      readFully(length, position);
+      long next = position + 4 + length.getInt(0);
+      if (next > fileSize) {
+        break;
+      }
+      addOffset(position);
+      position = next;
+    }
+    if (position < fileSize) {
+      log.warn("Dropping a partially written segment at the end of {}", file);
+      channel.truncate(position);
+    }
+    end = position;
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the slot of the segment
+   */
+  synchronized int append(String id, TextSegment textSegment) {
+    try {
+      byte[] json = toJson(id, textSegment);
+      ByteBuffer buffer = ByteBuffer.allocate(4 + json.length);
+      buffer.putInt(json.length).put(json).flip();
+      long position = end;
+      while (buffer.hasRemaining()) {
+        position += channel.write(buffer, position);
+      }
+      int slot = size;
+      addOffset(end);
+      end = position;
+      return slot;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to write to " + file, e);
+    }
+  }
+
+  Segment read(int slot) {
+    long offset = offsets[slot];
+    try {
+      ByteBuffer length = ByteBuffer.allocate(4);
+      readFully(length, offset);
+      ByteBuffer json = ByteBuffer.allocate(length.getInt(0));
+      readFully(json, offset + 4);
+      return fromJson(json.array());
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to read segment " + slot + " of " + file, e);
+    }
+  }
+
+  /**
+   * @return the record of a segment, also used by the {@link WriteAheadLog}
+   */
+  static byte[] toJson(String id, TextSegment textSegment) throws IOException {
+    SegmentRecord record = textSegment == null
+        ? new SegmentRecord(id, null, null)
+        : new SegmentRecord(id, textSegment.text(), textSegment.metadata().toMap());
+    return objectMapper.writeValueAsBytes(record);
+  }
+
+  static Segment fromJson(byte[] json) throws IOException {
+    SegmentRecord record = objectMapper.readValue(json, SegmentRecord.class);
+    if (record.text() == null) {
+      return new Segment(record.id(), null);
+    }
+    return new Segment(record.id(), TextSegment.from(record.text(),
+        record.metadata() == null ? new Metadata() : Metadata.from(record.metadata())));
+  }
+
+  /**
+   * Drop the segments from {@code size} on.
+   */
+  synchronized void truncate(int size) throws IOException {
+    if (size < this.size) {
+      end = offsets[size];
+      channel.truncate(end);
+      this.size = size;
+    }
+  }
+
+  void force() throws IOException {
+    channel.force(false);
+  }
+
+  private void addOffset(long offset) {
+    if (size == offsets.length) {
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    }
+    offsets[size] = offset;
+    size++;
+  }
+
+  private void readFully(ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new EOFException("Unexpected end of " + file);
+      }
+      position += read;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
@@ -0,0 +1,185 @@
+package com.pehrs.langchain4j.local;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Append-only file of float32 vectors of one dimension, memory mapped in chunks of up to 64MB.
+ *
+ * <p>The file starts with a 16 byte header (magic, dimension and the number of vectors) followed
+ * by the vectors, little endian and back to back. Reads are lock free and only see the vectors
+ * appended before {@link #size()} was read, appends are serialized.
+ */
+public class VectorFile implements Closeable {
+
+  private static final int MAGIC = 0x56454331; // "VEC1"
+  private static final int HEADER_BYTES = 16;
+  private static final long MAX_CHUNK_BYTES = 1L << 26;
+
+  private final Path file;
+  private final FileChannel channel;
+  private final MappedByteBuffer header;
+  private final int dimension;
+  private final int slotsPerChunk;
+
+  private volatile MappedByteBuffer[] mapped = new MappedByteBuffer[0];
+  private volatile FloatBuffer[] chunks = new FloatBuffer[0];
+  private volatile int size;
+
+  private VectorFile(Path file, FileChannel channel, int dimension) throws IOException {
+    this.file = file;
+    this.channel = channel;
+    this.dimension = dimension;
+    this.slotsPerChunk = (int) Math.max(1, MAX_CHUNK_BYTES / (dimension * 4L));
+    this.header = channel.map(MapMode.READ_WRITE, 0, HEADER_BYTES);
+  }
+
+  /**
+   * @return the vectors of the file or null if it does not exist
+   */
+  public static VectorFile open(Path file) throws IOException {
+    if (!Files.exists(file)) {
+      return null;
+    }
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_BYTES);
+    if (header.getInt(0) != MAGIC) {
+      channel.close();
+      throw new IOException(file + " is not a vector file");
+    }
+    VectorFile vectors = new VectorFile(file, channel, header.getInt(4));
+    vectors.ensureCapacity((int) header.getLong(8));
+    vectors.size = (int) header.getLong(8);
+    return vectors;
+  }
+
+  public static VectorFile create(Path file, int dimension) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    VectorFile vectors = new VectorFile(file, channel, dimension);
+    vectors.header.putInt(0, MAGIC);
+    vectors.header.putInt(4, dimension);
+    vectors.header.putLong(8, 0);
+    return vectors;
+  }
+
+  public int dimension() {
+    return dimension;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the slot of the vector
+   */
+  public synchronized int append(float[] vector) {
+    if (vector.length != dimension) {
+      throw new IllegalArgumentException(
+          "Expected a vector of dimension " + dimension + ", got " + vector.length);
+    }
+    int slot = size;
+    ensureCapacity(slot + 1);
+    FloatBuffer chunk = chunks[slot / slotsPerChunk];
+    int offset = (slot % slotsPerChunk) * dimension;
+    for (int i = 0; i < dimension; i++) {
+      chunk.put(offset + i, vector[i]);
+    }
+    header.putLong(8, slot + 1);
+    size = slot + 1;
+    return slot;
+  }
+
+  /**
+   * Drop the vectors from {@code size} on, used to line the file up with its sidecar after a
+   * crash.
+   */
+  public synchronized void truncate(int size) {
+    if (size < this.size) {
+      header.putLong(8, size);
+      this.size = size;
+    }
+  }
+
+  public float[] read(int slot) {
+    FloatBuffer chunk = chunks[slot / slotsPerChunk];
+    int offset = (slot % slotsPerChunk) * dimension;
+    float[] vector = new float[dimension];
+    chunk.get(offset, vector);
+    return vector;
+  }
+
+  /**
+   * Dot product of the vector in the slot and the query. A scalar loop, it is not expected to be
+   * vectorized: the four independent sums only let the JIT keep several multiply-adds in flight.
+   */
+  public float dot(int slot, float[] query) {
+    FloatBuffer chunk = chunks[slot / slotsPerChunk];
+    int offset = (slot % slotsPerChunk) * dimension;
+    float sum0 = 0.0f;
+    float sum1 = 0.0f;
+    float sum2 = 0.0f;
+    float sum3 = 0.0f;
+    int i = 0;
+    int unrolled = dimension & ~3;
+    for (; i < unrolled; i += 4) {
+      sum0 += chunk.get(offset + i) * query[i];
+      sum1 += chunk.get(offset + i + 1) * query[i + 1];
+      sum2 += chunk.get(offset + i + 2) * query[i + 2];
+      sum3 += chunk.get(offset + i + 3) * query[i + 3];
+    }
+    for (; i < dimension; i++) {
+      sum0 += chunk.get(offset + i) * query[i];
+    }
+    return (sum0 + sum1) + (sum2 + sum3);
+  }
+
+  private void ensureCapacity(int slots) {
+    int needed = (slots + slotsPerChunk - 1) / slotsPerChunk;
+    if (needed <= chunks.length) {
+      return;
+    }
+    MappedByteBuffer[] newMapped = Arrays.copyOf(mapped, needed);
+    FloatBuffer[] newChunks = Arrays.copyOf(chunks, needed);
+    long chunkBytes = (long) slotsPerChunk * dimension * 4;
+    try {
+      for (int c = chunks.length; c < needed; c++) {
+        newMapped[c] = channel.map(MapMode.READ_WRITE, HEADER_BYTES + c * chunkBytes,
+            chunkBytes);
+        newChunks[c] = newMapped[c].order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException("Failed to map " + file, e);
+    }
+    mapped = newMapped;
+    chunks = newChunks;
+  }
+
+  /**
+   * Write the mapped vectors and header to disk.
+   */
+  public synchronized void force() {
+    for (MappedByteBuffer chunk : mapped) {
+      chunk.force();
+    }
+    header.force();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    force();
+    channel.close();
+  }
+}
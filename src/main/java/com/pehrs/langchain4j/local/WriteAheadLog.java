@@ -0,0 +1,297 @@
+package com.pehrs.langchain4j.local;
+
+import com.pehrs.langchain4j.local.SegmentFile.Segment;
+import dev.langchain4j.data.segment.TextSegment;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-ahead log of the adds and removes of an {@link AbstractLocalEmbeddingStore}, in
+ * generations of {@code wal-<generation>.log} files. A snapshot of the store starts a new
+ * generation and deletes the older ones.
+ *
+ * <p>Every record is its length, a CRC32 and the payload. A record that does not check out ends
+ * its file, it was torn by a crash before it was synced.
+ *
+ * <p>{@link #sync} is a group commit: one writer forces the file for every record written until
+ * then, and the writers waiting meanwhile find their records already synced.
+ */
+class WriteAheadLog implements Closeable {
+
+  static Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+  private static final Pattern FILE_NAME = Pattern.compile("wal-(\\d+)\\.log");
+  private static final byte ADD = 1;
+  private static final byte REMOVE = 2;
+
+  interface Replay {
+
+    void add(int slot, String id, float[] vector, TextSegment textSegment) throws IOException;
+
+    void remove(int[] slots);
+  }
+
+  private final Path dir;
+  // Lock order: syncLock before writeLock
+  private final Object syncLock = new Object();
+  private final Object writeLock = new Object();
+  private long generation;
+  private FileChannel channel;
+  // Bytes written to all generations, guarded by writeLock
+  private long written;
+  private long generationStart;
+  private volatile long synced;
+
+  /**
+   * @param generation the generation to write, a new file
+   */
+  WriteAheadLog(Path dir, long generation) throws IOException {
+    this.dir = dir;
+    this.generation = generation;
+    this.channel = open(dir, generation);
+  }
+
+  private static FileChannel open(Path dir, long generation) throws IOException {
+    return FileChannel.open(file(dir, generation), StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.WRITE);
+  }
+
+  private static Path file(Path dir, long generation) {
+    return dir.resolve(String.format("wal-%010d.log", generation));
+  }
+
+  private static List<Long> generations(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files
+          .map(file -> FILE_NAME.matcher(file.getFileName().toString()))
+          .filter(Matcher::matches)
+          .map(matcher -> Long.parseLong(matcher.group(1)))
+          .sorted()
+          .toList();
+    }
+  }
+
+  /**
+   * @return the generation after the last one in the directory
+   */
+  static long nextGeneration(Path dir) throws IOException {
+    List<Long> generations = generations(dir);
+    return generations.isEmpty() ? 0 : generations.get(generations.size() - 1) + 1;
+  }
+
+  /**
+   * Replay the records of {@code from} and the later generations.
+   *
+   * @return the generation after the last one replayed
+   */
+  static long replay(Path dir, long from, Replay replay) throws IOException {
+    long next = from;
+    for (long generation : generations(dir)) {
+      if (generation < from) {
+        continue;
+      }
+      Path file = file(dir, generation);
+      ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+      int records = 0;
+      while (buffer.remaining() >= 8) {
+        int length = buffer.getInt();
+        int crc = buffer.getInt();
+        if (length < 1 || length > buffer.remaining() || crc != crc(buffer, length)) {
+          break;
+        }
+        ByteBuffer payload = buffer.slice(buffer.position(), length);
+        buffer.position(buffer.position() + length);
+        replay(payload, replay);
+        records++;
+      }
+      if (buffer.hasRemaining()) {
+        log.warn("Dropping a partially written record at the end of {}", file);
+      }
+      log.info("Replayed {} records of {}", records, file);
+      next = generation + 1;
+    }
+    return next;
+  }
+
+  private static void replay(ByteBuffer payload, Replay replay) throws IOException {
+    try {
+      byte type = payload.get();
+      if (type == ADD) {
+        int firstSlot = payload.getInt();
+        int count = payload.getInt();
+        for (int i = 0; i < count; i++) {
+          float[] vector = new float[payload.getInt()];
+          payload.asFloatBuffer().get(vector);
+          payload.position(payload.position() + vector.length * 4);
+          byte[] json = new byte[payload.getInt()];
+          payload.get(json);
+          Segment segment = SegmentFile.fromJson(json);
+          replay.add(firstSlot + i, segment.id(), vector, segment.textSegment());
+        }
+      } else if (type == REMOVE) {
+        int[] slots = new int[payload.getInt()];
+        payload.asIntBuffer().get(slots);
+        replay.remove(slots);
+      } else {
+        throw new IOException("Unknown log record type " + type);
+      }
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Corrupt log record", e);
+    }
+  }
+
+  private static int crc(ByteBuffer buffer, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(buffer.slice(buffer.position(), length));
+    return (int) crc.getValue();
+  }
+
+  /**
+   * @return the position to {@link #sync} the record to
+   */
+  long logAdd(int firstSlot, List<String> ids, List<float[]> vectors,
+      List<TextSegment> textSegments) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeByte(ADD);
+      out.writeInt(firstSlot);
+      out.writeInt(ids.size());
+      for (int i = 0; i < ids.size(); i++) {
+        float[] vector = vectors.get(i);
+        out.writeInt(vector.length);
+        for (float value : vector) {
+          out.writeFloat(value);
+        }
+        byte[] json = SegmentFile.toJson(ids.get(i),
+            textSegments == null ? null : textSegments.get(i));
+        out.writeInt(json.length);
+        out.write(json);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return write(bytes.toByteArray());
+  }
+
+  /**
+   * @return the position to {@link #sync} the record to
+   */
+  long logRemove(int[] slots) {
+    ByteBuffer payload = ByteBuffer.allocate(5 + slots.length * 4);
+    payload.put(REMOVE).putInt(slots.length);
+    payload.asIntBuffer().put(slots);
+    return write(payload.array());
+  }
+
+  private long write(byte[] payload) {
+    ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+    record.putInt(payload.length);
+    record.putInt(crc(ByteBuffer.wrap(payload), payload.length));
+    record.put(payload).flip();
+    synchronized (writeLock) {
+      try {
+        long position = written - generationStart;
+        while (record.hasRemaining()) {
+          position += channel.write(record, position);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to write to " + file(dir, generation), e);
+      }
+      written += record.capacity();
+      return written;
+    }
+  }
+
+  /**
+   * Wait until the log is on disk up to {@code position}.
+   */
+  void sync(long position) {
+    if (synced >= position) {
+      return;
+    }
+    synchronized (syncLock) {
+      if (synced >= position) {
+        // Forced by the writer before us
+        return;
+      }
+      long target;
+      FileChannel current;
+      synchronized (writeLock) {
+        target = written;
+        current = channel;
+      }
+      try {
+        current.force(false);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Failed to sync " + dir, e);
+      }
+      synced = target;
+    }
+  }
+
+  /**
+   * @return true if nothing was written to the current generation
+   */
+  boolean isEmpty() {
+    synchronized (writeLock) {
+      return written == generationStart;
+    }
+  }
+
+  /**
+   * Sync the current generation and start the next one.
+   *
+   * @return the new generation
+   */
+  long rotate() throws IOException {
+    synchronized (syncLock) {
+      synchronized (writeLock) {
+        channel.force(false);
+        channel.close();
+        synced = written;
+        generation++;
+        generationStart = written;
+        channel = open(dir, generation);
+        return generation;
+      }
+    }
+  }
+
+  /**
+   * Delete the generations before {@code generation}, they are in a snapshot.
+   */
+  void deleteBefore(long generation) throws IOException {
+    for (long older : generations(dir)) {
+      if (older < generation) {
+        Files.delete(file(dir, older));
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (syncLock) {
+      synchronized (writeLock) {
+        channel.force(false);
+        channel.close();
+        synced = written;
+      }
+    }
+  }
+}
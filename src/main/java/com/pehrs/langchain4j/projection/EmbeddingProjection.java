@@ -0,0 +1,71 @@
+package com.pehrs.langchain4j.projection;
+
+import com.typesafe.config.Config;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/**
+ * Maps embeddings of the model to a lower dimension before they are stored or searched. The same
+ * projection must be used at ingest and at query time, and the embedding fields of the store must
+ * have {@link #dimension()} cells.
+ */
+public interface EmbeddingProjection {
+
+  /**
+   * @return the dimension of the projected embeddings
+   */
+  int dimension();
+
+  /**
+   * @return the projected, L2 normalized, embedding
+   */
+  float[] project(float[] vector);
+
+  /**
+   * @return the projection configured in {@code embeddings.projection} or null if the type is
+   * "none"
+   */
+  static EmbeddingProjection fromConfig(Config config) {
+    if (!config.hasPath("embeddings.projection")) {
+      return null;
+    }
+    Config projectionConfig = config.getConfig("embeddings.projection");
+    int dimension = projectionConfig.getInt("dimension");
+    switch (projectionConfig.getString("type")) {
+      case "none":
+        return null;
+      case "truncate":
+        return new TruncatingProjection(dimension);
+      case "pca":
+        try {
+          PcaProjection projection =
+              PcaProjection.load(Path.of(projectionConfig.getString("pcaFile")));
+          if (projection.dimension() != dimension) {
+            throw new IllegalStateException("The PCA projection has dimension "
+                + projection.dimension() + " not " + dimension);
+          }
+          return projection;
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      default:
+        throw new IllegalArgumentException(
+            "Unknown projection type " + projectionConfig.getString("type"));
+    }
+  }
+
+  static float[] normalize(float[] vector) {
+    double norm = 0.0;
+    for (float value : vector) {
+      norm += value * value;
+    }
+    if (norm > 0.0) {
+      float scale = (float) (1.0 / Math.sqrt(norm));
+      for (int i = 0; i < vector.length; i++) {
+        vector[i] *= scale;
+      }
+    }
+    return vector;
+  }
+}
@@ -0,0 +1,212 @@
+package com.pehrs.langchain4j.projection;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Projects normalized embeddings on the top principal components of a sample of the corpus.
+ *
+ * <p>{@link #fit} runs offline (see {@code RagSampleFitProjection}) and the result is saved to a
+ * file that is loaded by ingestion and search. The components are found with subspace (block
+ * power) iteration over the sample, so the covariance matrix is never built.
+ */
+public class PcaProjection implements EmbeddingProjection {
+
+  private static final int MAGIC = 0x50434131; // "PCA1"
+
+  private final float[] mean;
+  // dimension x input dimension, orthonormal rows
+  private final float[][] components;
+
+  public PcaProjection(float[] mean, float[][] components) {
+    this.mean = mean;
+    this.components = components;
+  }
+
+  @Override
+  public int dimension() {
+    return components.length;
+  }
+
+  public int inputDimension() {
+    return mean.length;
+  }
+
+  @Override
+  public float[] project(float[] vector) {
+    if (vector.length != mean.length) {
+      throw new IllegalArgumentException(
+          "The PCA projection expects " + mean.length + " values, got " + vector.length);
+    }
+    float[] centered = center(vector, mean);
+    float[] projected = new float[components.length];
+    for (int c = 0; c < components.length; c++) {
+      projected[c] = (float) dot(components[c], centered);
+    }
+    return EmbeddingProjection.normalize(projected);
+  }
+
+  /**
+   * @param sample     embeddings of the corpus, a few thousand is enough
+   * @param dimension  number of components to keep
+   * @param iterations subspace iterations, 10-30 are usually enough
+   */
+  public static PcaProjection fit(List<float[]> sample, int dimension, int iterations) {
+    int inputDimension = sample.get(0).length;
+    if (dimension > inputDimension) {
+      throw new IllegalArgumentException(
+          "Can not project " + inputDimension + " values to " + dimension);
+    }
+    if (sample.size() <= dimension) {
+      throw new IllegalArgumentException(
+          "Need more than " + dimension + " embeddings to fit, got " + sample.size());
+    }
+
+    float[] mean = new float[inputDimension];
+    for (float[] vector : sample) {
+      float[] normalized = EmbeddingProjection.normalize(vector.clone());
+      for (int i = 0; i < inputDimension; i++) {
+        mean[i] += normalized[i] / sample.size();
+      }
+    }
+    float[][] centered = new float[sample.size()][];
+    for (int s = 0; s < sample.size(); s++) {
+      centered[s] = center(sample.get(s), mean);
+    }
+
+    Random random = new Random(42);
+    double[][] basis = new double[dimension][inputDimension];
+    for (double[] row : basis) {
+      for (int i = 0; i < inputDimension; i++) {
+        row[i] = random.nextGaussian();
+      }
+    }
+    orthonormalize(basis);
+
+    for (int iteration = 0; iteration < iterations; iteration++) {
+      // basis = orthonormalize(basis * X^T * X)
+      double[][] next = new double[dimension][inputDimension];
+      double[] coordinates = new double[dimension];
+      for (float[] x : centered) {
+        for (int c = 0; c < dimension; c++) {
+          coordinates[c] = dot(basis[c], x);
+        }
+        for (int c = 0; c < dimension; c++) {
+          double coordinate = coordinates[c];
+          double[] row = next[c];
+          for (int i = 0; i < inputDimension; i++) {
+            row[i] += coordinate * x[i];
+          }
+        }
+      }
+      basis = next;
+      orthonormalize(basis);
+    }
+
+    float[][] components = new float[dimension][inputDimension];
+    for (int c = 0; c < dimension; c++) {
+      for (int i = 0; i < inputDimension; i++) {
+        components[c][i] = (float) basis[c][i];
+      }
+    }
+    return new PcaProjection(mean, components);
+  }
+
+  public void save(Path file) throws IOException {
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(file)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(mean.length);
+      out.writeInt(components.length);
+      for (float value : mean) {
+        out.writeFloat(value);
+      }
+      for (float[] component : components) {
+        for (float value : component) {
+          out.writeFloat(value);
+        }
+      }
+    }
+  }
+
+  public static PcaProjection load(Path file) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(file + " is not a PCA projection file");
+      }
+      int inputDimension = in.readInt();
+      int dimension = in.readInt();
+      float[] mean = new float[inputDimension];
+      for (int i = 0; i < inputDimension; i++) {
+        mean[i] = in.readFloat();
+      }
+      float[][] components = new float[dimension][inputDimension];
+      for (float[] component : components) {
+        for (int i = 0; i < inputDimension; i++) {
+          component[i] = in.readFloat();
+        }
+      }
+      return new PcaProjection(mean, components);
+    }
+  }
+
+  private static float[] center(float[] vector, float[] mean) {
+    float[] centered = EmbeddingProjection.normalize(vector.clone());
+    for (int i = 0; i < centered.length; i++) {
+      centered[i] -= mean[i];
+    }
+    return centered;
+  }
+
+  /**
+   * Modified Gram-Schmidt of the rows.
+   */
+  private static void orthonormalize(double[][] rows) {
+    for (int r = 0; r < rows.length; r++) {
+      double[] row = rows[r];
+      for (int previous = 0; previous < r; previous++) {
+        double projection = dot(rows[previous], row);
+        double[] basis = rows[previous];
+        for (int i = 0; i < row.length; i++) {
+          row[i] -= projection * basis[i];
+        }
+      }
+      double norm = Math.sqrt(dot(row, row));
+      for (int i = 0; i < row.length; i++) {
+        row[i] /= norm;
+      }
+    }
+  }
+
+  private static double dot(double[] a, double[] b) {
+    double sum = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      sum += a[i] * b[i];
+    }
+    return sum;
+  }
+
+  private static double dot(double[] a, float[] b) {
+    double sum = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      sum += a[i] * b[i];
+    }
+    return sum;
+  }
+
+  private static double dot(float[] a, float[] b) {
+    double sum = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      sum += a[i] * b[i];
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,48 @@
+package com.pehrs.langchain4j.projection;
+
+import com.typesafe.config.Config;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import java.util.List;
+
+/**
+ * EmbeddingModel that applies an {@link EmbeddingProjection} to the embeddings of the wrapped
+ * model. Used for both ingestion and questions, so the stored and query embeddings match.
+ */
+public class ProjectingEmbeddingModel implements EmbeddingModel {
+
+  private final EmbeddingModel delegate;
+  private final EmbeddingProjection projection;
+
+  public ProjectingEmbeddingModel(EmbeddingModel delegate, EmbeddingProjection projection) {
+    this.delegate = delegate;
+    this.projection = projection;
+  }
+
+  /**
+   * @return the model wrapped in the projection configured in {@code embeddings.projection} or
+   * the model itself if there is none
+   */
+  public static EmbeddingModel wrapFromConfig(Config config, EmbeddingModel embeddingModel) {
+    EmbeddingProjection projection = EmbeddingProjection.fromConfig(config);
+    return projection == null
+        ? embeddingModel
+        : new ProjectingEmbeddingModel(embeddingModel, projection);
+  }
+
+  @Override
+  public Response<List<Embedding>> embedAll(List<TextSegment> textSegments) {
+    Response<List<Embedding>> response = delegate.embedAll(textSegments);
+    List<Embedding> projected = response.content().stream()
+        .map(embedding -> Embedding.from(projection.project(embedding.vector())))
+        .toList();
+    return Response.from(projected, response.tokenUsage(), response.finishReason());
+  }
+
+  @Override
+  public int dimension() {
+    return projection.dimension();
+  }
+}
@@ -0,0 +1,78 @@
+package com.pehrs.langchain4j.projection;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares the nearest neighbors of projected embeddings with the ones of the full width
+ * embeddings, searched brute force with the cosine similarity.
+ */
+public class ProjectionRecall {
+
+  private ProjectionRecall() {
+  }
+
+  /**
+   * @return the average share of the full width top k of every query that is also in the top k
+   * of the projected embeddings
+   */
+  public static double recallAtK(List<float[]> corpus, List<float[]> queries,
+      EmbeddingProjection projection, int k) {
+    List<float[]> fullCorpus = normalized(corpus);
+    List<float[]> projectedCorpus = corpus.stream().map(projection::project).toList();
+
+    double recallSum = 0.0;
+    for (float[] query : queries) {
+      Set<Integer> expected = topK(fullCorpus,
+          EmbeddingProjection.normalize(query.clone()), k);
+      Set<Integer> actual = topK(projectedCorpus, projection.project(query), k);
+      long found = expected.stream().filter(actual::contains).count();
+      recallSum += expected.isEmpty() ? 1.0 : (double) found / expected.size();
+    }
+    return queries.isEmpty() ? 1.0 : recallSum / queries.size();
+  }
+
+  private static List<float[]> normalized(List<float[]> vectors) {
+    List<float[]> normalized = new ArrayList<>(vectors.size());
+    for (float[] vector : vectors) {
+      normalized.add(EmbeddingProjection.normalize(vector.clone()));
+    }
+    return normalized;
+  }
+
+  private static Set<Integer> topK(List<float[]> corpus, float[] query, int k) {
+    // Indexes of the k best, kept sorted by score with insertion
+    int[] best = new int[Math.min(k, corpus.size())];
+    double[] bestScores = new double[best.length];
+    int size = 0;
+    for (int i = 0; i < corpus.size(); i++) {
+      double score = dot(corpus.get(i), query);
+      if (size == best.length && score <= bestScores[size - 1]) {
+        continue;
+      }
+      int pos = size == best.length ? size - 1 : size++;
+      while (pos > 0 && bestScores[pos - 1] < score) {
+        best[pos] = best[pos - 1];
+        bestScores[pos] = bestScores[pos - 1];
+        pos--;
+      }
+      best[pos] = i;
+      bestScores[pos] = score;
+    }
+    Set<Integer> indexes = new HashSet<>();
+    for (int i = 0; i < size; i++) {
+      indexes.add(best[i]);
+    }
+    return indexes;
+  }
+
+  private static double dot(float[] a, float[] b) {
+    double sum = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      sum += a[i] * b[i];
+    }
+    return sum;
+  }
+}
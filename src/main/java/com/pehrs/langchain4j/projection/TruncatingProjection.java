@@ -0,0 +1,31 @@
+package com.pehrs.langchain4j.projection;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the first {@code dimension} values and normalizes them again. Only meaningful for models
+ * trained with Matryoshka representation learning, where the leading values carry most of the
+ * information.
+ */
+public class TruncatingProjection implements EmbeddingProjection {
+
+  private final int dimension;
+
+  public TruncatingProjection(int dimension) {
+    this.dimension = dimension;
+  }
+
+  @Override
+  public int dimension() {
+    return dimension;
+  }
+
+  @Override
+  public float[] project(float[] vector) {
+    if (vector.length < dimension) {
+      throw new IllegalArgumentException(
+          "Can not truncate a " + vector.length + " wide embedding to " + dimension);
+    }
+    return EmbeddingProjection.normalize(Arrays.copyOf(vector, dimension));
+  }
+}
@@ -13,6 +13,7 @@ import dev.langchain4j.data.document.Document;
 import jakarta.xml.bind.DatatypeConverter;
 import java.io.Closeable;
 import java.io.IOException;
+import java.net.URI;
 import java.nio.charset.Charset;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
@@ -23,9 +24,18 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
@@ -38,6 +48,7 @@ import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.apache.tika.exception.TikaException;
 import org.apache.tika.metadata.Metadata;
@@ -57,13 +68,14 @@ public class RssFeedReader implements Closeable, AutoCloseable, DocumentsReader
   public static final String METADATA_TS = "ts";
   public static final String RSS_SOURCE_MS = "rss.source.ms";
   public static final String RSS_ARTICLE_MS = "rss.article.ms";
+  public static final String RSS_ARTICLES_INFLIGHT = "rss.articles.inflight";
 
   static Logger log = LoggerFactory.getLogger(RssFeedReader.class);
 
   private final Stack<String> rssUrls;
   private final DocumentBuilder xmlBuilder;
   private final MetricRegistry metricRegistry;
-  private CloseableHttpClient httpclient = HttpClients.createDefault();
+  private final CloseableHttpClient httpclient;
 
   private AutoDetectParser autoDetectParser = new AutoDetectParser();
 
@@ -72,6 +84,16 @@ public class RssFeedReader implements Closeable, AutoCloseable, DocumentsReader
 
   private Stack<String> currentRssItemUrls = new Stack();
 
+  // Concurrent fetching of articles (see readDocuments())
+  private final boolean concurrentFetch;
+  private final int maxInFlight;
+  private final int maxPerHost;
+  private final ExecutorService fetchPool;
+  private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  private Predicate<String> skipSource = srcId -> false;
+
   public RssFeedReader(MetricRegistry metricRegistry, Config config)
       throws ParserConfigurationException {
 
@@ -88,18 +110,43 @@ public class RssFeedReader implements Closeable, AutoCloseable, DocumentsReader
 
     this.metricRegistry = metricRegistry;
 
+    // rss.fetch is optional, default is to fetch the articles one at a time
+    this.concurrentFetch = config.hasPath("rss.fetch.concurrent")
+        && config.getBoolean("rss.fetch.concurrent");
+    this.maxInFlight = config.hasPath("rss.fetch.maxInFlight")
+        ? config.getInt("rss.fetch.maxInFlight") : 16;
+    this.maxPerHost = config.hasPath("rss.fetch.maxPerHost")
+        ? config.getInt("rss.fetch.maxPerHost") : 4;
+
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(Math.max(maxInFlight, 20));
+    connectionManager.setDefaultMaxPerRoute(Math.max(maxPerHost, 2));
+    this.httpclient = HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .build();
+
+    this.fetchPool = this.concurrentFetch
+        ? Executors.newFixedThreadPool(maxInFlight, runnable -> {
+          Thread thread = new Thread(runnable, "rss-fetch");
+          thread.setDaemon(true);
+          return thread;
+        })
+        : null;
+
     this.rssSourceHistogram = metricRegistry.histogram(RSS_SOURCE_MS);
     this.rssArticleHistogram = metricRegistry.histogram(RSS_ARTICLE_MS);
     metricRegistry.register("rss.articles.pending",
         (Gauge<Integer>) () -> this.currentRssItemUrls.size());
     metricRegistry.register("rss.src.pending",
         (Gauge<Integer>) () -> this.rssUrls.size());
+    metricRegistry.register(RSS_ARTICLES_INFLIGHT,
+        (Gauge<Integer>) () -> this.inFlight.get());
   }
 
   public synchronized Document read()
       throws Exception {
     String url = nextItemUrl();
-    if (url != null) {
+    while (url != null) {
       try {
         log.trace("Reading RSS article: " + url);
         long start = System.nanoTime();
@@ -108,7 +155,7 @@ public class RssFeedReader implements Closeable, AutoCloseable, DocumentsReader
         return document;
       } catch (RuntimeException ex) {
         // Let's skip to the next url...
-        return read();
+        url = nextItemUrl();
       }
     }
     return null;
@@ -180,7 +227,7 @@ public class RssFeedReader implements Closeable, AutoCloseable, DocumentsReader
       ParseContext context = new ParseContext(); // IGNORED For now
       ContentHandler handler = new BodyContentHandler(-1);
 
-      String newsId = DatatypeConverter.printHexBinary(url.getBytes(Charset.defaultCharset()));
+      String newsId = newsId(url);
 
       this.autoDetectParser.parse(entity.getContent(), handler, metadata, context);
       dev.langchain4j.data.document.Metadata l4jMetadata = dev.langchain4j.data.document.Metadata.from(
@@ -195,6 +242,10 @@ public class RssFeedReader implements Closeable, AutoCloseable, DocumentsReader
     }
   }
 
+  static String newsId(String url) {
+    return DatatypeConverter.printHexBinary(url.getBytes(Charset.defaultCharset()));
+  }
+
   private Document toDocument(String txt, dev.langchain4j.data.document.Metadata metadata) {
     return Document.document(txt, metadata);
   }
@@ -242,6 +293,7 @@ public class RssFeedReader implements Closeable, AutoCloseable, DocumentsReader
       itemUrls.addAll(
           rssFeed.channel().items().stream()
               .map(rssItem -> rssItem.link() == null ? rssItem.guid() : rssItem.link())
+              .filter(itemUrl -> itemUrl != null && !skipSource.test(newsId(itemUrl)))
               .collect(Collectors.toList())
       );
 
@@ -254,6 +306,9 @@ public class RssFeedReader implements Closeable, AutoCloseable, DocumentsReader
 
   @Override
   public void close() throws IOException {
+    if (this.fetchPool != null) {
+      this.fetchPool.shutdownNow();
+    }
     this.httpclient.close();
   }
 
@@ -275,9 +330,128 @@ public class RssFeedReader implements Closeable, AutoCloseable, DocumentsReader
     };
   }
 
+  /**
+   * Fetches up to {@code rss.fetch.maxInFlight} articles at the same time, but never more than
+   * {@code rss.fetch.maxPerHost} from the same host. Documents are returned in the order they
+   * are fetched. Articles that fail to be fetched or parsed are skipped.
+   */
+  public Iterator<Document> concurrentIterator() {
+    ExecutorCompletionService<Document> completionService =
+        new ExecutorCompletionService<>(this.fetchPool);
+    return new Iterator<Document>() {
+      // Submitted fetches not yet returned by the completion service
+      private int outstanding = 0;
+      private Document nextDocument = null;
+
+      @Override
+      public boolean hasNext() {
+        if (nextDocument == null) {
+          nextDocument = fetchNext();
+        }
+        return nextDocument != null;
+      }
+
+      @Override
+      public Document next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        Document document = nextDocument;
+        nextDocument = null;
+        return document;
+      }
+
+      private Document fetchNext() {
+        try {
+          while (true) {
+            outstanding += dispatch(completionService);
+            if (outstanding == 0) {
+              // Nothing in flight and nothing left to dispatch
+              return null;
+            }
+            Document document = completionService.take().get();
+            outstanding--;
+            if (document != null) {
+              return document;
+            }
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+          throw new RuntimeException(e.getCause());
+        }
+      }
+    };
+  }
+
+  /**
+   * Submit pending article urls as long as the global and per-host limits allow it.
+   *
+   * @return number of submitted fetches
+   */
+  private synchronized int dispatch(ExecutorCompletionService<Document> completionService) {
+    try {
+      // Read the next RSS source(s) before we run out of articles
+      while (currentRssItemUrls.size() < maxInFlight && !rssUrls.empty()) {
+        currentRssItemUrls.addAll(getNextListOfItems());
+      }
+    } catch (IOException | SAXException e) {
+      throw new RuntimeException(e);
+    }
+
+    int submitted = 0;
+    Iterator<String> pending = currentRssItemUrls.iterator();
+    while (pending.hasNext() && inFlight.get() < maxInFlight) {
+      String url = pending.next();
+      Semaphore permits = hostPermits.computeIfAbsent(hostOf(url),
+          host -> new Semaphore(maxPerHost));
+      if (!permits.tryAcquire()) {
+        continue;
+      }
+      pending.remove();
+      inFlight.incrementAndGet();
+      submitted++;
+      completionService.submit(() -> {
+        try {
+          log.trace("Reading RSS article: " + url);
+          long start = System.nanoTime();
+          Document document = extractDocument(url);
+          this.rssArticleHistogram.update(System.nanoTime() - start);
+          return document;
+        } catch (Exception ex) {
+          // Let's skip to the next url...
+          log.debug("Failed to read RSS article " + url + ": " + ex.getMessage());
+          return null;
+        } finally {
+          inFlight.decrementAndGet();
+          permits.release();
+        }
+      });
+    }
+    return submitted;
+  }
+
+  private static String hostOf(String url) {
+    try {
+      String host = URI.create(url).getHost();
+      return host == null ? "" : host;
+    } catch (IllegalArgumentException ex) {
+      return "";
+    }
+  }
+
+  @Override
+  public Stream<Document> readDocuments(Predicate<String> skipSource) {
+    // The source id is derived from the article url, no need to fetch skipped articles
+    this.skipSource = skipSource;
+    return readDocuments();
+  }
+
   public Stream<Document> readDocuments() {
+    Iterator<Document> iterator = this.concurrentFetch ? concurrentIterator() : iterator();
     return StreamSupport.stream(
-        Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED),
+        Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED),
         false);
   }
 }
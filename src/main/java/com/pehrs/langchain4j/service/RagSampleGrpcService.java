@@ -4,11 +4,10 @@ import com.codahale.metrics.MetricRegistry;
 import com.pehrs.grpc.rag.sample.AskReply;
 import com.pehrs.grpc.rag.sample.AskRequest;
 import com.pehrs.grpc.rag.sample.RagSampleGrpc;
+import com.pehrs.langchain4j.AsyncEmbeddingStore;
 import com.pehrs.langchain4j.RagSample;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
-import dev.langchain4j.data.embedding.Embedding;
-import dev.langchain4j.data.message.AiMessage;
 import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.model.chat.ChatModel;
 import dev.langchain4j.model.chat.response.ChatResponse;
@@ -16,16 +15,19 @@ import dev.langchain4j.model.embedding.EmbeddingModel;
 import dev.langchain4j.model.input.Prompt;
 import dev.langchain4j.store.embedding.EmbeddingMatch;
 import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
-import dev.langchain4j.store.embedding.EmbeddingSearchResult;
 import dev.langchain4j.store.embedding.EmbeddingStore;
 import io.grpc.Grpc;
 import io.grpc.InsecureServerCredentials;
 import io.grpc.Server;
+import io.grpc.Status;
 import io.grpc.protobuf.services.ProtoReflectionService;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 import org.slf4j.Logger;
@@ -87,31 +89,68 @@ public class RagSampleGrpcService {
     Config config = ConfigFactory.load("rag-sample");
     MetricRegistry metricRegistry = new MetricRegistry();
 
+    // Created once and shared by all requests
+    final ChatModel chatModel = RagSample.createChatLanguageModel(config);
+    final EmbeddingModel embeddingModel = RagSample.createEmbeddingModel(config);
+    final EmbeddingStore<TextSegment> embeddingStore =
+        RagSample.createEmbeddingStore(metricRegistry, config);
+
+    // Null if the answer cache is not enabled
+    final SemanticAnswerCache answerCache = SemanticAnswerCache.fromConfig(metricRegistry, config);
+
+    // Runs the blocking Ollama calls, the Vespa search does not need a thread while waiting
+    final ExecutorService modelExecutor = Executors.newFixedThreadPool(
+        config.getInt("chat.modelThreads"));
+
     @Override
     public void ask(AskRequest req, StreamObserver<AskReply> responseObserver) {
-      String answer = chat(metricRegistry, config, req.getQuestion());
-      AskReply reply = AskReply.newBuilder().setAnswer(answer).build();
-      responseObserver.onNext(reply);
-      responseObserver.onCompleted();
+      chat(req.getQuestion()).whenComplete((answer, error) -> {
+        if (error != null) {
+          logger.error("Failed to answer " + req.getQuestion(), error);
+          responseObserver.onError(Status.INTERNAL
+              .withDescription(error.getMessage())
+              .withCause(error)
+              .asRuntimeException());
+          return;
+        }
+        AskReply reply = AskReply.newBuilder().setAnswer(answer).build();
+        responseObserver.onNext(reply);
+        responseObserver.onCompleted();
+      });
     }
 
-    static String chat(MetricRegistry metricRegistry, Config config, String input) {
-      ChatModel chatModel = RagSample.createChatLanguageModel(config);
-      EmbeddingModel embeddingModel = RagSample.createEmbeddingModel(config);
-      EmbeddingStore embeddingStore = RagSample.createEmbeddingStore(metricRegistry, config);
-
-      Embedding questionEmbedding = embeddingModel.embed(input).content();
-
+    CompletableFuture<String> chat(String input) {
       int maxResults = config.getInt("chat.maxResults");
       double minScore = config.getDouble("chat.minScore");
-      EmbeddingSearchRequest req = EmbeddingSearchRequest.builder()
-          .queryEmbedding(questionEmbedding)
-          .maxResults(maxResults)
-          .minScore(minScore)
-          .build();
-      EmbeddingSearchResult<TextSegment> embeddings = embeddingStore.search(req);
-      List<EmbeddingMatch<TextSegment>> relevantEmbeddings = embeddings.matches();
 
+      return CompletableFuture
+          .supplyAsync(() -> embeddingModel.embed(input).content(), modelExecutor)
+          .thenCompose(questionEmbedding -> {
+            long cacheGeneration = answerCache == null ? 0L : answerCache.generation();
+            String cachedAnswer = answerCache == null ? null : answerCache.get(questionEmbedding);
+            if (cachedAnswer != null) {
+              return CompletableFuture.completedFuture(cachedAnswer);
+            }
+            return AsyncEmbeddingStore.searchAsync(embeddingStore,
+                    EmbeddingSearchRequest.builder()
+                        .queryEmbedding(questionEmbedding)
+                        .maxResults(maxResults)
+                        .minScore(minScore)
+                        .build(),
+                    // Lets a hybrid store match the words of the question as well
+                    input,
+                    modelExecutor)
+                .thenApplyAsync(embeddings -> {
+                  String answer = generate(input, embeddings.matches());
+                  if (answerCache != null) {
+                    answerCache.put(questionEmbedding, answer, cacheGeneration);
+                  }
+                  return answer;
+                }, modelExecutor);
+          });
+    }
+
+    private String generate(String input, List<EmbeddingMatch<TextSegment>> relevantEmbeddings) {
       String contents = relevantEmbeddings.stream()
           .map(match -> match.embedded().text())
           .collect(Collectors.joining("\n\n"));
@@ -0,0 +1,165 @@
+package com.pehrs.langchain4j.service;
+
+import com.codahale.metrics.Clock;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.pehrs.langchain4j.ingest.UpdateMarker;
+import com.typesafe.config.Config;
+import dev.langchain4j.data.embedding.Embedding;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Recent (question embedding, answer) pairs. A question whose embedding has a cosine similarity of
+ * at least {@code minSimilarity} with a cached question gets the cached answer.
+ *
+ * <p>The questions are kept normalized in insertion order and searched brute force, the cache is
+ * small enough for that to be much cheaper than a generation. Entries expire after {@code ttl},
+ * the oldest is dropped when the cache is full and all are dropped when the
+ * {@link UpdateMarker} shows that ingestion has written new segments. An answer is only cached
+ * if the marker did not change while it was generated, see {@link #generation()}.
+ */
+public class SemanticAnswerCache {
+
+  public static final String ANSWER_CACHE_HIT = "answer.cache.hit";
+  public static final String ANSWER_CACHE_MISS = "answer.cache.miss";
+
+  private record Entry(float[] question, String answer, long createdNanos) {
+
+  }
+
+  private final Clock clock;
+  private final double minSimilarity;
+  private final long ttlNanos;
+  private final int maxEntries;
+  // Null without an update marker
+  private final UpdateMarker.Watch updateMarker;
+
+  // Oldest first
+  private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+  // Incremented when the entries are dropped for an update
+  private long generation = 0;
+
+  private final Meter hits;
+  private final Meter misses;
+
+  public SemanticAnswerCache(MetricRegistry metricRegistry, Clock clock, double minSimilarity,
+      Duration ttl, int maxEntries, UpdateMarker updateMarker) {
+    this.clock = clock;
+    this.minSimilarity = minSimilarity;
+    this.ttlNanos = ttl.toNanos();
+    this.maxEntries = maxEntries;
+    this.updateMarker = updateMarker == null ? null : updateMarker.watch(clock);
+    this.hits = metricRegistry.meter(ANSWER_CACHE_HIT);
+    this.misses = metricRegistry.meter(ANSWER_CACHE_MISS);
+  }
+
+  /**
+   * @return the cache configured in {@code chat.answerCache} or null if it is not enabled
+   */
+  public static SemanticAnswerCache fromConfig(MetricRegistry metricRegistry, Config config) {
+    if (!config.hasPath("chat.answerCache")
+        || !config.getBoolean("chat.answerCache.enabled")) {
+      return null;
+    }
+    Config cacheConfig = config.getConfig("chat.answerCache");
+    return new SemanticAnswerCache(
+        metricRegistry,
+        Clock.defaultClock(),
+        cacheConfig.getDouble("minSimilarity"),
+        cacheConfig.getDuration("ttl"),
+        cacheConfig.getInt("maxEntries"),
+        UpdateMarker.fromConfig(config));
+  }
+
+  /**
+   * @return the answer of the most similar cached question or null
+   */
+  public synchronized String get(Embedding questionEmbedding) {
+    expire();
+    float[] question = normalize(questionEmbedding.vector());
+    Entry best = null;
+    double bestSimilarity = minSimilarity;
+    for (Entry entry : entries) {
+      if (entry.question().length != question.length) {
+        continue;
+      }
+      double similarity = dot(entry.question(), question);
+      if (similarity >= bestSimilarity) {
+        best = entry;
+        bestSimilarity = similarity;
+      }
+    }
+    if (best == null) {
+      misses.mark();
+      return null;
+    }
+    hits.mark();
+    return best.answer();
+  }
+
+  /**
+   * @return the generation to pass to {@link #put(Embedding, String, long)}, read it before the
+   * lookup of the question
+   */
+  public synchronized long generation() {
+    expire();
+    return generation;
+  }
+
+  /**
+   * Cache the answer, unless the embedding store has been updated since {@code generation} was
+   * read. The update marker is always checked here, a generation takes long enough for that.
+   */
+  public synchronized void put(Embedding questionEmbedding, String answer, long generation) {
+    checkUpdateMarker(true);
+    if (generation != this.generation) {
+      return;
+    }
+    expire();
+    if (entries.size() >= maxEntries) {
+      entries.removeFirst();
+    }
+    entries.addLast(new Entry(normalize(questionEmbedding.vector()), answer, clock.getTick()));
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  private void checkUpdateMarker(boolean force) {
+    if (updateMarker != null && updateMarker.changed(force)) {
+      generation++;
+      entries.clear();
+    }
+  }
+
+  private void expire() {
+    checkUpdateMarker(false);
+    long now = clock.getTick();
+    Iterator<Entry> oldest = entries.iterator();
+    while (oldest.hasNext() && now - oldest.next().createdNanos() >= ttlNanos) {
+      oldest.remove();
+    }
+  }
+
+  private static float[] normalize(float[] vector) {
+    double norm = Math.sqrt(dot(vector, vector));
+    float[] normalized = new float[vector.length];
+    if (norm > 0.0) {
+      for (int i = 0; i < vector.length; i++) {
+        normalized[i] = (float) (vector[i] / norm);
+      }
+    }
+    return normalized;
+  }
+
+  private static double dot(float[] a, float[] b) {
+    double sum = 0.0;
+    for (int i = 0; i < a.length; i++) {
+      sum += a[i] * b[i];
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,305 @@
+package com.pehrs.langchain4j.sharded;
+
+import static dev.langchain4j.internal.Utils.randomUUID;
+
+import com.codahale.metrics.MetricRegistry;
+import com.pehrs.langchain4j.AsyncEmbeddingStore;
+import com.pehrs.langchain4j.FanOutSearch;
+import com.pehrs.langchain4j.RagSample;
+import com.typesafe.config.Config;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Spreads the segments over several stores of the same kind, e.g. local stores in different
+ * directories or Vespa clusters, and searches them in parallel.
+ *
+ * <p>The segments of a source ({@link RagSample#METADATA_SRC_ID}) are kept together on the
+ * shard picked by a consistent hash of the source id, segments without a source by the hash of
+ * their id. Adding a shard only moves about {@code 1 / shards} of the sources. An add without ids
+ * returns the ids the shards assign, a Vespa shard keeps its ids made from the source id, so a
+ * source fed again overwrites its segments. Removes go to all shards, Vespa shards only remove by
+ * id.
+ *
+ * <p>A search asks every shard for the top {@code maxResults} and merges them with a heap of
+ * {@code maxResults}, the scores of the shards are comparable. The {@code minScore} of the request
+ * is applied in the merge, the Vespa store does not filter by it. The matches of a shard can come
+ * in any order. The shards are searched by a {@link FanOutSearch} with the {@code timeout}.
+ */
+public class ShardedEmbeddingStore implements AsyncEmbeddingStore<TextSegment>, Closeable {
+
+  public static final String SHARDED_SHARD_TIMEOUT = "sharded.shard.timeout";
+  public static final String SHARDED_SHARD_ERROR = "sharded.shard.error";
+
+  // Points of every shard on the hash ring, evens out the share of the shards
+  private static final int VIRTUAL_NODES = 128;
+
+  /**
+   * @param name the position of the shard on the hash ring, keep it when the shards change
+   */
+  public record Shard(String name, EmbeddingStore<TextSegment> store) {
+
+  }
+
+  private final List<Shard> shards;
+  private final TreeMap<Long, Integer> ring = new TreeMap<>();
+  // Runs the search of stores that can not search asynchronously, and the writes
+  private final ExecutorService executor;
+  private final FanOutSearch<TextSegment> fanOut;
+
+  public ShardedEmbeddingStore(MetricRegistry metricRegistry, List<Shard> shards,
+      Duration timeout) {
+    if (shards.isEmpty()) {
+      throw new IllegalArgumentException("A sharded store needs at least one shard");
+    }
+    this.shards = shards;
+    for (int shard = 0; shard < shards.size(); shard++) {
+      for (int node = 0; node < VIRTUAL_NODES; node++) {
+        ring.put(hash(shards.get(shard).name() + "#" + node), shard);
+      }
+    }
+    this.executor = Executors.newCachedThreadPool();
+    this.fanOut = new FanOutSearch<>(
+        shards.stream().map(shard -> "shard " + shard.name()).toList(),
+        shards.stream().map(Shard::store).toList(), timeout, executor,
+        metricRegistry.meter(SHARDED_SHARD_TIMEOUT),
+        metricRegistry.meter(SHARDED_SHARD_ERROR));
+  }
+
+  /**
+   * One store per entry of {@code sharded.shards}. Every entry overrides the rest of the config
+   * and is created by {@code createStore}, it must set its own {@code embeddings.store} and
+   * typically a directory or url.
+   */
+  public static ShardedEmbeddingStore fromConfig(MetricRegistry metricRegistry, Config config,
+      Function<Config, EmbeddingStore<TextSegment>> createStore) {
+    Config shardedConfig = config.getConfig("sharded");
+    List<Shard> shards = new ArrayList<>();
+    for (Config shardConfig : shardedConfig.getConfigList("shards")) {
+      String name = shardConfig.getString("name");
+      if (!shardConfig.hasPath("embeddings.store")
+          || shardConfig.getString("embeddings.store").equals("sharded")) {
+        throw new IllegalArgumentException(
+            "Shard " + name + " must set an embeddings.store other than sharded");
+      }
+      shards.add(new Shard(name, createStore.apply(shardConfig.withFallback(config))));
+    }
+    return new ShardedEmbeddingStore(metricRegistry, shards,
+        shardedConfig.getDuration("timeout"));
+  }
+
+  private static long hash(String key) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      return ByteBuffer.wrap(digest.digest(key.getBytes(StandardCharsets.UTF_8))).getLong();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @return the shard of the segment, by its source id or else by the embedding id
+   */
+  int shard(String id, TextSegment textSegment) {
+    String srcId = textSegment == null
+        ? null
+        : textSegment.metadata().getString(RagSample.METADATA_SRC_ID);
+    Map.Entry<Long, Integer> node = ring.ceilingEntry(hash(srcId == null ? id : srcId));
+    return node == null ? ring.firstEntry().getValue() : node.getValue();
+  }
+
+  @Override
+  public String add(Embedding embedding) {
+    return addAll(List.of(embedding)).get(0);
+  }
+
+  @Override
+  public void add(String id, Embedding embedding) {
+    addAll(List.of(id), List.of(embedding), null);
+  }
+
+  @Override
+  public String add(Embedding embedding, TextSegment textSegment) {
+    return addAll(List.of(embedding), List.of(textSegment)).get(0);
+  }
+
+  @Override
+  public List<String> addAll(List<Embedding> embeddings) {
+    return addAll(embeddings, null);
+  }
+
+  /**
+   * Add with the ids the shards assign, e.g. the Vespa store makes the document ids from the
+   * source id and segment index. Segments without a source go to a random shard.
+   */
+  @Override
+  public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
+    if (textSegments != null && textSegments.size() != embeddings.size()) {
+      throw new IllegalArgumentException(
+          "The list of embeddings and embedded must have the same size");
+    }
+    String[] ids = new String[embeddings.size()];
+    forRouted(route(embeddings.size(),
+            i -> shard(randomUUID(), textSegments == null ? null : textSegments.get(i))),
+        (store, indexes) -> {
+          List<Embedding> shardEmbeddings = indexes.stream().map(embeddings::get).toList();
+          List<String> shardIds = textSegments == null
+              ? store.addAll(shardEmbeddings)
+              : store.addAll(shardEmbeddings, indexes.stream().map(textSegments::get).toList());
+          for (int i = 0; i < indexes.size(); i++) {
+            ids[indexes.get(i)] = shardIds.get(i);
+          }
+        });
+    return Arrays.asList(ids);
+  }
+
+  @Override
+  public void addAll(List<String> ids, List<Embedding> embeddings,
+      List<TextSegment> textSegments) {
+    if (ids.size() != embeddings.size()
+        || (textSegments != null && textSegments.size() != embeddings.size())) {
+      throw new IllegalArgumentException(
+          "The lists of ids, embeddings and embedded must have the same size");
+    }
+    forRouted(route(ids.size(),
+            i -> shard(ids.get(i), textSegments == null ? null : textSegments.get(i))),
+        (store, indexes) -> store.addAll(
+            indexes.stream().map(ids::get).toList(),
+            indexes.stream().map(embeddings::get).toList(),
+            textSegments == null ? null : indexes.stream().map(textSegments::get).toList()));
+  }
+
+  /**
+   * @return the indexes of the embeddings of every shard
+   */
+  private List<List<Integer>> route(int count, IntUnaryOperator shardOf) {
+    List<List<Integer>> routed = new ArrayList<>(shards.size());
+    for (int shard = 0; shard < shards.size(); shard++) {
+      routed.add(new ArrayList<>());
+    }
+    for (int i = 0; i < count; i++) {
+      routed.get(shardOf.applyAsInt(i)).add(i);
+    }
+    return routed;
+  }
+
+  /**
+   * Write the routed embeddings to their shards in parallel.
+   */
+  private void forRouted(List<List<Integer>> routed,
+      BiConsumer<EmbeddingStore<TextSegment>, List<Integer>> write) {
+    List<CompletableFuture<Void>> writes = new ArrayList<>();
+    for (int shard = 0; shard < shards.size(); shard++) {
+      List<Integer> indexes = routed.get(shard);
+      if (indexes.isEmpty()) {
+        continue;
+      }
+      EmbeddingStore<TextSegment> store = shards.get(shard).store();
+      writes.add(CompletableFuture.runAsync(() -> write.accept(store, indexes), executor));
+    }
+    FanOutSearch.join(CompletableFuture.allOf(writes.toArray(new CompletableFuture[0])));
+  }
+
+  @Override
+  public void removeAll(Collection<String> ids) {
+    // The source of an id is not known, it can be on any shard
+    forAllShards(store -> store.removeAll(ids));
+  }
+
+  @Override
+  public void removeAll(Filter filter) {
+    forAllShards(store -> store.removeAll(filter));
+  }
+
+  @Override
+  public void removeAll() {
+    forAllShards(EmbeddingStore::removeAll);
+  }
+
+  private void forAllShards(Consumer<EmbeddingStore<TextSegment>> write) {
+    FanOutSearch.join(CompletableFuture.allOf(shards.stream()
+        .map(shard -> CompletableFuture.runAsync(() -> write.accept(shard.store()), executor))
+        .toArray(CompletableFuture[]::new)));
+  }
+
+  @Override
+  public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+    return FanOutSearch.join(searchAsync(request));
+  }
+
+  @Override
+  public CompletableFuture<EmbeddingSearchResult<TextSegment>> searchAsync(
+      EmbeddingSearchRequest request) {
+    return searchAsync(request, null);
+  }
+
+  @Override
+  public CompletableFuture<EmbeddingSearchResult<TextSegment>> searchAsync(
+      EmbeddingSearchRequest request, String queryText) {
+    return fanOut.search(request, queryText)
+        .thenApply(matches -> merge(matches, request.minScore(), request.maxResults()));
+  }
+
+  private static EmbeddingSearchResult<TextSegment> merge(
+      List<List<EmbeddingMatch<TextSegment>>> results, double minScore, int maxResults) {
+    if (maxResults <= 0) {
+      return new EmbeddingSearchResult<>(List.of());
+    }
+    Comparator<EmbeddingMatch<TextSegment>> byScore =
+        Comparator.comparingDouble(EmbeddingMatch::score);
+    PriorityQueue<EmbeddingMatch<TextSegment>> heap =
+        new PriorityQueue<>(maxResults + 1, byScore);
+    for (List<EmbeddingMatch<TextSegment>> result : results) {
+      for (EmbeddingMatch<TextSegment> match : result) {
+        if (match.score() < minScore
+            || (heap.size() == maxResults && match.score() <= heap.peek().score())) {
+          continue;
+        }
+        heap.add(match);
+        if (heap.size() > maxResults) {
+          heap.poll();
+        }
+      }
+    }
+    List<EmbeddingMatch<TextSegment>> merged = new ArrayList<>(heap);
+    merged.sort(byScore.reversed());
+    return new EmbeddingSearchResult<>(merged);
+  }
+
+  @Override
+  public void close() throws IOException {
+    executor.shutdown();
+    for (Shard shard : shards) {
+      if (shard.store() instanceof Closeable closeable) {
+        closeable.close();
+      }
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package com.pehrs.langchain4j.util;
+
+/**
+ * Conversion between float and IEEE 754 half precision (fp16) values stored in a short.
+ *
+ * <p>Java 17 does not have {@code Float.floatToFloat16}, this is the usual bit twiddling
+ * version with round to nearest.
+ */
+public final class HalfFloat {
+
+  private HalfFloat() {
+  }
+
+  public static short fromFloat(float value) {
+    int bits = Float.floatToIntBits(value);
+    int sign = (bits >>> 16) & 0x8000;
+    // Rounded value
+    int val = (bits & 0x7fffffff) + 0x1000;
+
+    if (val >= 0x47800000) {
+      // Might be or become NaN/Inf
+      if ((bits & 0x7fffffff) >= 0x47800000) {
+        if (val < 0x7f800000) {
+          // Too large, becomes Inf
+          return (short) (sign | 0x7c00);
+        }
+        // Keep NaN/Inf (and NaN payload)
+        return (short) (sign | 0x7c00 | ((bits & 0x007fffff) >>> 13));
+      }
+      // Rounding made it Inf, use max value instead
+      return (short) (sign | 0x7bff);
+    }
+    if (val >= 0x38800000) {
+      // Normal value
+      return (short) (sign | ((val - 0x38000000) >>> 13));
+    }
+    if (val < 0x33000000) {
+      // Too small, becomes signed zero
+      return (short) sign;
+    }
+    // Subnormal value
+    int exp = (bits & 0x7fffffff) >>> 23;
+    return (short) (sign | ((((bits & 0x7fffff) | 0x800000)
+        + (0x800000 >>> (exp - 102))) >>> (126 - exp)));
+  }
+
+  public static float toFloat(short half) {
+    int bits = half & 0xffff;
+    int sign = (bits & 0x8000) << 16;
+    int exp = (bits >>> 10) & 0x1f;
+    int mantissa = bits & 0x3ff;
+
+    if (exp == 0) {
+      // Zero or subnormal: mantissa * 2^-24
+      float value = mantissa * 0x1p-24f;
+      return sign != 0 ? -value : value;
+    }
+    if (exp == 0x1f) {
+      // Inf or NaN
+      return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+    }
+    return Float.intBitsToFloat(sign | ((exp + 112) << 23) | (mantissa << 13));
+  }
+}
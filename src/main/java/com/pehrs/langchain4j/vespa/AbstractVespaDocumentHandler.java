@@ -0,0 +1,165 @@
+package com.pehrs.langchain4j.vespa;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import dev.langchain4j.data.embedding.Embedding;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Base class for the handlers, writes the embeddings with the configured {@link TensorEncoding},
+ * translates search filters with the {@link YqlFilterMapper} of the handler and builds the
+ * nearestNeighbor or hybrid retrieval condition. With a {@link Quantization} the quantized copy of
+ * the embedding is written as well and searched instead of the float embedding.
+ */
+public abstract class AbstractVespaDocumentHandler implements VespaDocumentHandler {
+
+  private final YqlFilterMapper filterMapper;
+
+  protected TensorEncoding tensorEncoding = TensorEncoding.JSON;
+  // Document summary without the embedding field
+  protected String noEmbeddingSummary = "no-embedding";
+  // Match the query text (BM25) as well as the embedding, when the request has a query text
+  protected boolean hybrid = false;
+  protected String nearestNeighborRankProfile = "recommendation";
+  protected String hybridRankProfile = "hybrid";
+  // Sort plain nearestNeighbor hits by recency instead of by the rank profile
+  protected boolean orderByRecency = true;
+  // nearestNeighbor settings, see SimpleVespaEmbeddingConfig
+  protected int targetHits = 0;
+  protected boolean approximate = true;
+  protected int exploreAdditionalHits = 0;
+  protected Quantization quantization = Quantization.NONE;
+  // Candidates for the float re-rank of a quantized search
+  protected int quantizationTargetHits = 100;
+
+  protected AbstractVespaDocumentHandler(YqlFilterMapper filterMapper) {
+    this.filterMapper = filterMapper;
+  }
+
+  @Override
+  public void configure(SimpleVespaEmbeddingConfig config) {
+    this.tensorEncoding = config.tensorEncoding;
+    this.noEmbeddingSummary = config.noEmbeddingSummary;
+    this.nearestNeighborRankProfile = config.rankProfile;
+    this.hybrid = config.hybrid;
+    this.hybridRankProfile = config.hybridRankProfile;
+    this.orderByRecency = config.orderByRecency;
+    this.targetHits = config.targetHits;
+    this.approximate = config.approximate;
+    this.exploreAdditionalHits = config.exploreAdditionalHits;
+    this.quantization = config.quantization;
+    this.quantizationTargetHits = config.quantizationTargetHits;
+  }
+
+  public TensorEncoding tensorEncoding() {
+    return tensorEncoding;
+  }
+
+  protected void writeEmbedding(JsonGenerator generator, String fieldName, Embedding embedding)
+      throws IOException {
+    tensorEncoding.writeField(generator, fieldName, embedding.vector());
+    if (quantization != Quantization.NONE) {
+      Quantization.writeField(generator, quantization.field(fieldName),
+          quantization.quantize(embedding.vector()), tensorEncoding);
+    }
+  }
+
+  /**
+   * @return the summary to request, null (the default summary) when the embedding is included
+   */
+  protected String summary(VespaSearchRequest request) {
+    return request.includeEmbedding() ? null : noEmbeddingSummary;
+  }
+
+  protected boolean isHybrid(VespaSearchRequest request) {
+    return hybrid && request.queryText() != null && !request.queryText().isBlank();
+  }
+
+  /**
+   * @return true if the hits should be sorted by recency, newest first. An order by replaces the
+   * ranking, so hybrid requests and the float re-rank of quantized requests are never replaced.
+   */
+  protected boolean isOrderedByRecency(VespaSearchRequest request) {
+    return orderByRecency && !isHybrid(request) && !isQuantized();
+  }
+
+  private boolean isQuantized() {
+    return quantization != Quantization.NONE;
+  }
+
+  /**
+   * The nearestNeighbor search of the embedding field, or its quantized copy. For hybrid requests
+   * it is OR:ed with a weakAnd match of the query text on the default fieldset, so segments that
+   * share the rare terms of the question are candidates even when their embedding is not among
+   * the closest.
+   */
+  protected String retrieval(VespaSearchRequest request) {
+    int hits = Math.max(request.maxResults(), targetHits);
+    String field = embeddingField();
+    String queryInput = "q_embedding";
+    if (isQuantized()) {
+      hits = Math.max(hits, quantizationTargetHits);
+      field = quantization.field(field);
+      queryInput = quantization.queryInput();
+    }
+    StringBuilder nearestNeighbor = new StringBuilder("{targetHits:").append(hits);
+    if (!approximate) {
+      nearestNeighbor.append(", approximate:false");
+    } else if (exploreAdditionalHits > 0) {
+      nearestNeighbor.append(", hnsw.exploreAdditionalHits:").append(exploreAdditionalHits);
+    }
+    nearestNeighbor.append("}nearestNeighbor(").append(field).append(",").append(queryInput)
+        .append(")");
+    if (!isHybrid(request)) {
+      return nearestNeighbor.toString();
+    }
+    return String.format(
+        "(%s or {targetHits:%d, grammar:\"weakAnd\"}userInput(%s))",
+        nearestNeighbor, hits, YqlFilterMapper.quote(request.queryText()));
+  }
+
+  /**
+   * @return the hybrid rank profile for hybrid requests, the re-rank profile of quantized
+   * requests, otherwise the nearestNeighbor one. Quantized hybrid requests use the hybrid profile
+   * with the quantization as suffix, e.g. "hybrid-int8".
+   */
+  protected String rankProfile(VespaSearchRequest request) {
+    if (isHybrid(request)) {
+      return isQuantized()
+          ? hybridRankProfile + "-" + quantization.rankProfile()
+          : hybridRankProfile;
+    }
+    return isQuantized() ? quantization.rankProfile() : nearestNeighborRankProfile;
+  }
+
+  /**
+   * @return the rank inputs, the float query embedding is always needed for the ranking
+   */
+  protected Map<String, Object> queryInputs(VespaSearchRequest request) {
+    Map<String, Object> input = new LinkedHashMap<>();
+    input.put("query(threshold)", request.minScore());
+    input.put("query(q_embedding)", queryEmbedding(request.queryEmbedding()));
+    if (isQuantized()) {
+      input.put("query(" + quantization.queryInput() + ")",
+          Quantization.queryValue(quantization.quantize(request.queryEmbedding()),
+              tensorEncoding));
+    }
+    return input;
+  }
+
+  /**
+   * @return the condition and the filter of the request, if any
+   */
+  protected String where(String condition, VespaSearchRequest request) {
+    String filter = filterMapper.map(request.filter());
+    return filter == null ? condition : condition + " and " + filter;
+  }
+
+  /**
+   * @return the value of the query tensor input for the embedding
+   */
+  protected Object queryEmbedding(float[] queryEmbedding) {
+    return tensorEncoding.queryValue(queryEmbedding);
+  }
+}
@@ -1,22 +1,27 @@
 package com.pehrs.langchain4j.vespa;
 
 import ai.vespa.feed.client.DocumentId;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.pehrs.langchain4j.RagSample;
 import com.pehrs.langchain4j.epub.EpubDocumentsReader;
-import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingStore.VespaDoc;
-import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingStore.VespaEmbedding;
-import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingStore.VespaInsertReq;
+import com.pehrs.langchain4j.vespa.YqlFilterMapper.Field;
+import com.pehrs.langchain4j.vespa.YqlFilterMapper.FieldType;
 import dev.langchain4j.data.document.Metadata;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-public class EpubVespaDocHandler implements VespaDocumentHandler {
+public class EpubVespaDocHandler extends AbstractVespaDocumentHandler {
+
+  public EpubVespaDocHandler() {
+    super(new YqlFilterMapper(Map.of(
+        EpubDocumentsReader.METADATA_TITLE, new Field("title", FieldType.TEXT),
+        RagSample.METADATA_SEGMENT_INDEX, new Field("segment_index", FieldType.NUMERIC)
+    )));
+  }
 
 
   @Override
@@ -30,25 +35,24 @@ public class EpubVespaDocHandler implements VespaDocumentHandler {
   }
 
   @Override
-  public VespaInsertReq createVespaInsertReq(DocumentId docId, Embedding embedding, TextSegment textSegment) {
-    Map<String, Object> fields = new HashMap<>();
+  public void writeFields(JsonGenerator generator, DocumentId docId, Embedding embedding,
+      TextSegment textSegment) throws IOException {
     if (textSegment != null) {
-      fields.put("content", textSegment.text());
+      generator.writeStringField("content", textSegment.text());
 
       Metadata metadata = textSegment.metadata();
       if (metadata != null) {
         String index = metadata.getString(RagSample.METADATA_SEGMENT_INDEX);
         if (index != null) {
-          fields.put("segment_index", Integer.parseInt(index));
+          generator.writeNumberField("segment_index", Integer.parseInt(index));
         }
         String title = metadata.getString(EpubDocumentsReader.METADATA_TITLE);
         if (title != null) {
-          fields.put("title", title);
+          generator.writeStringField("title", title);
         }
       }
     }
-    fields.put("embedding", new VespaEmbedding(embedding.vectorAsList()));
-    return new VespaInsertReq(docId.toString(), fields);
+    writeEmbedding(generator, "embedding", embedding);
   }
 
   @Override
@@ -67,28 +71,16 @@ public class EpubVespaDocHandler implements VespaDocumentHandler {
   }
 
   @Override
-  public List<Float> getEmbedding(JsonNode jsonFields) {
-    ArrayNode jsonEmbeddingValues =
-        (ArrayNode) jsonFields.get("embedding").get("values");
-    List<Float> embedding = new ArrayList<>();
-    jsonEmbeddingValues.forEach(valueNode -> {
-      Double embeddingValue = valueNode.asDouble();
-      embedding.add(embeddingValue.floatValue());
-    });
-    return embedding;
-  }
-
-  @Override
-  public YqlQueryRequest createYqlQueryRequest(List<Float> queryEmbedding, int maxResults, double minScore) {
+  public YqlQueryRequest createYqlQueryRequest(VespaSearchRequest request) {
 
-    String yql = String.format("select documentid, embedding, title, content, segment_index from books "
-        + "where {targetHits:%d}nearestNeighbor(embedding,q_embedding)", maxResults);
-    String rankingProfile = "recommendation";
-    Map<String, Object> input = Map.of(
-        "query(threshold)", minScore,
-        "query(q_embedding)", queryEmbedding
-    );
-    YqlQueryRequest yqlRequest = new YqlQueryRequest(yql, input, rankingProfile);
+    String yql = String.format("select documentid, %stitle, content, segment_index from books "
+        + "where %s",
+        request.includeEmbedding() ? "embedding, " : "",
+        where(retrieval(request), request));
+    String rankingProfile = rankProfile(request);
+    Map<String, Object> input = queryInputs(request);
+    YqlQueryRequest yqlRequest = new YqlQueryRequest(yql, input, rankingProfile,
+        request.maxResults(), summary(request));
     return yqlRequest;
   }
 }
@@ -1,23 +1,30 @@
 package com.pehrs.langchain4j.vespa;
 
 import ai.vespa.feed.client.DocumentId;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.pehrs.langchain4j.RagSample;
 import com.pehrs.langchain4j.rss.RssFeedReader;
-import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingStore.VespaDoc;
-import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingStore.VespaEmbedding;
-import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingStore.VespaInsertReq;
+import com.pehrs.langchain4j.vespa.YqlFilterMapper.Field;
+import com.pehrs.langchain4j.vespa.YqlFilterMapper.FieldType;
 import dev.langchain4j.data.document.Document;
 import dev.langchain4j.data.document.Metadata;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
-import java.util.ArrayList;
+import java.io.IOException;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-public class RssNewsVespaDocHandler implements VespaDocumentHandler {
+public class RssNewsVespaDocHandler extends AbstractVespaDocumentHandler {
+
+  public RssNewsVespaDocHandler() {
+    super(new YqlFilterMapper(Map.of(
+        RssFeedReader.METADATA_URL, new Field("url", FieldType.TEXT),
+        RssFeedReader.METADATA_TITLE, new Field("title", FieldType.TEXT),
+        RssFeedReader.METADATA_TS, new Field("ts", FieldType.NUMERIC),
+        RagSample.METADATA_SEGMENT_INDEX, new Field("segment_index", FieldType.NUMERIC)
+    )));
+  }
 
   @Override
   public String namespace() {
@@ -30,38 +37,37 @@ public class RssNewsVespaDocHandler implements VespaDocumentHandler {
   }
 
   @Override
-  public VespaInsertReq createVespaInsertReq(
+  public void writeFields(
+      JsonGenerator generator,
       DocumentId docId,
       Embedding embedding,
-      TextSegment textSegment) {
-    Map<String, Object> fields = new HashMap<>();
+      TextSegment textSegment) throws IOException {
     if (textSegment != null) {
-      fields.put("content", textSegment.text());
+      generator.writeStringField("content", textSegment.text());
       if (docId != null) {
-        fields.put("news_id", docId.toString());
+        generator.writeStringField("news_id", docId.toString());
       }
       Metadata metadata = textSegment.metadata();
       if (metadata != null) {
         String url = metadata.getString(RssFeedReader.METADATA_URL);
         if (url != null) {
-          fields.put("url", url);
+          generator.writeStringField("url", url);
         }
         String index = metadata.getString(RagSample.METADATA_SEGMENT_INDEX);
         if (index != null) {
-          fields.put("segment_index", Integer.parseInt(index));
+          generator.writeNumberField("segment_index", Integer.parseInt(index));
         }
         String title = metadata.getString(RssFeedReader.METADATA_TITLE);
         if (title != null) {
-          fields.put("title", title);
+          generator.writeStringField("title", title);
         }
         String ts = metadata.getString(RssFeedReader.METADATA_TS);
         if (ts != null) {
-          fields.put("ts", ts);
+          generator.writeStringField("ts", ts);
         }
       }
     }
-    fields.put("embedding", new VespaEmbedding(embedding.vectorAsList()));
-    return new VespaInsertReq(docId.toString(), fields);
+    writeEmbedding(generator, "embedding", embedding);
   }
 
   @Override
@@ -80,19 +86,7 @@ public class RssNewsVespaDocHandler implements VespaDocumentHandler {
   }
 
   @Override
-  public List<Float> getEmbedding(JsonNode jsonFields) {
-    ArrayNode jsonEmbeddingValues =
-        (ArrayNode) jsonFields.get("embedding").get("values");
-    List<Float> embedding = new ArrayList<>();
-    jsonEmbeddingValues.forEach(valueNode -> {
-      Double embeddingValue = valueNode.asDouble();
-      embedding.add(embeddingValue.floatValue());
-    });
-    return embedding;
-  }
-
-  @Override
-  public YqlQueryRequest createYqlQueryRequest(List<Float> queryEmbedding, int maxResults, double minScore) {
+  public YqlQueryRequest createYqlQueryRequest(VespaSearchRequest request) {
 //    String queryEmbeddingStr = queryEmbedding.stream().map(d -> "" + d)
 //        .collect(Collectors.joining(","));
 //
@@ -108,15 +102,17 @@ public class RssNewsVespaDocHandler implements VespaDocumentHandler {
 //        + "  \"ranking\": \"recommendation\"\n"
 //        + "}", maxResults, minScore, queryEmbeddingStr);
 
-    String yql = String.format("select documentid, embedding, title, content, news_id, url, segment_index, ts from news "
-        + "where {targetHits:%d}nearestNeighbor(embedding,q_embedding) order by ts desc", maxResults);
+    // The order by would replace the ranking, the hybrid profile has a recency term instead
+    String yql = String.format("select documentid, %stitle, content, news_id, url, segment_index, ts from news "
+        + "where %s%s",
+        request.includeEmbedding() ? "embedding, " : "",
+        where(retrieval(request), request),
+        isOrderedByRecency(request) ? " order by ts desc" : "");
 
-    String rankingProfile = "recommendation";
-    Map<String, Object> input = Map.of(
-        "query(threshold)", minScore,
-        "query(q_embedding)", queryEmbedding
-    );
-    YqlQueryRequest yqlRequest = new YqlQueryRequest(yql, input, rankingProfile);
+    String rankingProfile = rankProfile(request);
+    Map<String, Object> input = queryInputs(request);
+    YqlQueryRequest yqlRequest = new YqlQueryRequest(yql, input, rankingProfile,
+        request.maxResults(), summary(request));
     return yqlRequest;
   }
 }
@@ -14,11 +14,32 @@ public class SimpleVespaEmbeddingConfig {
   public final String rankingInputName;
   public final boolean avoidDups;
 
+  // nearestNeighbor targetHits, the maxResults of the search is used if it is larger
   public final int targetHits;
+  // false for an exact (brute force) nearestNeighbor search
+  public final boolean approximate;
+  // Extra candidates explored in the HNSW graph, higher gives better recall and latency
+  public final int exploreAdditionalHits;
+  // Search a quantized copy of the embedding and re-rank quantizationTargetHits with the floats
+  public final Quantization quantization;
+  public final int quantizationTargetHits;
 
   public final String vespaDocumentHandler;
+  // Encoding of the embedding tensors in feed and query payloads
+  public final TensorEncoding tensorEncoding;
+  // Return the embedding in the search hits, if false the noEmbeddingSummary is used
+  public final boolean includeEmbedding;
+  public final String noEmbeddingSummary;
+  // OR the nearestNeighbor search with a text match of the query, ranked by hybridRankProfile
+  public final boolean hybrid;
+  public final String hybridRankProfile;
+  // Sort the hits of plain nearestNeighbor searches by recency, for doc types that have one
+  public final boolean orderByRecency;
 
   public final String feedUrl;
+  // Max number of documents being fed at the same time
+  public final int feedMaxInFlight;
+  public final int feedConnections;
 
   public final boolean enableTls;
   public final String caCertPath;
@@ -30,8 +51,20 @@ public class SimpleVespaEmbeddingConfig {
   public SimpleVespaEmbeddingConfig(String url, Duration timeout, String rankProfile,
       String rankingInputName, boolean avoidDups,
       int targetHits,
+      boolean approximate,
+      int exploreAdditionalHits,
+      Quantization quantization,
+      int quantizationTargetHits,
       String vespaDocumentHandler,
+      TensorEncoding tensorEncoding,
+      boolean includeEmbedding,
+      String noEmbeddingSummary,
+      boolean hybrid,
+      String hybridRankProfile,
+      boolean orderByRecency,
       String feedUrl,
+      int feedMaxInFlight,
+      int feedConnections,
       boolean enableTls,
       boolean logRequests,
       String caCertPath, String clientCertPath, String clientKeyPath) {
@@ -41,8 +74,20 @@ public class SimpleVespaEmbeddingConfig {
     this.rankingInputName = rankingInputName;
     this.avoidDups = avoidDups;
     this.targetHits = targetHits;
+    this.approximate = approximate;
+    this.exploreAdditionalHits = exploreAdditionalHits;
+    this.quantization = quantization;
+    this.quantizationTargetHits = quantizationTargetHits;
     this.vespaDocumentHandler = vespaDocumentHandler;
+    this.tensorEncoding = tensorEncoding;
+    this.includeEmbedding = includeEmbedding;
+    this.noEmbeddingSummary = noEmbeddingSummary;
+    this.hybrid = hybrid;
+    this.hybridRankProfile = hybridRankProfile;
+    this.orderByRecency = orderByRecency;
     this.feedUrl = feedUrl;
+    this.feedMaxInFlight = feedMaxInFlight;
+    this.feedConnections = feedConnections;
     this.enableTls = enableTls;
     this.logRequests = logRequests;
     this.caCertPath = caCertPath;
@@ -64,7 +109,9 @@ public class SimpleVespaEmbeddingConfig {
 
   public VespaDocumentHandler createVespaDocumentHandler() {
     try {
-      return (VespaDocumentHandler) Class.forName(this.vespaDocumentHandler).getConstructors()[0].newInstance();
+      VespaDocumentHandler handler = (VespaDocumentHandler) Class.forName(this.vespaDocumentHandler).getConstructors()[0].newInstance();
+      handler.configure(this);
+      return handler;
     } catch (ClassNotFoundException | InvocationTargetException | InstantiationException |
              IllegalAccessException e) {
       throw new RuntimeException(e);
@@ -103,6 +150,18 @@ public class SimpleVespaEmbeddingConfig {
     if (vespaConfig.hasPath("targetHits")) {
       builder.setTargetHits(vespaConfig.getInt("targetHits"));
     }
+    if (vespaConfig.hasPath("approximate")) {
+      builder.setApproximate(vespaConfig.getBoolean("approximate"));
+    }
+    if (vespaConfig.hasPath("exploreAdditionalHits")) {
+      builder.setExploreAdditionalHits(vespaConfig.getInt("exploreAdditionalHits"));
+    }
+    if (vespaConfig.hasPath("quantization")) {
+      builder.setQuantization(Quantization.fromString(vespaConfig.getString("quantization")));
+    }
+    if (vespaConfig.hasPath("quantizationTargetHits")) {
+      builder.setQuantizationTargetHits(vespaConfig.getInt("quantizationTargetHits"));
+    }
     if (vespaConfig.hasPath("vespaDocumentHandler")) {
       builder.setVespaDocumentHandler(vespaConfig.getString("vespaDocumentHandler"));
     }
@@ -111,9 +170,33 @@ public class SimpleVespaEmbeddingConfig {
       builder.setVespaDocumentHandler(vespaConfig.getString("vespaDocumentHandler"));
     }
 
+    if (vespaConfig.hasPath("tensorEncoding")) {
+      builder.setTensorEncoding(TensorEncoding.fromString(vespaConfig.getString("tensorEncoding")));
+    }
+    if (vespaConfig.hasPath("includeEmbedding")) {
+      builder.setIncludeEmbedding(vespaConfig.getBoolean("includeEmbedding"));
+    }
+    if (vespaConfig.hasPath("noEmbeddingSummary")) {
+      builder.setNoEmbeddingSummary(vespaConfig.getString("noEmbeddingSummary"));
+    }
+    if (vespaConfig.hasPath("hybrid")) {
+      builder.setHybrid(vespaConfig.getBoolean("hybrid"));
+    }
+    if (vespaConfig.hasPath("hybridRankProfile")) {
+      builder.setHybridRankProfile(vespaConfig.getString("hybridRankProfile"));
+    }
+    if (vespaConfig.hasPath("orderByRecency")) {
+      builder.setOrderByRecency(vespaConfig.getBoolean("orderByRecency"));
+    }
     if (vespaConfig.hasPath("feedUrl")) {
       builder.setFeedUrl(vespaConfig.getString("feedUrl"));
     }
+    if (vespaConfig.hasPath("feedMaxInFlight")) {
+      builder.setFeedMaxInFlight(vespaConfig.getInt("feedMaxInFlight"));
+    }
+    if (vespaConfig.hasPath("feedConnections")) {
+      builder.setFeedConnections(vespaConfig.getInt("feedConnections"));
+    }
     if (vespaConfig.hasPath("logRequests")) {
       builder.setLogRequests(vespaConfig.getBoolean("logRequests"));
     }
@@ -143,12 +226,24 @@ public class SimpleVespaEmbeddingConfig {
     private String rankingInputName;
     private boolean avoidDups;
     private int targetHits;
+    private boolean approximate;
+    private int exploreAdditionalHits;
+    private Quantization quantization;
+    private int quantizationTargetHits;
     private boolean logRequests;
 
     private String vespaDocumentHandler;
 
 
+    public TensorEncoding tensorEncoding;
+    public boolean includeEmbedding;
+    public String noEmbeddingSummary;
+    public boolean hybrid;
+    public String hybridRankProfile;
+    public boolean orderByRecency;
     public String feedUrl;
+    public int feedMaxInFlight;
+    public int feedConnections;
     public  boolean enableTls;
     public  String caCertPath;
     public  String clientCertPath;
@@ -163,8 +258,20 @@ public class SimpleVespaEmbeddingConfig {
       this.rankingInputName = "q_embedding";
       this.avoidDups = true;
       this.targetHits = 5;
+      this.approximate = true;
+      this.exploreAdditionalHits = 0;
+      this.quantization = Quantization.NONE;
+      this.quantizationTargetHits = 100;
       this.vespaDocumentHandler = null;
+      this.tensorEncoding = TensorEncoding.JSON;
+      this.includeEmbedding = true;
+      this.noEmbeddingSummary = "no-embedding";
+      this.hybrid = false;
+      this.hybridRankProfile = "hybrid";
+      this.orderByRecency = true;
       this.feedUrl = "https://localhost:9443";
+      this.feedMaxInFlight = 128;
+      this.feedConnections = 4;
       this.enableTls = false;
       this.logRequests = false;
       this.caCertPath = null;
@@ -212,6 +319,26 @@ public class SimpleVespaEmbeddingConfig {
       return this;
     }
 
+    public VespaEmbeddingConfigBuilder setApproximate(boolean approximate) {
+      this.approximate = approximate;
+      return this;
+    }
+
+    public VespaEmbeddingConfigBuilder setExploreAdditionalHits(int exploreAdditionalHits) {
+      this.exploreAdditionalHits = exploreAdditionalHits;
+      return this;
+    }
+
+    public VespaEmbeddingConfigBuilder setQuantization(Quantization quantization) {
+      this.quantization = quantization;
+      return this;
+    }
+
+    public VespaEmbeddingConfigBuilder setQuantizationTargetHits(int quantizationTargetHits) {
+      this.quantizationTargetHits = quantizationTargetHits;
+      return this;
+    }
+
     public VespaEmbeddingConfigBuilder setVespaDocumentHandler(String handlerClassName) {
       this.vespaDocumentHandler = handlerClassName;
       return this;
@@ -222,6 +349,46 @@ public class SimpleVespaEmbeddingConfig {
       return this;
     }
 
+    public VespaEmbeddingConfigBuilder setTensorEncoding(TensorEncoding value) {
+      this.tensorEncoding = value;
+      return this;
+    }
+
+    public VespaEmbeddingConfigBuilder setIncludeEmbedding(boolean value) {
+      this.includeEmbedding = value;
+      return this;
+    }
+
+    public VespaEmbeddingConfigBuilder setNoEmbeddingSummary(String value) {
+      this.noEmbeddingSummary = value;
+      return this;
+    }
+
+    public VespaEmbeddingConfigBuilder setHybrid(boolean value) {
+      this.hybrid = value;
+      return this;
+    }
+
+    public VespaEmbeddingConfigBuilder setHybridRankProfile(String value) {
+      this.hybridRankProfile = value;
+      return this;
+    }
+
+    public VespaEmbeddingConfigBuilder setOrderByRecency(boolean value) {
+      this.orderByRecency = value;
+      return this;
+    }
+
+    public VespaEmbeddingConfigBuilder setFeedMaxInFlight(int value) {
+      this.feedMaxInFlight = value;
+      return this;
+    }
+
+    public VespaEmbeddingConfigBuilder setFeedConnections(int value) {
+      this.feedConnections = value;
+      return this;
+    }
+
     public VespaEmbeddingConfigBuilder setLogRequests(boolean value) {
       this.logRequests = value;
       return this;
@@ -247,8 +414,9 @@ public class SimpleVespaEmbeddingConfig {
 
     public SimpleVespaEmbeddingConfig build() {
       return new SimpleVespaEmbeddingConfig(
-          url, timeout, rankProfile, rankingInputName, avoidDups, targetHits, vespaDocumentHandler,
-          feedUrl,
+          url, timeout, rankProfile, rankingInputName, avoidDups, targetHits, approximate,
+          exploreAdditionalHits, quantization, quantizationTargetHits, vespaDocumentHandler,
+          tensorEncoding, includeEmbedding, noEmbeddingSummary, hybrid, hybridRankProfile, orderByRecency, feedUrl, feedMaxInFlight, feedConnections,
           enableTls, logRequests, caCertPath, clientCertPath, clientKeyPath
       );
     }
@@ -4,40 +4,43 @@ import static dev.langchain4j.internal.Utils.generateUUIDFrom;
 import static dev.langchain4j.internal.Utils.randomUUID;
 
 import ai.vespa.feed.client.DocumentId;
+import ai.vespa.feed.client.FeedClient;
 import ai.vespa.feed.client.FeedClientBuilder;
-import ai.vespa.feed.client.FeedException;
-import ai.vespa.feed.client.JsonFeeder;
+import ai.vespa.feed.client.OperationParameters;
 import ai.vespa.feed.client.Result;
 import com.codahale.metrics.MetricRegistry;
-import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pehrs.langchain4j.AsyncEmbeddingStore;
 import com.pehrs.langchain4j.RagSample;
 import com.typesafe.config.Config;
-import dev.langchain4j.data.document.Metadata;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
-import dev.langchain4j.store.embedding.EmbeddingMatch;
 import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
 import dev.langchain4j.store.embedding.EmbeddingSearchResult;
 import dev.langchain4j.store.embedding.EmbeddingStore;
-import java.io.ByteArrayInputStream;
+import dev.langchain4j.store.embedding.filter.Filter;
+import java.io.CharArrayWriter;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
 import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
 import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
 import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
 import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
 import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
 import org.apache.hc.core5.concurrent.FutureCallback;
@@ -64,17 +67,30 @@ import org.slf4j.LoggerFactory;
  *   vespaengine/vespa:8
  * </pre>
  *
+ * <p>The documents are fed with ids made from the source id and segment index of the segments,
+ * so feeding a source again overwrites its documents. Removes are by document id only.
+ *
  * @see dev.langchain4j.store.embedding.vespa.VespaEmbeddingStore
  */
-public class SimpleVespaEmbeddingStore implements EmbeddingStore<TextSegment>, Closeable {
+public class SimpleVespaEmbeddingStore implements AsyncEmbeddingStore<TextSegment>, Closeable {
 
   static Logger log = LoggerFactory.getLogger(SimpleVespaEmbeddingStore.class);
 
 
   private static ObjectMapper objectMapper = new ObjectMapper();
+  // Reused by the feeding threads, grows to the size of the largest document
+  private static final ThreadLocal<CharArrayWriter> documentBuffer =
+      ThreadLocal.withInitial(() -> new CharArrayWriter(64 * 1024));
   private final CloseableHttpAsyncClient httpClient;
   private final SimpleVespaEmbeddingConfig config;
   private final VespaDocumentHandler vespaDocumentHandler;
+  private final VespaSearchResponseParser searchResponseParser;
+
+  // One feed client for the lifetime of the store, it keeps its connections open.
+  // Created by the first feed, a store that only searches never opens its connections.
+  private FeedClient feedClient;
+  // Limits the number of documents in flight, addAll blocks when all permits are taken
+  private final Semaphore feedPermits;
 
   public SimpleVespaEmbeddingStore(MetricRegistry metricRegistry,
       SimpleVespaEmbeddingConfig config) {
@@ -95,12 +111,16 @@ public class SimpleVespaEmbeddingStore implements EmbeddingStore<TextSegment>, C
     this.httpClient.start();
 
     this.vespaDocumentHandler = this.config.createVespaDocumentHandler();
+    this.searchResponseParser = new VespaSearchResponseParser(objectMapper,
+        this.vespaDocumentHandler);
 
+    this.feedPermits = new Semaphore(config.feedMaxInFlight);
   }
 
-  JsonFeeder buildJsonFeeder() {
+  FeedClient buildFeedClient() {
     FeedClientBuilder feedClientBuilder = FeedClientBuilder
-        .create(URI.create(config.feedUrl));
+        .create(URI.create(config.feedUrl))
+        .setConnectionsPerEndpoint(config.feedConnections);
 
     if (config.enableTls) {
 //        CertificateFactory cf = CertificateFactory.getInstance("X.509");
@@ -120,10 +140,14 @@ public class SimpleVespaEmbeddingStore implements EmbeddingStore<TextSegment>, C
       feedClientBuilder.setCertificate(config.getClientCertPath(), config.getClientKeyPath());
 
     }
-    return JsonFeeder
-        .builder(feedClientBuilder.build())
-        .withTimeout(config.timeout)
-        .build();
+    return feedClientBuilder.build();
+  }
+
+  private synchronized FeedClient feedClient() {
+    if (feedClient == null) {
+      feedClient = buildFeedClient();
+    }
+    return feedClient;
   }
 
   @Override
@@ -153,56 +177,156 @@ public class SimpleVespaEmbeddingStore implements EmbeddingStore<TextSegment>, C
 
   @Override
   public List<String> addAll(List<Embedding> embeddings, List<TextSegment> textSegments) {
-    if (textSegments != null && embeddings.size() != textSegments.size()) {
+    return joinAll(addAllAsync(embeddings, textSegments));
+  }
+
+  /**
+   * Feed the embeddings under the given ids instead of the ids made from the segments.
+   *
+   * @param ids full document ids, e.g. "id:embeddings:books::book-1", or their user specific part
+   */
+  @Override
+  public void addAll(List<String> ids, List<Embedding> embeddings,
+      List<TextSegment> textSegments) {
+    if (textSegments == null) {
+      throw new IllegalArgumentException("The Vespa store needs the segments of the embeddings");
+    }
+    if (ids.size() != embeddings.size() || textSegments.size() != embeddings.size()) {
       throw new IllegalArgumentException(
-          "The list of embeddings and embedded must have the same size");
+          "The lists of ids, embeddings and embedded must have the same size");
     }
+    List<CompletableFuture<String>> futures = new ArrayList<>(ids.size());
+    for (int i = 0; i < ids.size(); i++) {
+      futures.add(feed(documentId(ids.get(i)), embeddings.get(i), textSegments.get(i)));
+    }
+    joinAll(futures);
+  }
 
-    List<String> ids = new ArrayList<>();
+  /**
+   * @param ids full document ids, e.g. the embeddingIds of the matches, or their user specific part
+   */
+  @Override
+  public void removeAll(Collection<String> ids) {
+    List<CompletableFuture<String>> futures = new ArrayList<>(ids.size());
+    for (String id : ids) {
+      DocumentId documentId = documentId(id);
+      futures.add(send(documentId, "Remove", feedClient -> feedClient.remove(documentId,
+          OperationParameters.empty().timeout(config.timeout))));
+    }
+    joinAll(futures);
+  }
 
-    try (JsonFeeder jsonFeeder = buildJsonFeeder()) {
-      List<VespaInsertReq> records = new ArrayList<>();
+  @Override
+  public void removeAll(Filter filter) {
+    throw new UnsupportedOperationException(
+        "The Vespa store can only remove by id, remove by filter with a selection in Vespa");
+  }
 
-      for (int i = 0; i < embeddings.size(); i++) {
-        String docId = createDocId(textSegments.get(i));
-        DocumentId documentId = this.vespaDocumentHandler.createDocumentId(docId);
-        records.add(this.vespaDocumentHandler.createVespaInsertReq(documentId,
-            embeddings.get(i), textSegments.get(i)));
-      }
+  @Override
+  public void removeAll() {
+    throw new UnsupportedOperationException(
+        "The Vespa store can only remove by id, remove all with a selection in Vespa");
+  }
 
-      if (!records.isEmpty()) {
-
-        try (InputStream recordInput = new ByteArrayInputStream(objectMapper.writeValueAsString(records)
-            .getBytes(StandardCharsets.UTF_8))) {
-
-          jsonFeeder.feedMany(
-              recordInput, // Json.toInputStream(records, List.class),
-              new JsonFeeder.ResultCallback() {
-                @Override
-                public void onNextResult(Result result, FeedException error) {
-                  if (error != null) {
-                    throw new RuntimeException(error.getMessage());
-                  } else if (Result.Type.success.equals(result.type())) {
-                    ids.add(result.documentId().toString());
-                  }
-                }
-
-                @Override
-                public void onError(FeedException error) {
-                  throw new RuntimeException(error.getMessage());
-                }
-              }
-          );
-        }
+  private DocumentId documentId(String id) {
+    return id.startsWith("id:")
+        ? DocumentId.of(id)
+        : this.vespaDocumentHandler.createDocumentId(id);
+  }
+
+  private static List<String> joinAll(List<CompletableFuture<String>> futures) {
+    List<String> ids = new ArrayList<>(futures.size());
+    for (CompletableFuture<String> future : futures) {
+      try {
+        ids.add(future.join());
+      } catch (CompletionException ex) {
+        throw new RuntimeException(ex.getCause().getMessage(), ex.getCause());
       }
-    } catch (IOException e) {
-      throw new RuntimeException(e);
     }
-
     return ids;
+  }
+
+  /**
+   * Feed the documents without waiting for Vespa. Blocks only when {@code feedMaxInFlight}
+   * documents are already in flight.
+   *
+   * @param textSegments the segments of the embeddings, their metadata makes the document ids
+   * @return one future per document, completed with the document id when Vespa has accepted it
+   */
+  public List<CompletableFuture<String>> addAllAsync(List<Embedding> embeddings,
+      List<TextSegment> textSegments) {
+    if (textSegments == null) {
+      throw new IllegalArgumentException("The Vespa store needs the segments of the embeddings");
+    }
+    if (embeddings.size() != textSegments.size()) {
+      throw new IllegalArgumentException(
+          "The list of embeddings and embedded must have the same size");
+    }
 
+    List<CompletableFuture<String>> futures = new ArrayList<>(embeddings.size());
+    for (int i = 0; i < embeddings.size(); i++) {
+      String docId = createDocId(textSegments.get(i));
+      DocumentId documentId = this.vespaDocumentHandler.createDocumentId(docId);
+      futures.add(feed(documentId, embeddings.get(i), textSegments.get(i)));
+    }
+    return futures;
+  }
+
+  private CompletableFuture<String> feed(DocumentId documentId, Embedding embedding,
+      TextSegment textSegment) {
+    // Serialize before taking a permit, only the documents in flight are kept in memory
+    String documentJson = documentJson(this.vespaDocumentHandler, documentId, embedding,
+        textSegment);
+    return send(documentId, "Feed", feedClient -> feedClient.put(documentId, documentJson,
+        OperationParameters.empty().timeout(config.timeout)));
   }
 
+  /**
+   * Send one document operation once a permit is free.
+   *
+   * @return completed with the document id when Vespa has accepted the operation
+   */
+  private CompletableFuture<String> send(DocumentId documentId, String operation,
+      Function<FeedClient, CompletableFuture<Result>> send) {
+    feedPermits.acquireUninterruptibly();
+    CompletableFuture<Result> result;
+    try {
+      result = send.apply(feedClient());
+    } catch (RuntimeException ex) {
+      feedPermits.release();
+      throw ex;
+    }
+    return result
+        .whenComplete((res, error) -> feedPermits.release())
+        .thenApply(res -> {
+          if (!Result.Type.success.equals(res.type())) {
+            throw new RuntimeException(
+                operation + " of " + documentId + " failed: " + res.type());
+          }
+          return res.documentId().toString();
+        });
+  }
+
+
+  /**
+   * Stream the {@code {"fields": {...}}} document straight from the embedding vector and segment
+   * into a per thread buffer, without building a Map or a List&lt;Float&gt; first.
+   */
+  static String documentJson(VespaDocumentHandler vespaDocumentHandler, DocumentId documentId,
+      Embedding embedding, TextSegment textSegment) {
+    CharArrayWriter buffer = documentBuffer.get();
+    buffer.reset();
+    try (JsonGenerator generator = objectMapper.getFactory().createGenerator(buffer)) {
+      generator.writeStartObject();
+      generator.writeObjectFieldStart("fields");
+      vespaDocumentHandler.writeFields(generator, documentId, embedding, textSegment);
+      generator.writeEndObject();
+      generator.writeEndObject();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return buffer.toString();
+  }
 
   private String createDocId(TextSegment textSegment) {
     String srcId = textSegment.metadata().getString(RagSample.METADATA_SRC_ID);
@@ -219,23 +343,22 @@ public class SimpleVespaEmbeddingStore implements EmbeddingStore<TextSegment>, C
 
   @Override
   public void close() throws IOException {
-    httpClient.close(CloseMode.GRACEFUL);
-  }
-
-
-  public record VespaEmbedding(List<Float> values) {
-
-  }
-
-  public record VespaInsertReq(String id, Map<String, Object> fields) {
-
-  }
-
-  public record VespaDoc(Map<String, Object> fields) {
-
-    public VespaInsertReq asVespaInsertReq(DocumentId docId) {
-      return new VespaInsertReq(docId.toString(), this.fields);
+    // Wait for the documents still in flight before closing the feed client
+    try {
+      if (!feedPermits.tryAcquire(config.feedMaxInFlight,
+          config.timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+        log.warn("{} documents still in flight when closing the store",
+            config.feedMaxInFlight - feedPermits.availablePermits());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
+    synchronized (this) {
+      if (feedClient != null) {
+        feedClient.close(true);
+      }
+    }
+    httpClient.close(CloseMode.GRACEFUL);
   }
 
 
@@ -246,149 +369,135 @@ public class SimpleVespaEmbeddingStore implements EmbeddingStore<TextSegment>, C
             this.vespaDocumentHandler.namespace(), this.vespaDocumentHandler.docType(), id);
   }
 
-  // private String add(String id, Embedding embedding, TextSegment textSegment) {
-
   @Override
   public String add(Embedding embedding, TextSegment textSegment) {
     return this.addAll(List.of(embedding), List.of(textSegment)).get(0);
-
-//    String srcId = textSegment.metadata().get(RagSample.METADATA_SRC_ID);
-//    String docId = srcId != null
-//        ? srcId
-//        : config.avoidDups && textSegment != null ? generateUUIDFrom(textSegment.text())
-//            : randomUUID();
-//    String segmentIndex = textSegment.metadata().get(RagSample.METADATA_SEGMENT_INDEX);
-//    if(segmentIndex!=null) {
-//      docId += "-" + segmentIndex;
-//    }
-//
-//    DocumentId documentId =
-//        DocumentId.of(this.vespaDocumentHandler.namespace(), this.vespaDocumentHandler.docType(), docId);
-//
-//
-//    VespaDoc vespaDoc = this.vespaDocumentHandler.createVespaDoc(docId, embedding, textSegment);
-//
-//    try {
-//      String vespaJson = objectMapper.writeValueAsString(vespaDoc);
-//      String uploadUrl = vespaDocApiUrl(docId);
-//
-//      final SimpleHttpRequest request = SimpleRequestBuilder.post(uploadUrl)
-//          .setBody(vespaJson, ContentType.APPLICATION_JSON)
-//          .build();
-//
-//      log.trace("HTTP POST {}", request.getBodyText());
-//
-//      Future<SimpleHttpResponse> httpResFuture = httpClient.execute(
-//          SimpleRequestProducer.create(request),
-//          SimpleResponseConsumer.create(),
-//          new FutureCallback<>() {
-//            @Override
-//            public void completed(final SimpleHttpResponse response) {
-//              log.debug(request + "->" + new StatusLine(response));
-//              log.trace("" + response.getBodyText());
-//            }
-//
-//            @Override
-//            public void failed(final Exception ex) {
-//              System.out.println(request + "->" + ex);
-//            }
-//
-//            @Override
-//            public void cancelled() {
-//              System.out.println(request + " cancelled");
-//            }
-//          });
-//
-//      // Wait for response (logged in above code)
-//      httpResFuture.get(this.config.timeout.getSeconds(), TimeUnit.SECONDS);
-//
-//      return documentId.toString();
-//    } catch (JsonProcessingException|ExecutionException |InterruptedException |TimeoutException e) {
-//      throw new RuntimeException(e);
-//    }
   }
 
   @Override
   public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest embeddingSearchRequest) {
+    return join(searchAsync(embeddingSearchRequest));
+  }
 
-    double minScore = embeddingSearchRequest.minScore();
-    int maxResults = embeddingSearchRequest.maxResults();
-    Embedding referenceEmbedding = embeddingSearchRequest.queryEmbedding();
-    try {
-      YqlQueryRequest yqlRequest = this.vespaDocumentHandler.createYqlQueryRequest(
-          referenceEmbedding.vectorAsList(), maxResults,
-          minScore);
-
-      final SimpleHttpRequest httpRequest = SimpleRequestBuilder.post(this.config.url + "/search/")
-          .setBody(yqlRequest.toJson(), ContentType.APPLICATION_JSON)
-          .build();
-
-      Future<SimpleHttpResponse> httpResFuture = httpClient.execute(
-          SimpleRequestProducer.create(httpRequest),
-          SimpleResponseConsumer.create(),
-          new FutureCallback<>() {
-            @Override
-            public void completed(final SimpleHttpResponse response) {
-              log.debug(httpRequest + "->" + new StatusLine(response));
-              log.trace("" + response.getBody());
-            }
+  public EmbeddingSearchResult<TextSegment> search(VespaSearchRequest searchRequest) {
+    return join(searchAsync(searchRequest));
+  }
 
-            @Override
-            public void failed(final Exception ex) {
-              System.err.println(httpRequest + "->" + ex);
-            }
+  @Override
+  public CompletableFuture<EmbeddingSearchResult<TextSegment>> searchAsync(
+      EmbeddingSearchRequest embeddingSearchRequest) {
+    return searchAsync(VespaSearchRequest.from(embeddingSearchRequest, config.includeEmbedding));
+  }
 
-            @Override
-            public void cancelled() {
-              System.err.println(httpRequest + " cancelled");
-            }
-          });
-
-      // Wait for response (logged in above code)
-      SimpleHttpResponse httpResponse = httpResFuture.get(this.config.timeout.getSeconds(),
-          TimeUnit.SECONDS);
-      String responseBody = httpResponse.getBodyText();
-
-      JsonNode responseJson = objectMapper.readTree(responseBody);
-      JsonNode root = responseJson.get("root");
-      if (root.has("errors")) {
-        JsonNode errors = root.get("errors");
-        throw new RuntimeException(objectMapper.writeValueAsString(errors));
-      }
-      JsonNode children = responseJson.get("root").get("children");
-      List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>();
-      children.forEach(childNode -> {
-        EmbeddingMatch<TextSegment> embeddingMatch = toEmbeddingMatch(childNode);
-        matches.add(embeddingMatch);
-      });
+  @Override
+  public CompletableFuture<EmbeddingSearchResult<TextSegment>> searchAsync(
+      EmbeddingSearchRequest embeddingSearchRequest, String queryText) {
+    return searchAsync(VespaSearchRequest.from(embeddingSearchRequest, queryText,
+        config.includeEmbedding));
+  }
 
-      return new EmbeddingSearchResult(matches);
+  /**
+   * Search without blocking the calling thread. The response is parsed on the http client I/O
+   * thread and the future fails with a TimeoutException after {@code timeout}.
+   */
+  public CompletableFuture<EmbeddingSearchResult<TextSegment>> searchAsync(
+      VespaSearchRequest searchRequest) {
+    YqlQueryRequest yqlRequest = this.vespaDocumentHandler.createYqlQueryRequest(searchRequest)
+        // Let Vespa give up at the same time as we do
+        .withTimeout(this.config.timeout.toMillis() + "ms");
+
+    final SimpleHttpRequest httpRequest = SimpleRequestBuilder.post(this.config.url + "/search/")
+        .setBody(yqlRequest.toJson(), ContentType.APPLICATION_JSON)
+        .build();
 
-    } catch (IOException | ExecutionException | InterruptedException | TimeoutException e) {
-      throw new RuntimeException(e);
-    }
+    return execute(httpRequest, httpResponse ->
+        new EmbeddingSearchResult<>(searchResponseParser.parse(httpResponse.getBodyBytes())));
   }
 
-  private EmbeddingMatch<TextSegment> toEmbeddingMatch(JsonNode childNode) {
-
-    String docId = childNode.get("id").asText();
-    double relevance = childNode.get("relevance").asDouble();
-    JsonNode jsonFields = childNode.get("fields");
+  /**
+   * Fetch the embedding of a search hit that was returned without it.
+   *
+   * @param id the embeddingId of the match, the full Vespa document id
+   * @return the embedding or null if the document does not exist
+   */
+  public Embedding fetchEmbedding(String id) {
+    String userSpecific = DocumentId.of(id).userSpecific();
+    String url = vespaDocApiUrl(URLEncoder.encode(userSpecific, StandardCharsets.UTF_8))
+        + "?fieldSet=" + this.vespaDocumentHandler.docType() + ":"
+        + this.vespaDocumentHandler.embeddingField();
+    return join(execute(SimpleRequestBuilder.get(url).build(), httpResponse -> {
+      if (httpResponse.getCode() == 404) {
+        return null;
+      }
+      float[] embedding = searchResponseParser.parseDocumentEmbedding(
+          httpResponse.getBodyBytes());
+      return embedding == null ? null : Embedding.from(embedding);
+    }));
+  }
 
-    String content = this.vespaDocumentHandler.getContent(jsonFields);
-    List<Float> embedding = this.vespaDocumentHandler.getEmbedding(jsonFields);
+  @FunctionalInterface
+  private interface ResponseHandler<T> {
 
-    // Get the metadata
-    Map<String, String> metadataMap = this.vespaDocumentHandler.getMetadata(jsonFields);
+    T handle(SimpleHttpResponse response) throws IOException;
+  }
 
-    return new EmbeddingMatch<>(
-        relevance,
-        docId,
-        Embedding.from(embedding),
-        TextSegment.from(content, new Metadata(metadataMap))
-    );
+  /**
+   * Execute the request and handle the response in the completion callback.
+   */
+  private <T> CompletableFuture<T> execute(SimpleHttpRequest httpRequest,
+      ResponseHandler<T> responseHandler) {
+    httpRequest.setConfig(RequestConfig.custom()
+        .setResponseTimeout(Timeout.of(this.config.timeout))
+        .build());
+
+    CompletableFuture<T> result = new CompletableFuture<>();
+    Future<SimpleHttpResponse> httpResFuture = httpClient.execute(
+        SimpleRequestProducer.create(httpRequest),
+        SimpleResponseConsumer.create(),
+        new FutureCallback<>() {
+          @Override
+          public void completed(final SimpleHttpResponse response) {
+            log.debug(httpRequest + "->" + new StatusLine(response));
+            log.trace("" + response.getBody());
+            try {
+              result.complete(responseHandler.handle(response));
+            } catch (IOException | RuntimeException ex) {
+              result.completeExceptionally(ex);
+            }
+          }
+
+          @Override
+          public void failed(final Exception ex) {
+            log.warn(httpRequest + "->" + ex);
+            result.completeExceptionally(ex);
+          }
+
+          @Override
+          public void cancelled() {
+            log.warn(httpRequest + " cancelled");
+            result.cancel(false);
+          }
+        });
+
+    // Also cancels the request when the caller cancels the returned future
+    result.whenComplete((value, error) -> {
+      if (error != null) {
+        httpResFuture.cancel(true);
+      }
+    });
+    return result.orTimeout(this.config.timeout.toMillis(), TimeUnit.MILLISECONDS);
   }
 
+  private static <T> T join(CompletableFuture<T> future) {
+    try {
+      return future.join();
+    } catch (CompletionException ex) {
+      if (ex.getCause() instanceof RuntimeException rex) {
+        throw rex;
+      }
+      throw new RuntimeException(ex.getCause());
+    }
+  }
 
   public static EmbeddingStore<TextSegment> createSimpleVespaEmbeddingStore(
       MetricRegistry metricRegistry, Config config) {
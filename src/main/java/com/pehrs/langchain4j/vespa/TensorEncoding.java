@@ -0,0 +1,168 @@
+package com.pehrs.langchain4j.vespa;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * How dense tensors (embeddings) are written in feed and query payloads.
+ *
+ * <ul>
+ *   <li>{@code JSON} - {@code {"values": [0.1, ...]}}, about 10 bytes per cell</li>
+ *   <li>{@code HEX_FLOAT32} - {@code {"values": "3dcccccd..."}}, 8 hex chars per cell</li>
+ *   <li>{@code HEX_BFLOAT16} - 4 hex chars per cell. Vespa reads the hex string with the cell
+ *   type of the tensor, so the schema field and query input must be {@code tensor<bfloat16>}</li>
+ * </ul>
+ */
+public enum TensorEncoding {
+  JSON,
+  HEX_FLOAT32,
+  HEX_BFLOAT16;
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /**
+   * @param value "json", "hex-float32" or "hex-bfloat16"
+   */
+  public static TensorEncoding fromString(String value) {
+    return valueOf(value.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+  }
+
+  /**
+   * Write a tensor field as {@code "fieldName": {"values": ...}}.
+   */
+  public void writeField(JsonGenerator generator, String fieldName, float[] vector)
+      throws IOException {
+    generator.writeObjectFieldStart(fieldName);
+    generator.writeFieldName("values");
+    if (this == JSON) {
+      generator.writeStartArray();
+      for (float value : vector) {
+        generator.writeNumber(value);
+      }
+      generator.writeEndArray();
+    } else {
+      char[] hex = toHex(vector);
+      generator.writeString(hex, 0, hex.length);
+    }
+    generator.writeEndObject();
+  }
+
+  /**
+   * @return the value of a query tensor input, a float[] (written as a JSON array) or a hex string
+   */
+  public Object queryValue(float[] vector) {
+    return this == JSON ? vector : new String(toHex(vector));
+  }
+
+  char[] toHex(float[] vector) {
+    int cellChars = this == HEX_BFLOAT16 ? 4 : 8;
+    char[] hex = new char[vector.length * cellChars];
+    int pos = 0;
+    for (float value : vector) {
+      int bits = this == HEX_BFLOAT16 ? toBFloat16(value) : Float.floatToIntBits(value);
+      for (int shift = (cellChars - 1) * 4; shift >= 0; shift -= 4) {
+        hex[pos++] = HEX_DIGITS[(bits >>> shift) & 0xf];
+      }
+    }
+    return hex;
+  }
+
+  /**
+   * Decode a hex string written with this encoding.
+   */
+  public float[] fromHex(CharSequence hex) {
+    if (this == JSON) {
+      throw new IllegalStateException("Not a hex encoding");
+    }
+    int cellChars = this == HEX_BFLOAT16 ? 4 : 8;
+    if (hex.length() % cellChars != 0) {
+      throw new IllegalArgumentException(
+          "Hex tensor length " + hex.length() + " is not a multiple of " + cellChars);
+    }
+    float[] vector = new float[hex.length() / cellChars];
+    int pos = 0;
+    for (int i = 0; i < vector.length; i++) {
+      int bits = 0;
+      for (int c = 0; c < cellChars; c++) {
+        bits = (bits << 4) | Character.digit(hex.charAt(pos++), 16);
+      }
+      vector[i] = this == HEX_BFLOAT16
+          ? Float.intBitsToFloat(bits << 16)
+          : Float.intBitsToFloat(bits);
+    }
+    return vector;
+  }
+
+  // Per thread scratch buffer for the values of the tensor being parsed
+  private static final ThreadLocal<float[]> readBuffer =
+      ThreadLocal.withInitial(() -> new float[4096]);
+
+  /**
+   * Read a dense tensor from a search response, the parser is positioned at the value. Handles
+   * the {@code {"type": ..., "values": ...}} form and plain values, where the values are either
+   * a JSON array or a hex string (as rendered with {@code format.tensors=hex}).
+   *
+   * @return the values in a new array of the exact size
+   */
+  public static float[] readValues(JsonParser parser) throws IOException {
+    JsonToken token = parser.currentToken();
+    if (token == JsonToken.START_ARRAY) {
+      return readArray(parser);
+    }
+    if (token == JsonToken.VALUE_STRING) {
+      return HEX_FLOAT32.fromHex(parser.getText());
+    }
+    if (token != JsonToken.START_OBJECT) {
+      throw new IOException("Unexpected tensor value " + token);
+    }
+    TensorEncoding hexEncoding = HEX_FLOAT32;
+    float[] values = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.currentName();
+      parser.nextToken();
+      if ("type".equals(name)) {
+        if (parser.getText().startsWith("tensor<bfloat16>")) {
+          hexEncoding = HEX_BFLOAT16;
+        }
+      } else if ("values".equals(name)) {
+        values = parser.currentToken() == JsonToken.VALUE_STRING
+            ? hexEncoding.fromHex(parser.getText())
+            : readArray(parser);
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (values == null) {
+      throw new IOException("Tensor without values");
+    }
+    return values;
+  }
+
+  private static float[] readArray(JsonParser parser) throws IOException {
+    float[] buffer = readBuffer.get();
+    int size = 0;
+    while (parser.nextToken() != JsonToken.END_ARRAY) {
+      if (size == buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        readBuffer.set(buffer);
+      }
+      buffer[size++] = parser.getFloatValue();
+    }
+    return Arrays.copyOf(buffer, size);
+  }
+
+  /**
+   * bfloat16 is the upper half of a float32, rounded to nearest even.
+   */
+  static int toBFloat16(float value) {
+    int bits = Float.floatToIntBits(value);
+    if (Float.isNaN(value)) {
+      return (bits >>> 16) | 0x40;
+    }
+    return (bits + 0x7fff + ((bits >>> 16) & 1)) >>> 16;
+  }
+}
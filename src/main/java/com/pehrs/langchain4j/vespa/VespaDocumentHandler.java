@@ -1,12 +1,11 @@
 package com.pehrs.langchain4j.vespa;
 
 import ai.vespa.feed.client.DocumentId;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingStore.VespaDoc;
-import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingStore.VespaInsertReq;
 import dev.langchain4j.data.embedding.Embedding;
 import dev.langchain4j.data.segment.TextSegment;
-import java.util.List;
+import java.io.IOException;
 import java.util.Map;
 
 /**
@@ -16,6 +15,12 @@ import java.util.Map;
  */
 public interface VespaDocumentHandler {
 
+  /**
+   * Called once after the handler has been created, before it is used.
+   */
+  default void configure(SimpleVespaEmbeddingConfig config) {
+  }
+
   String namespace();
 
   String docType();
@@ -27,9 +32,11 @@ public interface VespaDocumentHandler {
   }
 
   /**
-   * Create a Vespa doc from a embedding and textSegment
+   * Write the Vespa fields of an embedding and textSegment. The generator is positioned inside
+   * the {@code "fields"} object of the document.
    */
-  VespaInsertReq createVespaInsertReq(DocumentId docId, Embedding embedding, TextSegment textSegment);
+  void writeFields(JsonGenerator generator, DocumentId docId, Embedding embedding,
+      TextSegment textSegment) throws IOException;
 
   /**
    * Extract the l4j metadata from the response from Vespa (fields)
@@ -40,7 +47,12 @@ public interface VespaDocumentHandler {
 
   String getContent(JsonNode jsonFields);
 
-  List<Float> getEmbedding(JsonNode jsonFields);
+  /**
+   * @return name of the embedding field, its value is parsed into a float[] by the store
+   */
+  default String embeddingField() {
+    return "embedding";
+  }
 
-  YqlQueryRequest createYqlQueryRequest(List<Float> queryEmbedding, int maxResults, double minScore);
+  YqlQueryRequest createYqlQueryRequest(VespaSearchRequest request);
 }
@@ -0,0 +1,42 @@
+package com.pehrs.langchain4j.vespa;
+
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.filter.Filter;
+
+/**
+ * The search parameters passed to {@link VespaDocumentHandler#createYqlQueryRequest}.
+ *
+ * @param filter           metadata filter, applied by Vespa before the nearestNeighbor search
+ * @param includeEmbedding false to leave the embedding out of the hits, use
+ *                         {@link SimpleVespaEmbeddingStore#fetchEmbedding(String)} to get it later
+ * @param queryText        the text the query embedding was created from, null for a pure
+ *                         nearestNeighbor search. Used for the text match of hybrid retrieval.
+ */
+public record VespaSearchRequest(
+    float[] queryEmbedding,
+    int maxResults,
+    double minScore,
+    Filter filter,
+    boolean includeEmbedding,
+    String queryText) {
+
+  public VespaSearchRequest(float[] queryEmbedding, int maxResults, double minScore,
+      Filter filter, boolean includeEmbedding) {
+    this(queryEmbedding, maxResults, minScore, filter, includeEmbedding, null);
+  }
+
+  public static VespaSearchRequest from(EmbeddingSearchRequest request, boolean includeEmbedding) {
+    return from(request, null, includeEmbedding);
+  }
+
+  public static VespaSearchRequest from(EmbeddingSearchRequest request, String queryText,
+      boolean includeEmbedding) {
+    return new VespaSearchRequest(
+        request.queryEmbedding().vector(),
+        request.maxResults(),
+        request.minScore(),
+        request.filter(),
+        includeEmbedding,
+        queryText);
+  }
+}
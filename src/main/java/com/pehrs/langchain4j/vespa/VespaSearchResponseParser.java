@@ -0,0 +1,139 @@
+package com.pehrs.langchain4j.vespa;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming parser of Vespa search and document/v1 responses. The small summary fields of a hit
+ * are read into a JsonNode for the {@link VespaDocumentHandler}, the embedding is read straight
+ * into a float[] without building a tree or boxing the values.
+ */
+class VespaSearchResponseParser {
+
+  private final ObjectMapper objectMapper;
+  private final VespaDocumentHandler vespaDocumentHandler;
+
+  VespaSearchResponseParser(ObjectMapper objectMapper, VespaDocumentHandler vespaDocumentHandler) {
+    this.objectMapper = objectMapper;
+    this.vespaDocumentHandler = vespaDocumentHandler;
+  }
+
+  List<EmbeddingMatch<TextSegment>> parse(byte[] responseBody) throws IOException {
+    List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>();
+    try (JsonParser parser = objectMapper.getFactory().createParser(responseBody)) {
+      expect(parser.nextToken(), JsonToken.START_OBJECT);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.currentName();
+        parser.nextToken();
+        if ("root".equals(name)) {
+          parseRoot(parser, matches);
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+    return matches;
+  }
+
+  /**
+   * @return the embedding of a document/v1 GET response or null if it has none
+   */
+  float[] parseDocumentEmbedding(byte[] responseBody) throws IOException {
+    float[] embedding = null;
+    try (JsonParser parser = objectMapper.getFactory().createParser(responseBody)) {
+      expect(parser.nextToken(), JsonToken.START_OBJECT);
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.currentName();
+        parser.nextToken();
+        if ("fields".equals(name)) {
+          expect(parser.currentToken(), JsonToken.START_OBJECT);
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.currentName();
+            parser.nextToken();
+            if (vespaDocumentHandler.embeddingField().equals(fieldName)) {
+              embedding = TensorEncoding.readValues(parser);
+            } else {
+              parser.skipChildren();
+            }
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+    return embedding;
+  }
+
+  private void parseRoot(JsonParser parser, List<EmbeddingMatch<TextSegment>> matches)
+      throws IOException {
+    expect(parser.currentToken(), JsonToken.START_OBJECT);
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.currentName();
+      parser.nextToken();
+      if ("errors".equals(name)) {
+        JsonNode errors = objectMapper.readTree(parser);
+        throw new RuntimeException(objectMapper.writeValueAsString(errors));
+      } else if ("children".equals(name)) {
+        expect(parser.currentToken(), JsonToken.START_ARRAY);
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+          matches.add(parseHit(parser));
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private EmbeddingMatch<TextSegment> parseHit(JsonParser parser) throws IOException {
+    String docId = null;
+    double relevance = 0.0;
+    ObjectNode jsonFields = objectMapper.createObjectNode();
+    float[] embedding = null;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.currentName();
+      parser.nextToken();
+      switch (name) {
+        case "id" -> docId = parser.getText();
+        case "relevance" -> relevance = parser.getDoubleValue();
+        case "fields" -> {
+          expect(parser.currentToken(), JsonToken.START_OBJECT);
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.currentName();
+            parser.nextToken();
+            if (vespaDocumentHandler.embeddingField().equals(fieldName)) {
+              embedding = TensorEncoding.readValues(parser);
+            } else {
+              jsonFields.set(fieldName, objectMapper.readTree(parser));
+            }
+          }
+        }
+        default -> parser.skipChildren();
+      }
+    }
+
+    return new EmbeddingMatch<>(
+        relevance,
+        docId,
+        embedding == null ? null : Embedding.from(embedding),
+        TextSegment.from(vespaDocumentHandler.getContent(jsonFields),
+            new Metadata(vespaDocumentHandler.getMetadata(jsonFields)))
+    );
+  }
+
+  private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+    if (actual != expected) {
+      throw new IOException("Unexpected Vespa response, expected " + expected + " got " + actual);
+    }
+  }
+}
@@ -0,0 +1,170 @@
+package com.pehrs.langchain4j.vespa;
+
+import dev.langchain4j.store.embedding.filter.Filter;
+import dev.langchain4j.store.embedding.filter.comparison.IsEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsGreaterThan;
+import dev.langchain4j.store.embedding.filter.comparison.IsGreaterThanOrEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsIn;
+import dev.langchain4j.store.embedding.filter.comparison.IsLessThan;
+import dev.langchain4j.store.embedding.filter.comparison.IsLessThanOrEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsNotEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsNotIn;
+import dev.langchain4j.store.embedding.filter.logical.And;
+import dev.langchain4j.store.embedding.filter.logical.Not;
+import dev.langchain4j.store.embedding.filter.logical.Or;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Translates langchain4j metadata {@link Filter}s to YQL conditions, so Vespa applies them as a
+ * pre-filter of the nearestNeighbor search instead of the caller filtering the hits.
+ *
+ * <p>Each handler maps the metadata keys it supports to schema fields. Indexed text fields only
+ * support (not) equal, which becomes {@code contains}, numeric attributes support all
+ * comparisons.
+ */
+public class YqlFilterMapper {
+
+  public enum FieldType {
+    // String field with "indexing: index", matched on tokens
+    TEXT,
+    // String attribute, matched on the whole value
+    STRING_ATTRIBUTE,
+    // int/long/float/double attribute
+    NUMERIC
+  }
+
+  public record Field(String name, FieldType type) {
+
+  }
+
+  private final Map<String, Field> fields;
+
+  /**
+   * @param fields schema field per metadata key
+   */
+  public YqlFilterMapper(Map<String, Field> fields) {
+    this.fields = fields;
+  }
+
+  /**
+   * @return the YQL condition or null if there is no filter
+   * @throws IllegalArgumentException for filters that can not be expressed in YQL
+   */
+  public String map(Filter filter) {
+    if (filter == null) {
+      return null;
+    }
+    if (filter instanceof And and) {
+      return "(" + map(and.left()) + " and " + map(and.right()) + ")";
+    }
+    if (filter instanceof Or or) {
+      return "(" + map(or.left()) + " or " + map(or.right()) + ")";
+    }
+    if (filter instanceof Not not) {
+      return "!(" + map(not.expression()) + ")";
+    }
+    if (filter instanceof IsEqualTo f) {
+      return equalTo(field(f.key()), f.comparisonValue());
+    }
+    if (filter instanceof IsNotEqualTo f) {
+      return "!(" + equalTo(field(f.key()), f.comparisonValue()) + ")";
+    }
+    if (filter instanceof IsGreaterThan f) {
+      return compare(field(f.key()), ">", f.comparisonValue());
+    }
+    if (filter instanceof IsGreaterThanOrEqualTo f) {
+      return compare(field(f.key()), ">=", f.comparisonValue());
+    }
+    if (filter instanceof IsLessThan f) {
+      return compare(field(f.key()), "<", f.comparisonValue());
+    }
+    if (filter instanceof IsLessThanOrEqualTo f) {
+      return compare(field(f.key()), "<=", f.comparisonValue());
+    }
+    if (filter instanceof IsIn f) {
+      return in(field(f.key()), f.comparisonValues());
+    }
+    if (filter instanceof IsNotIn f) {
+      return "!(" + in(field(f.key()), f.comparisonValues()) + ")";
+    }
+    throw new IllegalArgumentException(
+        "Filter " + filter.getClass().getSimpleName() + " is not supported");
+  }
+
+  private Field field(String key) {
+    Field field = fields.get(key);
+    if (field == null) {
+      throw new IllegalArgumentException("Metadata key '" + key + "' can not be filtered on");
+    }
+    return field;
+  }
+
+  private static String equalTo(Field field, Object value) {
+    if (field.type() == FieldType.NUMERIC) {
+      return field.name() + " = " + number(field, value);
+    }
+    return field.name() + " contains " + quote(value.toString());
+  }
+
+  private static String compare(Field field, String operator, Object value) {
+    if (field.type() != FieldType.NUMERIC) {
+      throw new IllegalArgumentException(
+          "Field " + field.name() + " is not numeric, '" + operator + "' is not supported");
+    }
+    return field.name() + " " + operator + " " + number(field, value);
+  }
+
+  private static String in(Field field, Collection<?> comparisonValues) {
+    // The filter keeps the values in a set, sort them for a stable query
+    List<?> values = comparisonValues.stream()
+        .sorted(Comparator.comparing(Object::toString))
+        .toList();
+    if (field.type() == FieldType.TEXT) {
+      // The in operator needs an attribute, use one contains per value
+      return values.stream()
+          .map(value -> field.name() + " contains " + quote(value.toString()))
+          .collect(Collectors.joining(" or ", "(", ")"));
+    }
+    return values.stream()
+        .map(value -> field.type() == FieldType.NUMERIC
+            ? number(field, value)
+            : quote(value.toString()))
+        .collect(Collectors.joining(", ", field.name() + " in (", ")"));
+  }
+
+  private static String number(Field field, Object value) {
+    if (value instanceof Number) {
+      return value.toString();
+    }
+    // Metadata values like the ts of the news are stored as strings
+    String text = value.toString().trim();
+    try {
+      return text.contains(".") || text.contains("e") || text.contains("E")
+          ? String.valueOf(Double.parseDouble(text))
+          : String.valueOf(Long.parseLong(text));
+    } catch (NumberFormatException ex) {
+      throw new IllegalArgumentException(
+          "Field " + field.name() + " is numeric, '" + value + "' is not a number");
+    }
+  }
+
+  static String quote(String value) {
+    StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"' -> quoted.append("\\\"");
+        case '\\' -> quoted.append("\\\\");
+        case '\n' -> quoted.append("\\n");
+        case '\r' -> quoted.append("\\r");
+        case '\t' -> quoted.append("\\t");
+        default -> quoted.append(c);
+      }
+    }
+    return quoted.append('"').toString();
+  }
+}
@@ -1,12 +1,39 @@
 package com.pehrs.langchain4j.vespa;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.util.Map;
 
-public record YqlQueryRequest(String yql, Map<String, Object> input, String ranking) {
+/**
+ * @param hits    the number of hits to return, null for the Vespa default of 10
+ * @param summary the document summary to return, null for the default summary
+ * @param timeout the query timeout in Vespa, e.g. "500ms", null for the default timeout
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record YqlQueryRequest(
+    String yql,
+    Map<String, Object> input,
+    String ranking,
+    Integer hits,
+    @JsonProperty("presentation.summary") String summary,
+    String timeout) {
   static ObjectMapper mapper = new ObjectMapper();
 
+  public YqlQueryRequest(String yql, Map<String, Object> input, String ranking) {
+    this(yql, input, ranking, null, null, null);
+  }
+
+  public YqlQueryRequest(String yql, Map<String, Object> input, String ranking, int hits,
+      String summary) {
+    this(yql, input, ranking, hits, summary, null);
+  }
+
+  public YqlQueryRequest withTimeout(String timeout) {
+    return new YqlQueryRequest(yql, input, ranking, hits, summary, timeout);
+  }
+
   public String toJson() {
     try {
       return mapper.writeValueAsString(this);
@@ -0,0 +1,47 @@
+package com.pehrs.langchain4j;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Embeddings and stores shared by the tests of the federated and sharded stores.
+ */
+public class EmbeddingStoreFixtures {
+
+  /**
+   * Store whose searches never complete, unless a test completes {@link #search}.
+   */
+  public static class NeverAnsweringStore<Embedded> extends InMemoryEmbeddingStore<Embedded>
+      implements AsyncEmbeddingStore<Embedded> {
+
+    public final CompletableFuture<EmbeddingSearchResult<Embedded>> search =
+        new CompletableFuture<>();
+
+    @Override
+    public CompletableFuture<EmbeddingSearchResult<Embedded>> searchAsync(
+        EmbeddingSearchRequest request) {
+      return search;
+    }
+  }
+
+  /**
+   * @return embeddings with independent standard normal components
+   */
+  public static List<Embedding> randomEmbeddings(Random random, int count, int dimension) {
+    List<Embedding> embeddings = new ArrayList<>();
+    for (int e = 0; e < count; e++) {
+      float[] vector = new float[dimension];
+      for (int i = 0; i < dimension; i++) {
+        vector[i] = (float) random.nextGaussian();
+      }
+      embeddings.add(Embedding.from(vector));
+    }
+    return embeddings;
+  }
+}
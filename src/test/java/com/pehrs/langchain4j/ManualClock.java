@@ -0,0 +1,21 @@
+package com.pehrs.langchain4j;
+
+import com.codahale.metrics.Clock;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Clock that only moves when a test advances it.
+ */
+public class ManualClock extends Clock {
+
+  private long tick = 0;
+
+  @Override
+  public long getTick() {
+    return tick;
+  }
+
+  public void advance(long duration, TimeUnit unit) {
+    tick += unit.toNanos(duration);
+  }
+}
@@ -0,0 +1,102 @@
+package com.pehrs.langchain4j.cache;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.codahale.metrics.MetricRegistry;
+import com.pehrs.langchain4j.ManualClock;
+import com.pehrs.langchain4j.ingest.UpdateMarker;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CachingEmbeddingStoreTest {
+
+  @TempDir
+  Path tempDir;
+
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+
+  private final ManualClock clock = new ManualClock();
+
+  private final CachingEmbeddingStore<TextSegment> store = new CachingEmbeddingStore<>(
+      metricRegistry, clock, new InMemoryEmbeddingStore<>(), 2, Duration.ofMinutes(5), 1024,
+      null);
+
+  private static EmbeddingSearchRequest request(float... vector) {
+    return EmbeddingSearchRequest.builder()
+        .queryEmbedding(Embedding.from(vector))
+        .maxResults(3)
+        .minScore(0.0)
+        .build();
+  }
+
+  @Test
+  public void givenNearIdenticalQuery_whenSearch_thenHit() {
+    store.add(Embedding.from(new float[]{1.0f, 0.0f}), TextSegment.from("one"));
+
+    EmbeddingSearchResult<TextSegment> first = store.search(request(1.0f, 0.0f));
+    EmbeddingSearchResult<TextSegment> second = store.search(request(2.0f, 0.0001f));
+
+    assertSame(first, second);
+    assertEquals(1, metricRegistry.meter(CachingEmbeddingStore.RETRIEVAL_CACHE_HIT).getCount());
+    assertEquals(1, metricRegistry.meter(CachingEmbeddingStore.RETRIEVAL_CACHE_MISS).getCount());
+  }
+
+  @Test
+  public void givenWrite_whenSearch_thenMissAndNewResult() {
+    store.add(Embedding.from(new float[]{1.0f, 0.0f}), TextSegment.from("one"));
+    assertEquals(1, store.search(request(1.0f, 0.0f)).matches().size());
+
+    store.add(Embedding.from(new float[]{0.9f, 0.1f}), TextSegment.from("two"));
+
+    assertEquals(0, store.size());
+    assertEquals(2, store.search(request(1.0f, 0.0f)).matches().size());
+    assertEquals(0, metricRegistry.meter(CachingEmbeddingStore.RETRIEVAL_CACHE_HIT).getCount());
+  }
+
+  @Test
+  public void givenExpiredOrEvictedEntries_whenSearch_thenMiss() {
+    store.add(Embedding.from(new float[]{1.0f, 0.0f}), TextSegment.from("one"));
+    store.search(request(1.0f, 0.0f));
+
+    clock.advance(6, TimeUnit.MINUTES);
+    store.search(request(1.0f, 0.0f));
+    assertEquals(0, metricRegistry.meter(CachingEmbeddingStore.RETRIEVAL_CACHE_HIT).getCount());
+
+    store.search(request(0.0f, 1.0f));
+    store.search(request(1.0f, 1.0f));
+    assertEquals(2, store.size());
+    assertEquals(1, metricRegistry.meter(CachingEmbeddingStore.RETRIEVAL_CACHE_EVICT).getCount());
+  }
+
+  @Test
+  public void givenWriteByOtherProcess_whenSearch_thenMissAndNewResult() throws Exception {
+    Path markerFile = tempDir.resolve("embeddings.updated");
+    UpdateMarker marker = new UpdateMarker(markerFile);
+    marker.touch();
+    InMemoryEmbeddingStore<TextSegment> shared = new InMemoryEmbeddingStore<>();
+    CachingEmbeddingStore<TextSegment> cached = new CachingEmbeddingStore<>(
+        metricRegistry, clock, shared, 2, Duration.ofMinutes(5), 1024, marker);
+    shared.add(Embedding.from(new float[]{1.0f, 0.0f}), TextSegment.from("one"));
+    assertEquals(1, cached.search(request(1.0f, 0.0f)).matches().size());
+
+    // The ingestion writes to the store directly and touches the marker
+    shared.add(Embedding.from(new float[]{0.9f, 0.1f}), TextSegment.from("two"));
+    Files.setLastModifiedTime(markerFile,
+        FileTime.fromMillis(Files.getLastModifiedTime(markerFile).toMillis() + 1000));
+    clock.advance(2, TimeUnit.SECONDS);
+
+    assertEquals(2, cached.search(request(1.0f, 0.0f)).matches().size());
+    assertEquals(0, metricRegistry.meter(CachingEmbeddingStore.RETRIEVAL_CACHE_HIT).getCount());
+  }
+}
@@ -0,0 +1,96 @@
+package com.pehrs.langchain4j.cache;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.codahale.metrics.MetricRegistry;
+import com.pehrs.langchain4j.cache.EmbeddingCache.Precision;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EmbeddingCacheTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void givenCachedVector_whenReopened_thenHit() throws IOException {
+    MetricRegistry metricRegistry = new MetricRegistry();
+    float[] vector = {0.1f, -0.2f, 0.3f, 0.4f};
+
+    try (EmbeddingCache cache = new EmbeddingCache(metricRegistry, tempDir, "gemma:7b",
+        Precision.FLOAT32, 10)) {
+      assertNull(cache.get("hello"));
+      cache.put("hello", vector);
+    }
+
+    try (EmbeddingCache cache = new EmbeddingCache(metricRegistry, tempDir, "gemma:7b",
+        Precision.FLOAT32, 10)) {
+      assertArrayEquals(vector, cache.get("hello"));
+      assertNull(cache.get("world"));
+    }
+    assertEquals(1, metricRegistry.meter(EmbeddingCache.EMBEDDINGS_CACHE_HIT).getCount());
+    assertEquals(2, metricRegistry.meter(EmbeddingCache.EMBEDDINGS_CACHE_MISS).getCount());
+  }
+
+  @Test
+  public void givenFullCache_whenPut_thenEvictLeastRecentlyUsed() throws IOException {
+    MetricRegistry metricRegistry = new MetricRegistry();
+    try (EmbeddingCache cache = new EmbeddingCache(metricRegistry, tempDir, "gemma:7b",
+        Precision.FLOAT16, 2)) {
+      cache.put("a", new float[]{1f, 2f});
+      cache.put("b", new float[]{3f, 4f});
+      // Touch "a" so "b" becomes the least recently used
+      assertNotNull(cache.get("a"));
+      cache.put("c", new float[]{5f, 6f});
+
+      assertEquals(2, cache.size());
+      assertNull(cache.get("b"));
+      assertArrayEquals(new float[]{1f, 2f}, cache.get("a"));
+      assertArrayEquals(new float[]{5f, 6f}, cache.get("c"));
+    }
+    assertEquals(1, metricRegistry.meter(EmbeddingCache.EMBEDDINGS_CACHE_EVICT).getCount());
+  }
+
+  @Test
+  public void givenOtherModel_whenGet_thenMiss() throws IOException {
+    MetricRegistry metricRegistry = new MetricRegistry();
+    try (EmbeddingCache cache = new EmbeddingCache(metricRegistry, tempDir, "gemma:7b",
+        Precision.FLOAT32, 10)) {
+      cache.put("hello", new float[]{1f});
+    }
+    try (EmbeddingCache cache = new EmbeddingCache(metricRegistry, tempDir, "mistral:7b",
+        Precision.FLOAT32, 10)) {
+      assertNull(cache.get("hello"));
+    }
+  }
+
+  @Test
+  public void givenVectorNotOnDisk_whenReopened_thenEntryIsDropped() throws IOException {
+    MetricRegistry metricRegistry = new MetricRegistry();
+    try (EmbeddingCache cache = new EmbeddingCache(metricRegistry, tempDir, "gemma:7b",
+        Precision.FLOAT32, 10)) {
+      cache.put("hello", new float[]{1f, 2f});
+      cache.put("world", new float[]{3f, 4f});
+    }
+    // What a crash leaves when the index line was written but not the vector of slot 0
+    try (FileChannel vectors = FileChannel.open(tempDir.resolve("gemma_7b").resolve("vectors.bin"),
+        StandardOpenOption.WRITE)) {
+      vectors.write(ByteBuffer.allocate(8), 0);
+    }
+
+    try (EmbeddingCache cache = new EmbeddingCache(metricRegistry, tempDir, "gemma:7b",
+        Precision.FLOAT32, 10)) {
+      assertEquals(1, cache.size());
+      assertNull(cache.get("hello"));
+      assertArrayEquals(new float[]{3f, 4f}, cache.get("world"));
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package com.pehrs.langchain4j.federated;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.codahale.metrics.MetricRegistry;
+import com.pehrs.langchain4j.EmbeddingStoreFixtures.NeverAnsweringStore;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class FederatedEmbeddingStoreTest {
+
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+
+  /**
+   * Like the Vespa store, returns the hits below the minScore of the search as well.
+   */
+  static class NoMinScoreStore extends InMemoryEmbeddingStore<TextSegment> {
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+      return super.search(EmbeddingSearchRequest.builder()
+          .queryEmbedding(request.queryEmbedding())
+          .maxResults(request.maxResults())
+          .minScore(0.0)
+          .build());
+    }
+  }
+
+  private static InMemoryEmbeddingStore<TextSegment> store(String text1, float[] vector1,
+      String text2, float[] vector2) {
+    return store(new InMemoryEmbeddingStore<>(), text1, vector1, text2, vector2);
+  }
+
+  private static <S extends InMemoryEmbeddingStore<TextSegment>> S store(S store,
+      String text1, float[] vector1, String text2, float[] vector2) {
+    store.add(Embedding.from(vector1), TextSegment.from(text1));
+    store.add(Embedding.from(vector2), TextSegment.from(text2));
+    return store;
+  }
+
+  private static EmbeddingSearchRequest request(int maxResults) {
+    return request(maxResults, 0.0);
+  }
+
+  private static EmbeddingSearchRequest request(int maxResults, double minScore) {
+    return EmbeddingSearchRequest.builder()
+        .queryEmbedding(Embedding.from(new float[]{1.0f, 0.0f}))
+        .maxResults(maxResults)
+        .minScore(minScore)
+        .build();
+  }
+
+  private static List<String> texts(EmbeddingSearchResult<TextSegment> result) {
+    return result.matches().stream()
+        .map(EmbeddingMatch::embedded)
+        .map(TextSegment::text)
+        .toList();
+  }
+
+  @Test
+  public void givenTwoStores_whenSearch_thenFusedByRank() {
+    FederatedEmbeddingStore<TextSegment> federated = new FederatedEmbeddingStore<>(
+        metricRegistry,
+        List.of(
+            store("a1", new float[]{1.0f, 0.0f}, "a2", new float[]{0.0f, 1.0f}),
+            // Lower scores than the first store, but b1 is the best hit of its store
+            store("b1", new float[]{0.6f, 0.8f}, "b2", new float[]{-1.0f, 0.0f})),
+        Duration.ofSeconds(5));
+
+    EmbeddingSearchResult<TextSegment> result = federated.search(request(4));
+    List<String> texts = texts(result);
+
+    assertEquals(4, texts.size());
+    assertEquals(Set.of("a1", "b1"), Set.copyOf(texts.subList(0, 2)));
+    assertEquals(Set.of("a2", "b2"), Set.copyOf(texts.subList(2, 4)));
+    assertEquals(1.0 / (FederatedEmbeddingStore.RRF_K + 1), result.matches().get(0).score(),
+        1e-9);
+    assertEquals(1.0 / (FederatedEmbeddingStore.RRF_K + 2), result.matches().get(3).score(),
+        1e-9);
+  }
+
+  @Test
+  public void givenStoreWithoutMinScore_whenSearch_thenHitsBelowMinScoreAreDropped() {
+    FederatedEmbeddingStore<TextSegment> federated = new FederatedEmbeddingStore<>(
+        metricRegistry,
+        List.of(
+            store(new NoMinScoreStore(), "a1", new float[]{1.0f, 0.0f},
+                "a2", new float[]{0.0f, 1.0f}),
+            store(new NoMinScoreStore(), "b1", new float[]{0.6f, 0.8f},
+                "b2", new float[]{-1.0f, 0.0f})),
+        Duration.ofSeconds(5));
+
+    // Scores a1 1.0, b1 0.8, a2 0.5 and b2 0.0
+    List<String> texts = texts(federated.search(request(4, 0.6)));
+
+    assertEquals(Set.of("a1", "b1"), Set.copyOf(texts));
+  }
+
+  @Test
+  public void givenStoreThatDoesNotAnswer_whenSearch_thenResultOfTheOthersAfterTimeout() {
+    NeverAnsweringStore<TextSegment> never = new NeverAnsweringStore<>();
+    FederatedEmbeddingStore<TextSegment> federated = new FederatedEmbeddingStore<>(
+        metricRegistry,
+        List.of(
+            store("a1", new float[]{1.0f, 0.0f}, "a2", new float[]{0.0f, 1.0f}),
+            never),
+        Duration.ofMillis(100));
+
+    assertEquals(List.of("a1", "a2"), texts(federated.search(request(3))));
+    assertTrue(never.search.isCancelled());
+    assertEquals(1,
+        metricRegistry.meter(FederatedEmbeddingStore.FEDERATED_SOURCE_TIMEOUT).getCount());
+  }
+}
@@ -0,0 +1,76 @@
+package com.pehrs.langchain4j.ingest;
+
+import static com.pehrs.langchain4j.RagSampleCreateEmbeddings.VECTOR_GEN_BATCH_MS;
+import static com.pehrs.langchain4j.RagSampleCreateEmbeddings.VECTOR_GEN_MS;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.model.embedding.EmbeddingModel;
+import dev.langchain4j.model.output.Response;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class EmbeddingStageTest {
+
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+
+  /**
+   * Embeds a segment as its text length, or leaves the last segment out when dropping.
+   */
+  private static class StubEmbeddingModel implements EmbeddingModel {
+
+    private final List<List<TextSegment>> batches = new ArrayList<>();
+    private final boolean dropLast;
+
+    StubEmbeddingModel(boolean dropLast) {
+      this.dropLast = dropLast;
+    }
+
+    @Override
+    public Response<List<Embedding>> embedAll(List<TextSegment> segments) {
+      batches.add(segments);
+      List<Embedding> embeddings = new ArrayList<>();
+      int count = dropLast ? segments.size() - 1 : segments.size();
+      for (int i = 0; i < count; i++) {
+        embeddings.add(Embedding.from(new float[]{segments.get(i).text().length()}));
+      }
+      return Response.from(embeddings);
+    }
+  }
+
+  private static List<TextSegment> segments(String... texts) {
+    return List.of(texts).stream().map(TextSegment::from).toList();
+  }
+
+  @Test
+  public void givenBatch_whenEmbed_thenOneModelCallAndHistogramsPerSegmentAndBatch() {
+    StubEmbeddingModel model = new StubEmbeddingModel(false);
+    EmbeddingStage stage = new EmbeddingStage(metricRegistry, model);
+
+    List<Embedding> embeddings = stage.embed(segments("a", "bb", "ccc"));
+    assertEquals(List.of(), stage.embed(List.of()));
+
+    assertEquals(List.of(segments("a", "bb", "ccc")), model.batches);
+    assertEquals(3, embeddings.size());
+    assertEquals(2.0f, embeddings.get(1).vector()[0]);
+    Histogram perSegment = metricRegistry.histogram(VECTOR_GEN_MS);
+    Histogram batch = metricRegistry.histogram(VECTOR_GEN_BATCH_MS);
+    assertEquals(3, perSegment.getCount());
+    assertEquals(1, batch.getCount());
+    assertEquals(batch.getSnapshot().getMax() / 3, perSegment.getSnapshot().getMax());
+  }
+
+  @Test
+  public void givenModelReturningTooFewEmbeddings_whenEmbed_thenThrow() {
+    EmbeddingStage stage = new EmbeddingStage(metricRegistry, new StubEmbeddingModel(true));
+
+    IllegalStateException ex = assertThrows(IllegalStateException.class,
+        () -> stage.embed(segments("a", "bb")));
+    assertEquals("Embedding model returned 1 embeddings for 2 segments", ex.getMessage());
+  }
+}
@@ -0,0 +1,66 @@
+package com.pehrs.langchain4j.ingest;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.pehrs.langchain4j.RagSample;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.segment.TextSegment;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IngestJournalTest {
+
+  @TempDir
+  Path tempDir;
+
+  private static TextSegment segment(String srcId, int index) {
+    return TextSegment.from("text " + index, Metadata.from(Map.of(
+        RagSample.METADATA_SRC_ID, srcId,
+        RagSample.METADATA_SEGMENT_INDEX, String.valueOf(index))));
+  }
+
+  @Test
+  public void givenPartiallyFedSource_whenReopened_thenResumeAfterAcknowledgedSegments()
+      throws IOException {
+    Path file = tempDir.resolve("ingest.journal");
+
+    try (IngestJournal journal = new IngestJournal(file)) {
+      journal.expectSegments("book-1", 2);
+      journal.expectSegments("book-2", 3);
+      journal.acknowledge(List.of(segment("book-1", 0), segment("book-1", 1),
+          segment("book-2", 0)));
+      assertTrue(journal.isCompleted("book-1"));
+      assertFalse(journal.isCompleted("book-2"));
+    }
+
+    try (IngestJournal journal = new IngestJournal(file)) {
+      assertTrue(journal.isCompleted("book-1"));
+      assertFalse(journal.isCompleted("book-2"));
+      assertTrue(journal.isAcknowledged(segment("book-2", 0)));
+      assertFalse(journal.isAcknowledged(segment("book-2", 1)));
+
+      journal.expectSegments("book-2", 3);
+      journal.acknowledge(List.of(segment("book-2", 1), segment("book-2", 2)));
+      assertTrue(journal.isCompleted("book-2"));
+    }
+  }
+
+  @Test
+  public void givenSourceWithoutSegments_whenReopened_thenCompleted() throws IOException {
+    Path file = tempDir.resolve("ingest.journal");
+
+    try (IngestJournal journal = new IngestJournal(file)) {
+      journal.expectSegments("empty-article", 0);
+      assertTrue(journal.isCompleted("empty-article"));
+    }
+
+    try (IngestJournal journal = new IngestJournal(file)) {
+      assertTrue(journal.isCompleted("empty-article"));
+    }
+  }
+}
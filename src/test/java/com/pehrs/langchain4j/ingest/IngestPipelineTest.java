@@ -0,0 +1,54 @@
+package com.pehrs.langchain4j.ingest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.codahale.metrics.MetricRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+class IngestPipelineTest {
+
+  @Test
+  public void givenSourceOf100Ints_whenRun_thenAllItemsReachTheLastStage()
+      throws InterruptedException {
+    MetricRegistry metricRegistry = new MetricRegistry();
+    List<Integer> result = Collections.synchronizedList(new ArrayList<>());
+
+    IngestPipeline.source(metricRegistry, 4, "read",
+            IntStream.range(0, 100).boxed().iterator())
+        .stage("double", 3, (Integer i, Consumer<Integer> emit) -> emit.accept(i * 2))
+        .stage("batch", 1, new IngestPipeline.Batcher<Integer>(8))
+        .stage("sink", 2, (List<Integer> batch, Consumer<Void> emit) -> result.addAll(batch))
+        .run();
+
+    assertEquals(100, result.size());
+    assertEquals(IntStream.range(0, 100).map(i -> i * 2).sum(),
+        result.stream().mapToInt(Integer::intValue).sum());
+    assertTrue(metricRegistry.getGauges().containsKey("pipeline.batch.queue"));
+    assertTrue(metricRegistry.getGauges().containsKey("pipeline.sink.busy.ms"));
+  }
+
+  @Test
+  public void givenFailingStage_whenRun_thenThrow() {
+    MetricRegistry metricRegistry = new MetricRegistry();
+
+    assertThrows(IllegalStateException.class, () ->
+        IngestPipeline.source(metricRegistry, 2, "read",
+                IntStream.range(0, 1000).boxed().iterator())
+            .stage("fail", 2, (Integer i, Consumer<Integer> emit) -> {
+              if (i == 10) {
+                throw new IllegalStateException("boom");
+              }
+              emit.accept(i);
+            })
+            .stage("sink", 1, (Integer i, Consumer<Void> emit) -> {
+            })
+            .run());
+  }
+}
@@ -0,0 +1,55 @@
+package com.pehrs.langchain4j.ingest;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.pehrs.langchain4j.ManualClock;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class UpdateMarkerTest {
+
+  @TempDir
+  Path tempDir;
+
+  private final ManualClock clock = new ManualClock();
+
+  private static void touchLater(Path file) throws IOException {
+    Files.setLastModifiedTime(file,
+        FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+  }
+
+  @Test
+  public void givenTouchedMarker_whenCheckedWithinASecond_thenChangeReportedAfterIt()
+      throws IOException {
+    Path file = tempDir.resolve("embeddings.updated");
+    UpdateMarker marker = new UpdateMarker(file);
+    marker.touch();
+    UpdateMarker.Watch watch = marker.watch(clock);
+
+    touchLater(file);
+    clock.advance(500, TimeUnit.MILLISECONDS);
+    assertFalse(watch.changed(false));
+
+    clock.advance(500, TimeUnit.MILLISECONDS);
+    assertTrue(watch.changed(false));
+    clock.advance(1, TimeUnit.SECONDS);
+    assertFalse(watch.changed(false));
+  }
+
+  @Test
+  public void givenTouchedMarker_whenForced_thenChangeReportedAtOnce() throws IOException {
+    Path file = tempDir.resolve("embeddings.updated");
+    UpdateMarker marker = new UpdateMarker(file);
+    UpdateMarker.Watch watch = marker.watch(clock);
+
+    marker.touch();
+    assertTrue(watch.changed(true));
+    assertFalse(watch.changed(true));
+  }
+}
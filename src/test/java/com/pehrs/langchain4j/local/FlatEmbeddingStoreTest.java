@@ -0,0 +1,128 @@
+package com.pehrs.langchain4j.local;
+
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.pehrs.langchain4j.RagSample;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FlatEmbeddingStoreTest {
+
+  @TempDir
+  Path tempDir;
+
+  private static TextSegment segment(String text, String srcId) {
+    return TextSegment.from(text, Metadata.from(Map.of(
+        RagSample.METADATA_SRC_ID, srcId,
+        RagSample.METADATA_SEGMENT_INDEX, 7)));
+  }
+
+  private static EmbeddingSearchRequest query(float[] vector, int maxResults) {
+    return EmbeddingSearchRequest.builder()
+        .queryEmbedding(Embedding.from(vector))
+        .maxResults(maxResults)
+        .build();
+  }
+
+  @Test
+  public void givenEmbeddings_whenSearch_thenNearestSegmentsFirst() throws IOException {
+    try (FlatEmbeddingStore store = new FlatEmbeddingStore(tempDir, 1)) {
+      store.addAll(
+          List.of(Embedding.from(new float[]{1.0f, 0.0f}), Embedding.from(new float[]{0.0f, 2.0f}),
+              Embedding.from(new float[]{3.0f, 3.0f})),
+          List.of(segment("x", "a"), segment("y", "b"), segment("xy", "c")));
+
+      List<EmbeddingMatch<TextSegment>> matches =
+          store.search(query(new float[]{0.0f, 1.0f}, 2)).matches();
+
+      assertEquals(2, matches.size());
+      assertEquals("y", matches.get(0).embedded().text());
+      assertEquals(1.0, matches.get(0).score(), 0.0001);
+      assertEquals("xy", matches.get(1).embedded().text());
+      assertEquals("b", matches.get(0).embedded().metadata().getString(RagSample.METADATA_SRC_ID));
+      assertEquals(7, matches.get(0).embedded().metadata()
+          .getInteger(RagSample.METADATA_SEGMENT_INDEX));
+    }
+  }
+
+  @Test
+  public void givenFilter_whenSearch_thenOnlyMatchingSegments() throws IOException {
+    try (FlatEmbeddingStore store = new FlatEmbeddingStore(tempDir, 1)) {
+      store.addAll(
+          List.of(Embedding.from(new float[]{1.0f, 0.0f}), Embedding.from(new float[]{0.0f, 1.0f})),
+          List.of(segment("x", "a"), segment("y", "b")));
+
+      List<EmbeddingMatch<TextSegment>> matches = store.search(EmbeddingSearchRequest.builder()
+          .queryEmbedding(Embedding.from(new float[]{1.0f, 0.0f}))
+          .maxResults(5)
+          .filter(metadataKey(RagSample.METADATA_SRC_ID).isEqualTo("b"))
+          .build()).matches();
+
+      assertEquals(1, matches.size());
+      assertEquals("y", matches.get(0).embedded().text());
+    }
+  }
+
+  @Test
+  public void givenClosedStore_whenReopened_thenEmbeddingsAreFound() throws IOException {
+    String id;
+    try (FlatEmbeddingStore store = new FlatEmbeddingStore(tempDir, 1)) {
+      id = store.add(Embedding.from(new float[]{0.6f, 0.8f}), segment("kept", "a"));
+      store.add(Embedding.from(new float[]{-1.0f, 0.0f}));
+    }
+
+    try (FlatEmbeddingStore store = new FlatEmbeddingStore(tempDir, 1)) {
+      assertEquals(2, store.size());
+      List<EmbeddingMatch<TextSegment>> matches =
+          store.search(query(new float[]{0.6f, 0.8f}, 2)).matches();
+      assertEquals(id, matches.get(0).embeddingId());
+      assertEquals("kept", matches.get(0).embedded().text());
+      assertNull(matches.get(1).embedded());
+    }
+  }
+
+  @Test
+  public void givenLargeStore_whenParallelSearch_thenSameAsSingleThread() throws IOException {
+    Random random = new Random(1);
+    List<Embedding> embeddings = new ArrayList<>();
+    for (int i = 0; i < 40_000; i++) {
+      embeddings.add(Embedding.from(randomVector(random)));
+    }
+    float[] query = randomVector(random);
+
+    List<String> sequential;
+    try (FlatEmbeddingStore store = new FlatEmbeddingStore(tempDir, 1)) {
+      store.addAll(embeddings);
+      sequential = store.search(query(query, 10)).matches().stream()
+          .map(EmbeddingMatch::embeddingId)
+          .toList();
+    }
+    try (FlatEmbeddingStore store = new FlatEmbeddingStore(tempDir, 4)) {
+      List<String> parallel = store.search(query(query, 10)).matches().stream()
+          .map(EmbeddingMatch::embeddingId)
+          .toList();
+      assertEquals(sequential, parallel);
+    }
+  }
+
+  private static float[] randomVector(Random random) {
+    float[] vector = new float[16];
+    for (int i = 0; i < vector.length; i++) {
+      vector[i] = (float) random.nextGaussian();
+    }
+    return vector;
+  }
+}
@@ -0,0 +1,168 @@
+package com.pehrs.langchain4j.local;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HnswEmbeddingStoreTest {
+
+  private static final int DIMENSION = 16;
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void givenConcurrentInserts_whenSearch_thenRecallIsCloseToExact() throws Exception {
+    List<Embedding> embeddings = randomEmbeddings(new Random(1), 2000);
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < embeddings.size(); i++) {
+      ids.add("id-" + i);
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try (HnswEmbeddingStore hnsw = new HnswEmbeddingStore(tempDir.resolve("hnsw"), 8, 100, 50);
+        FlatEmbeddingStore flat = new FlatEmbeddingStore(tempDir.resolve("flat"), 1)) {
+      List<CompletableFuture<Void>> batches = new ArrayList<>();
+      for (int start = 0; start < embeddings.size(); start += 100) {
+        int from = start;
+        batches.add(CompletableFuture.runAsync(() -> hnsw.addAll(ids.subList(from, from + 100),
+            embeddings.subList(from, from + 100), null), executor));
+      }
+      batches.forEach(CompletableFuture::join);
+      flat.addAll(ids, embeddings, null);
+
+      assertEquals(2000, hnsw.size());
+      double recall = recall(hnsw, flat, new Random(2));
+      assertTrue(recall > 0.9, "recall " + recall);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void givenClosedStore_whenReopened_thenGraphIsLoaded() throws IOException {
+    List<Embedding> embeddings = randomEmbeddings(new Random(3), 500);
+    List<String> before;
+    try (HnswEmbeddingStore store = new HnswEmbeddingStore(tempDir, 8, 100, 50)) {
+      store.addAll(embeddings);
+      before = ids(store, embeddings.get(42));
+    }
+    assertTrue(Files.exists(tempDir.resolve(HnswEmbeddingStore.GRAPH_FILE)));
+
+    try (HnswEmbeddingStore store = new HnswEmbeddingStore(tempDir, 8, 100, 50)) {
+      assertEquals(500, store.size());
+      assertEquals(before, ids(store, embeddings.get(42)));
+    }
+  }
+
+  @Test
+  public void givenLostGraphFile_whenReopened_thenEmbeddingsAreLinkedAgain() throws IOException {
+    List<Embedding> embeddings = randomEmbeddings(new Random(4), 500);
+    List<String> ids;
+    try (HnswEmbeddingStore store = new HnswEmbeddingStore(tempDir, 8, 100, 50)) {
+      ids = store.addAll(embeddings);
+    }
+    Files.delete(tempDir.resolve(HnswEmbeddingStore.GRAPH_FILE));
+
+    try (HnswEmbeddingStore store = new HnswEmbeddingStore(tempDir, 8, 100, 50)) {
+      for (int i = 0; i < 50; i++) {
+        assertEquals(ids.get(i), ids(store, embeddings.get(i)).get(0));
+      }
+    }
+  }
+
+  @Test
+  public void givenSnapshot_whenCrashImageOpened_thenGraphIsLoaded() throws IOException {
+    List<Embedding> embeddings = randomEmbeddings(new Random(5), 500);
+    Path dir = tempDir.resolve("store");
+    Path crashed = tempDir.resolve("crashed");
+    List<String> before;
+    HnswEmbeddingStore store = new HnswEmbeddingStore(dir, 8, 100, 50);
+    try {
+      store.addAll(embeddings);
+      store.snapshot();
+      before = ids(store, embeddings.get(42));
+      copy(dir, crashed);
+    } finally {
+      store.close();
+    }
+
+    assertEquals(500, linkedNodes(crashed));
+    try (HnswEmbeddingStore recovered = new HnswEmbeddingStore(crashed, 8, 100, 50)) {
+      assertEquals(before, ids(recovered, embeddings.get(42)));
+    }
+  }
+
+  /**
+   * @return the number of nodes in the saved graph, the nodes that are not linked again
+   */
+  private static int linkedNodes(Path dir) throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        Files.newInputStream(dir.resolve(HnswEmbeddingStore.GRAPH_FILE)))) {
+      in.readInt();
+      return in.readInt();
+    }
+  }
+
+  private static void copy(Path from, Path to) throws IOException {
+    Files.createDirectories(to);
+    try (Stream<Path> files = Files.list(from)) {
+      for (Path file : files.toList()) {
+        Files.copy(file, to.resolve(file.getFileName()));
+      }
+    }
+  }
+
+  private static List<String> ids(EmbeddingStore<TextSegment> store, Embedding query) {
+    return store.search(EmbeddingSearchRequest.builder()
+            .queryEmbedding(query)
+            .maxResults(10)
+            .build()).matches().stream()
+        .map(EmbeddingMatch::embeddingId)
+        .toList();
+  }
+
+  private static double recall(EmbeddingStore<TextSegment> approximate,
+      EmbeddingStore<TextSegment> exact, Random random) {
+    int found = 0;
+    int expected = 0;
+    for (Embedding query : randomEmbeddings(random, 50)) {
+      Set<String> exactIds = new HashSet<>(ids(exact, query));
+      found += (int) ids(approximate, query).stream().filter(exactIds::contains).count();
+      expected += exactIds.size();
+    }
+    return (double) found / expected;
+  }
+
+  private static List<Embedding> randomEmbeddings(Random random, int count) {
+    List<Embedding> embeddings = new ArrayList<>();
+    for (int e = 0; e < count; e++) {
+      float[] vector = new float[DIMENSION];
+      for (int i = 0; i < DIMENSION; i++) {
+        vector[i] = (float) random.nextGaussian();
+      }
+      embeddings.add(Embedding.from(vector));
+    }
+    return embeddings;
+  }
+}
@@ -0,0 +1,130 @@
+package com.pehrs.langchain4j.local;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class IvfPqEmbeddingStoreTest {
+
+  private static final int DIMENSION = 32;
+
+  @TempDir
+  Path tempDir;
+
+  private IvfPqEmbeddingStore createStore(Path dir, int trainingSize) throws IOException {
+    return new IvfPqEmbeddingStore(dir, trainingSize, 16, 4, 8, 10, 10);
+  }
+
+  @Test
+  public void givenUntrainedStore_whenSearch_thenResultsAreExact() throws IOException {
+    List<Embedding> embeddings = randomEmbeddings(new Random(1), 500);
+    try (IvfPqEmbeddingStore ivfPq = createStore(tempDir.resolve("ivfpq"), 1000);
+        FlatEmbeddingStore flat = new FlatEmbeddingStore(tempDir.resolve("flat"), 1)) {
+      List<String> ids = ivfPq.addAll(embeddings);
+      flat.addAll(ids, embeddings, null);
+
+      assertFalse(Files.exists(tempDir.resolve("ivfpq").resolve(
+          IvfPqEmbeddingStore.QUANTIZER_FILE)));
+      for (Embedding query : randomEmbeddings(new Random(2), 10)) {
+        assertEquals(ids(flat, query), ids(ivfPq, query));
+      }
+    }
+  }
+
+  @Test
+  public void givenTrainedStore_whenSearch_thenRecallIsCloseToExact() throws IOException {
+    List<Embedding> embeddings = clusteredEmbeddings(new Random(3), 5000);
+    try (IvfPqEmbeddingStore ivfPq = createStore(tempDir.resolve("ivfpq"), 2000);
+        FlatEmbeddingStore flat = new FlatEmbeddingStore(tempDir.resolve("flat"), 1)) {
+      List<String> ids = ivfPq.addAll(embeddings);
+      flat.addAll(ids, embeddings, null);
+
+      assertTrue(Files.exists(tempDir.resolve("ivfpq").resolve(
+          IvfPqEmbeddingStore.QUANTIZER_FILE)));
+      double recall = recall(ivfPq, flat, clusteredEmbeddings(new Random(4), 50));
+      assertTrue(recall > 0.8, "recall " + recall);
+    }
+  }
+
+  @Test
+  public void givenClosedStore_whenReopened_thenQuantizerAndCodesAreLoaded()
+      throws IOException {
+    List<Embedding> embeddings = clusteredEmbeddings(new Random(5), 3000);
+    List<String> before;
+    try (IvfPqEmbeddingStore store = createStore(tempDir, 2000)) {
+      store.addAll(embeddings);
+      before = ids(store, embeddings.get(42));
+    }
+
+    try (IvfPqEmbeddingStore store = createStore(tempDir, 2000)) {
+      assertEquals(3000, store.size());
+      assertEquals(before, ids(store, embeddings.get(42)));
+    }
+  }
+
+  private static List<String> ids(EmbeddingStore<TextSegment> store, Embedding query) {
+    return store.search(EmbeddingSearchRequest.builder()
+            .queryEmbedding(query)
+            .maxResults(10)
+            .build()).matches().stream()
+        .map(EmbeddingMatch::embeddingId)
+        .toList();
+  }
+
+  private static double recall(EmbeddingStore<TextSegment> approximate,
+      EmbeddingStore<TextSegment> exact, List<Embedding> queries) {
+    int found = 0;
+    int expected = 0;
+    for (Embedding query : queries) {
+      Set<String> exactIds = new HashSet<>(ids(exact, query));
+      found += (int) ids(approximate, query).stream().filter(exactIds::contains).count();
+      expected += exactIds.size();
+    }
+    return (double) found / expected;
+  }
+
+  private static List<Embedding> randomEmbeddings(Random random, int count) {
+    List<Embedding> embeddings = new ArrayList<>();
+    for (int e = 0; e < count; e++) {
+      float[] vector = new float[DIMENSION];
+      for (int i = 0; i < DIMENSION; i++) {
+        vector[i] = (float) random.nextGaussian();
+      }
+      embeddings.add(Embedding.from(vector));
+    }
+    return embeddings;
+  }
+
+  /**
+   * Embeddings around 32 topics, closer to real text embeddings than uniform noise.
+   */
+  private static List<Embedding> clusteredEmbeddings(Random random, int count) {
+    List<Embedding> topics = randomEmbeddings(new Random(0), 32);
+    List<Embedding> embeddings = new ArrayList<>();
+    for (int e = 0; e < count; e++) {
+      float[] topic = topics.get(random.nextInt(topics.size())).vector();
+      float[] vector = new float[DIMENSION];
+      for (int i = 0; i < DIMENSION; i++) {
+        vector[i] = topic[i] + 0.5f * (float) random.nextGaussian();
+      }
+      embeddings.add(Embedding.from(vector));
+    }
+    return embeddings;
+  }
+}
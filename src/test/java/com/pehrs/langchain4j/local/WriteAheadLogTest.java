@@ -0,0 +1,223 @@
+package com.pehrs.langchain4j.local;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WriteAheadLogTest {
+
+  private static final int DIMENSION = 8;
+
+  @TempDir
+  Path tempDir;
+
+  private FlatEmbeddingStore createStore(Path dir) throws IOException {
+    return new FlatEmbeddingStore(dir, 1, Duration.ZERO);
+  }
+
+  @Test
+  public void givenStoreNotClosed_whenCrashImageOpened_thenLogIsReplayed() throws IOException {
+    List<Embedding> embeddings = randomEmbeddings(new Random(1), 100);
+    Path crashed = tempDir.resolve("crashed");
+    List<String> ids;
+    FlatEmbeddingStore store = createStore(tempDir.resolve("store"));
+    try {
+      ids = store.addAll(embeddings, segments(embeddings.size()));
+      store.remove(ids.get(7));
+      copy(tempDir.resolve("store"), crashed);
+    } finally {
+      store.close();
+    }
+
+    try (FlatEmbeddingStore recovered = createStore(crashed)) {
+      assertEquals(100, recovered.size());
+      assertEquals(ids.get(3), ids(recovered, embeddings.get(3)).get(0));
+      assertEquals("segment 3", recovered.search(request(embeddings.get(3))).matches().get(0)
+          .embedded().text());
+      assertFalse(ids(recovered, embeddings.get(7)).contains(ids.get(7)));
+    }
+  }
+
+  @Test
+  public void givenSnapshot_whenTaken_thenOlderLogIsDeleted() throws IOException {
+    List<Embedding> embeddings = randomEmbeddings(new Random(2), 200);
+    Path dir = tempDir.resolve("store");
+    Path crashed = tempDir.resolve("crashed");
+    List<String> ids = new ArrayList<>();
+    try (FlatEmbeddingStore store = createStore(dir)) {
+      ids.addAll(store.addAll(embeddings.subList(0, 100)));
+      store.snapshot();
+      assertEquals(1, logFiles(dir).size());
+      assertEquals(0, Files.size(logFiles(dir).get(0)));
+
+      ids.addAll(store.addAll(embeddings.subList(100, 200)));
+      copy(dir, crashed);
+    }
+
+    try (FlatEmbeddingStore recovered = createStore(crashed)) {
+      assertEquals(200, recovered.size());
+      assertEquals(ids.get(42), ids(recovered, embeddings.get(42)).get(0));
+      assertEquals(ids.get(142), ids(recovered, embeddings.get(142)).get(0));
+    }
+  }
+
+  @Test
+  public void givenTornRecord_whenReopened_thenSyncedWritesAreKept() throws IOException {
+    List<Embedding> embeddings = randomEmbeddings(new Random(3), 50);
+    Path crashed = tempDir.resolve("crashed");
+    try (FlatEmbeddingStore store = createStore(tempDir.resolve("store"))) {
+      store.addAll(embeddings);
+      copy(tempDir.resolve("store"), crashed);
+    }
+    List<Path> logFiles = logFiles(crashed);
+    Files.write(logFiles.get(logFiles.size() - 1), new byte[] {0, 0, 1, 0, 42, 42},
+        StandardOpenOption.APPEND);
+
+    try (FlatEmbeddingStore recovered = createStore(crashed)) {
+      assertEquals(50, recovered.size());
+      recovered.addAll(embeddings.subList(0, 10));
+      assertEquals(60, recovered.size());
+    }
+    try (FlatEmbeddingStore reopened = createStore(crashed)) {
+      assertEquals(60, reopened.size());
+    }
+  }
+
+  @Test
+  public void givenConcurrentWriters_whenCrashImageOpened_thenAllWritesAreReplayed()
+      throws Exception {
+    List<Embedding> embeddings = randomEmbeddings(new Random(4), 1000);
+    Path crashed = tempDir.resolve("crashed");
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    try (FlatEmbeddingStore store = createStore(tempDir.resolve("store"))) {
+      List<CompletableFuture<Void>> batches = new ArrayList<>();
+      for (int start = 0; start < embeddings.size(); start += 10) {
+        List<Embedding> batch = embeddings.subList(start, start + 10);
+        batches.add(CompletableFuture.runAsync(() -> store.addAll(batch), executor));
+      }
+      batches.forEach(CompletableFuture::join);
+      copy(tempDir.resolve("store"), crashed);
+    } finally {
+      executor.shutdown();
+    }
+
+    try (FlatEmbeddingStore recovered = createStore(crashed)) {
+      assertEquals(1000, recovered.size());
+      for (Embedding embedding : embeddings) {
+        assertEquals(1.0, recovered.search(request(embedding)).matches().get(0).score(), 1e-6);
+      }
+    }
+  }
+
+  @Test
+  public void givenRemovedEmbeddings_whenReopened_thenTheyStayRemoved() throws IOException {
+    List<Embedding> embeddings = randomEmbeddings(new Random(5), 20);
+    Path dir = tempDir.resolve("store");
+    List<String> ids;
+    try (FlatEmbeddingStore store = createStore(dir)) {
+      ids = store.addAll(embeddings, segments(embeddings.size()));
+      store.removeAll(List.of(ids.get(0), ids.get(1)));
+    }
+    assertTrue(Files.exists(dir.resolve(AbstractLocalEmbeddingStore.SNAPSHOT_FILE)));
+
+    try (FlatEmbeddingStore store = createStore(dir)) {
+      assertFalse(ids(store, embeddings.get(0)).contains(ids.get(0)));
+      assertFalse(ids(store, embeddings.get(1)).contains(ids.get(1)));
+      assertEquals(ids.get(2), ids(store, embeddings.get(2)).get(0));
+
+      store.removeAll();
+      assertTrue(ids(store, embeddings.get(2)).isEmpty());
+    }
+  }
+
+  @Test
+  public void givenOpenStore_whenOpenedAgain_thenFailsWithoutTouchingTheFiles()
+      throws IOException {
+    List<Embedding> embeddings = randomEmbeddings(new Random(6), 20);
+    Path dir = tempDir.resolve("store");
+    try (FlatEmbeddingStore store = createStore(dir)) {
+      store.addAll(embeddings.subList(0, 10));
+
+      assertThrows(IOException.class, () -> createStore(dir));
+
+      store.addAll(embeddings.subList(10, 20));
+      assertEquals(20, store.size());
+    }
+
+    try (FlatEmbeddingStore store = createStore(dir)) {
+      assertEquals(20, store.size());
+    }
+  }
+
+  private static void copy(Path from, Path to) throws IOException {
+    Files.createDirectories(to);
+    try (Stream<Path> files = Files.list(from)) {
+      for (Path file : files.toList()) {
+        Files.copy(file, to.resolve(file.getFileName()));
+      }
+    }
+  }
+
+  private static List<Path> logFiles(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files
+          .filter(file -> file.getFileName().toString().startsWith("wal-"))
+          .sorted()
+          .toList();
+    }
+  }
+
+  private static EmbeddingSearchRequest request(Embedding query) {
+    return EmbeddingSearchRequest.builder()
+        .queryEmbedding(query)
+        .maxResults(5)
+        .build();
+  }
+
+  private static List<String> ids(EmbeddingStore<TextSegment> store, Embedding query) {
+    return store.search(request(query)).matches().stream()
+        .map(EmbeddingMatch::embeddingId)
+        .toList();
+  }
+
+  private static List<TextSegment> segments(int count) {
+    List<TextSegment> segments = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      segments.add(TextSegment.from("segment " + i));
+    }
+    return segments;
+  }
+
+  private static List<Embedding> randomEmbeddings(Random random, int count) {
+    List<Embedding> embeddings = new ArrayList<>();
+    for (int e = 0; e < count; e++) {
+      float[] vector = new float[DIMENSION];
+      for (int i = 0; i < DIMENSION; i++) {
+        vector[i] = (float) random.nextGaussian();
+      }
+      embeddings.add(Embedding.from(vector));
+    }
+    return embeddings;
+  }
+}
@@ -0,0 +1,70 @@
+package com.pehrs.langchain4j.projection;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EmbeddingProjectionTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  public void givenVector_whenTruncate_thenLeadingValuesAreNormalized() {
+    float[] projected = new TruncatingProjection(2).project(new float[]{3.0f, 4.0f, 12.0f});
+    assertArrayEquals(new float[]{0.6f, 0.8f}, projected, 0.0001f);
+  }
+
+  @Test
+  public void givenSignalInLastDimensions_whenPcaFit_thenRecallBeatsTruncation() {
+    List<float[]> sample = sample(new Random(1), 400);
+    List<float[]> queries = sample(new Random(2), 20);
+
+    PcaProjection pca = PcaProjection.fit(sample, 2, 20);
+
+    double pcaRecall = ProjectionRecall.recallAtK(sample, queries, pca, 5);
+    double truncateRecall =
+        ProjectionRecall.recallAtK(sample, queries, new TruncatingProjection(2), 5);
+    assertTrue(pcaRecall > 0.8, "pca recall " + pcaRecall);
+    assertTrue(pcaRecall > truncateRecall, pcaRecall + " <= " + truncateRecall);
+  }
+
+  @Test
+  public void givenPcaProjection_whenSavedAndLoaded_thenSameProjection() throws IOException {
+    List<float[]> sample = sample(new Random(3), 50);
+    PcaProjection pca = PcaProjection.fit(sample, 3, 10);
+    Path file = tempDir.resolve("pca.bin");
+
+    pca.save(file);
+    PcaProjection loaded = PcaProjection.load(file);
+
+    assertEquals(8, loaded.inputDimension());
+    assertEquals(3, loaded.dimension());
+    assertArrayEquals(pca.project(sample.get(0)), loaded.project(sample.get(0)));
+  }
+
+  /**
+   * 8 wide vectors, the first 6 values are small noise and the last 2 the signal.
+   */
+  private static List<float[]> sample(Random random, int size) {
+    List<float[]> vectors = new ArrayList<>();
+    for (int s = 0; s < size; s++) {
+      float[] vector = new float[8];
+      for (int i = 0; i < 6; i++) {
+        vector[i] = (float) (random.nextGaussian() * 0.01);
+      }
+      vector[6] = (float) random.nextGaussian();
+      vector[7] = (float) random.nextGaussian();
+      vectors.add(vector);
+    }
+    return vectors;
+  }
+}
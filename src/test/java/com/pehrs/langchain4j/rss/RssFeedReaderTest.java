@@ -1,8 +1,25 @@
 package com.pehrs.langchain4j.rss;
 
+import com.codahale.metrics.MetricRegistry;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import dev.langchain4j.data.document.Document;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.tika.metadata.Metadata;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
@@ -37,4 +54,81 @@ class RssFeedReaderTest {
     System.out.println(epoch);
   }
 
-}
\ No newline at end of file
+  @Test
+  public void givenConcurrentFetch_whenArticlesOverlap_thenEveryDocumentIsItsOwnArticle()
+      throws Exception {
+    int articles = 24;
+    AtomicInteger inFlight = new AtomicInteger();
+    AtomicInteger maxInFlight = new AtomicInteger();
+    HttpServer server = HttpServer.create(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    String url = "http://localhost:" + server.getAddress().getPort();
+    server.createContext("/rss.xml", exchange -> {
+      StringBuilder rss = new StringBuilder("<rss><channel>");
+      for (int article = 0; article < articles; article++) {
+        rss.append("<item><title>Article ").append(article).append("</title><link>")
+            .append(url).append("/article/").append(article).append("</link></item>");
+      }
+      respond(exchange, "application/rss+xml", rss.append("</channel></rss>").toString());
+    });
+    server.createContext("/article/", exchange -> {
+      int article = Integer.parseInt(exchange.getRequestURI().getPath().substring(9));
+      maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+      try {
+        // Later articles answer first, so the fetches finish out of order
+        Thread.sleep(5L * (articles - article));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        inFlight.decrementAndGet();
+      }
+      respond(exchange, "text/html", "<html><head>"
+          + "<meta property=\"og:title\" content=\"Article " + article + "\"/>"
+          + "<meta property=\"article:modified_time\" content=\"2024-03-10T15:37:"
+          + String.format("%02d", article) + "Z\"/>"
+          + "</head><body><p>Body of article " + article + "</p></body></html>");
+    });
+    server.start();
+
+    Config config = ConfigFactory.parseMap(Map.of(
+        "rss.feeds", List.of(url + "/rss.xml"),
+        "rss.fetch.concurrent", true,
+        "rss.fetch.maxInFlight", 8,
+        "rss.fetch.maxPerHost", 4));
+    try (RssFeedReader reader = new RssFeedReader(new MetricRegistry(), config)) {
+      List<Document> documents = reader.readDocuments().toList();
+
+      Assertions.assertEquals(articles, documents.size());
+      Set<String> urls = new HashSet<>();
+      for (Document document : documents) {
+        String articleUrl = document.metadata().getString(RssFeedReader.METADATA_URL);
+        int article = Integer.parseInt(articleUrl.substring(articleUrl.lastIndexOf('/') + 1));
+        Assertions.assertEquals("Article " + article,
+            document.metadata().getString(RssFeedReader.METADATA_TITLE));
+        Assertions.assertEquals(RssFeedReader.newsId(articleUrl),
+            document.metadata().getString(RssFeedReader.METADATA_NEWS_ID));
+        Assertions.assertEquals(1710085020000L + article * 1000L,
+            Long.parseLong(document.metadata().getString(RssFeedReader.METADATA_TS)));
+        Assertions.assertEquals("Body of article " + article, document.text().trim());
+        urls.add(articleUrl);
+      }
+      Assertions.assertEquals(articles, urls.size());
+      Assertions.assertTrue(maxInFlight.get() > 1, "Fetches never overlapped");
+      Assertions.assertTrue(maxInFlight.get() <= 4, maxInFlight.get() + " fetches from one host");
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  private static void respond(HttpExchange exchange, String contentType, String body)
+      throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", contentType + "; charset=UTF-8");
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+package com.pehrs.langchain4j.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.codahale.metrics.MetricRegistry;
+import com.pehrs.langchain4j.ManualClock;
+import com.pehrs.langchain4j.ingest.UpdateMarker;
+import dev.langchain4j.data.embedding.Embedding;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SemanticAnswerCacheTest {
+
+  @TempDir
+  Path tempDir;
+
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+
+  private final ManualClock clock = new ManualClock();
+
+  @Test
+  public void givenParaphrase_whenGet_thenCachedAnswer() {
+    SemanticAnswerCache cache = new SemanticAnswerCache(metricRegistry, clock, 0.95,
+        Duration.ofMinutes(10), 10, null);
+    cache.put(Embedding.from(new float[]{1.0f, 0.1f, 0.0f}), "answer", cache.generation());
+
+    assertEquals("answer", cache.get(Embedding.from(new float[]{2.0f, 0.25f, 0.0f})));
+    assertNull(cache.get(Embedding.from(new float[]{0.0f, 1.0f, 0.0f})));
+    assertEquals(1, metricRegistry.meter(SemanticAnswerCache.ANSWER_CACHE_HIT).getCount());
+    assertEquals(1, metricRegistry.meter(SemanticAnswerCache.ANSWER_CACHE_MISS).getCount());
+  }
+
+  @Test
+  public void givenExpiredEntry_whenGet_thenMiss() {
+    SemanticAnswerCache cache = new SemanticAnswerCache(metricRegistry, clock, 0.95,
+        Duration.ofMinutes(10), 10, null);
+    cache.put(Embedding.from(new float[]{1.0f, 0.0f}), "answer", cache.generation());
+
+    clock.advance(11, TimeUnit.MINUTES);
+
+    assertNull(cache.get(Embedding.from(new float[]{1.0f, 0.0f})));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void givenTouchedUpdateMarker_whenGet_thenMiss() throws Exception {
+    Path markerFile = tempDir.resolve("embeddings.updated");
+    UpdateMarker marker = new UpdateMarker(markerFile);
+    marker.touch();
+    SemanticAnswerCache cache = new SemanticAnswerCache(metricRegistry, clock, 0.95,
+        Duration.ofMinutes(10), 10, marker);
+    cache.put(Embedding.from(new float[]{1.0f, 0.0f}), "answer", cache.generation());
+
+    Files.setLastModifiedTime(markerFile,
+        FileTime.fromMillis(Files.getLastModifiedTime(markerFile).toMillis() + 1000));
+    clock.advance(2, TimeUnit.SECONDS);
+
+    assertNull(cache.get(Embedding.from(new float[]{1.0f, 0.0f})));
+  }
+
+  @Test
+  public void givenUpdateDuringGeneration_whenPut_thenNotCached() throws Exception {
+    Path markerFile = tempDir.resolve("embeddings.updated");
+    UpdateMarker marker = new UpdateMarker(markerFile);
+    marker.touch();
+    SemanticAnswerCache cache = new SemanticAnswerCache(metricRegistry, clock, 0.95,
+        Duration.ofMinutes(10), 10, marker);
+    long generation = cache.generation();
+    assertNull(cache.get(Embedding.from(new float[]{1.0f, 0.0f})));
+
+    // Ingestion writes new segments while the answer is generated
+    Files.setLastModifiedTime(markerFile,
+        FileTime.fromMillis(Files.getLastModifiedTime(markerFile).toMillis() + 1000));
+    cache.put(Embedding.from(new float[]{1.0f, 0.0f}), "stale answer", generation);
+
+    assertEquals(0, cache.size());
+    assertNull(cache.get(Embedding.from(new float[]{1.0f, 0.0f})));
+  }
+}
@@ -0,0 +1,270 @@
+package com.pehrs.langchain4j.sharded;
+
+import static com.pehrs.langchain4j.EmbeddingStoreFixtures.randomEmbeddings;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.codahale.metrics.MetricRegistry;
+import com.pehrs.langchain4j.EmbeddingStoreFixtures.NeverAnsweringStore;
+import com.pehrs.langchain4j.RagSample;
+import com.pehrs.langchain4j.epub.EpubDocumentsReader;
+import com.pehrs.langchain4j.local.FlatEmbeddingStore;
+import com.pehrs.langchain4j.sharded.ShardedEmbeddingStore.Shard;
+import com.pehrs.langchain4j.vespa.EpubVespaDocHandler;
+import com.pehrs.langchain4j.vespa.LocalVespaServer;
+import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingConfig;
+import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingStore;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
+import dev.langchain4j.store.embedding.EmbeddingSearchResult;
+import dev.langchain4j.store.embedding.EmbeddingStore;
+import dev.langchain4j.store.embedding.inmemory.InMemoryEmbeddingStore;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ShardedEmbeddingStoreTest {
+
+  private static final int DIMENSION = 8;
+
+  private final MetricRegistry metricRegistry = new MetricRegistry();
+
+  @TempDir
+  Path tempDir;
+
+  /**
+   * Returns its matches worst first.
+   */
+  static class ReversedStore extends InMemoryEmbeddingStore<TextSegment> {
+
+    @Override
+    public EmbeddingSearchResult<TextSegment> search(EmbeddingSearchRequest request) {
+      List<EmbeddingMatch<TextSegment>> matches = new ArrayList<>(super.search(request).matches());
+      Collections.reverse(matches);
+      return new EmbeddingSearchResult<>(matches);
+    }
+  }
+
+  private List<Shard> shards(int count) throws IOException {
+    List<Shard> shards = new ArrayList<>();
+    for (int shard = 0; shard < count; shard++) {
+      shards.add(new Shard("shard-" + shard,
+          new FlatEmbeddingStore(tempDir.resolve("shard-" + shard), 1)));
+    }
+    return shards;
+  }
+
+  @Test
+  public void givenSources_whenAdded_thenEverySourceIsOnOneShard() throws IOException {
+    List<Shard> shards = shards(3);
+    try (ShardedEmbeddingStore sharded = new ShardedEmbeddingStore(metricRegistry, shards,
+        Duration.ofSeconds(5))) {
+      List<TextSegment> segments = segments(50, 4);
+      List<String> ids = sharded.addAll(randomEmbeddings(new Random(1), segments.size(), DIMENSION),
+          segments);
+
+      int[] expected = new int[shards.size()];
+      for (int source = 0; source < 50; source++) {
+        int shard = sharded.shard(ids.get(source * 4), segments.get(source * 4));
+        for (int segment = 1; segment < 4; segment++) {
+          int i = source * 4 + segment;
+          assertEquals(shard, sharded.shard(ids.get(i), segments.get(i)));
+        }
+        expected[shard] += 4;
+      }
+      for (int shard = 0; shard < shards.size(); shard++) {
+        assertTrue(expected[shard] > 0);
+        assertEquals(expected[shard], ((FlatEmbeddingStore) shards.get(shard).store()).size());
+      }
+    }
+  }
+
+  @Test
+  public void givenShards_whenSearch_thenSameAsOneStore() throws IOException {
+    List<Embedding> embeddings = randomEmbeddings(new Random(2), 400, DIMENSION);
+    List<TextSegment> segments = segments(100, 4);
+    try (ShardedEmbeddingStore sharded = new ShardedEmbeddingStore(metricRegistry, shards(4),
+        Duration.ofSeconds(5));
+        FlatEmbeddingStore single = new FlatEmbeddingStore(tempDir.resolve("single"), 1)) {
+      List<String> ids = sharded.addAll(embeddings, segments);
+      single.addAll(ids, embeddings, segments);
+
+      for (Embedding query : randomEmbeddings(new Random(3), 20, DIMENSION)) {
+        assertEquals(ids(single, query), ids(sharded, query));
+      }
+    }
+  }
+
+  @Test
+  public void givenShardsReturningWorstFirst_whenSearch_thenSameAsOneStore() throws IOException {
+    List<Embedding> embeddings = randomEmbeddings(new Random(6), 400, DIMENSION);
+    List<TextSegment> segments = segments(100, 4);
+    List<Shard> shards = List.of(new Shard("shard-0", new ReversedStore()),
+        new Shard("shard-1", new ReversedStore()));
+    try (ShardedEmbeddingStore sharded = new ShardedEmbeddingStore(metricRegistry, shards,
+        Duration.ofSeconds(5));
+        FlatEmbeddingStore single = new FlatEmbeddingStore(tempDir.resolve("single"), 1)) {
+      List<String> ids = sharded.addAll(embeddings, segments);
+      single.addAll(ids, embeddings, segments);
+
+      for (Embedding query : randomEmbeddings(new Random(7), 20, DIMENSION)) {
+        assertEquals(ids(single, query), ids(sharded, query));
+      }
+    }
+  }
+
+  @Test
+  public void givenHungShard_whenSearch_thenItIsCancelledAndTheOthersAnswer() throws IOException {
+    NeverAnsweringStore<TextSegment> never = new NeverAnsweringStore<>();
+    List<Shard> shards = new ArrayList<>(shards(2));
+    shards.add(new Shard("never", never));
+    try (ShardedEmbeddingStore sharded = new ShardedEmbeddingStore(metricRegistry, shards,
+        Duration.ofMillis(100))) {
+      sharded.addAll(randomEmbeddings(new Random(4), 100, DIMENSION), segments(25, 4));
+
+      assertEquals(10, ids(sharded, randomEmbeddings(new Random(5), 1, DIMENSION).get(0)).size());
+      assertTrue(never.search.isCancelled());
+      assertEquals(1,
+          metricRegistry.meter(ShardedEmbeddingStore.SHARDED_SHARD_TIMEOUT).getCount());
+    }
+  }
+
+  @Test
+  public void givenVespaShards_whenSourcesFedAgain_thenTheyAreOverwritten() throws IOException {
+    List<Embedding> embeddings = normalized(randomEmbeddings(new Random(8), 60, DIMENSION));
+    List<TextSegment> segments = bookSegments(20, 3);
+    try (LocalVespaServer vespa0 = new LocalVespaServer();
+        LocalVespaServer vespa1 = new LocalVespaServer();
+        ShardedEmbeddingStore sharded = new ShardedEmbeddingStore(metricRegistry,
+            List.of(new Shard("vespa-0", vespaStore(vespa0)),
+                new Shard("vespa-1", vespaStore(vespa1))),
+            Duration.ofSeconds(5))) {
+      List<String> ids = sharded.addAll(embeddings, segments);
+
+      assertEquals("id:embeddings:books::source-0-0", ids.get(0));
+      assertEquals("id:embeddings:books::source-19-2", ids.get(59));
+      assertTrue(vespa0.documentCount() > 0 && vespa1.documentCount() > 0);
+      assertEquals(60, vespa0.documentCount() + vespa1.documentCount());
+
+      assertEquals(ids, sharded.addAll(embeddings, segments));
+      assertEquals(60, vespa0.documentCount() + vespa1.documentCount());
+
+      sharded.removeAll(ids.subList(0, 3));
+      assertEquals(57, vespa0.documentCount() + vespa1.documentCount());
+    }
+  }
+
+  @Test
+  public void givenVespaShards_whenSearchWithMinScore_thenMatchesBelowItAreDropped()
+      throws IOException {
+    List<Embedding> embeddings = normalized(randomEmbeddings(new Random(9), 60, DIMENSION));
+    List<TextSegment> segments = bookSegments(20, 3);
+    try (LocalVespaServer vespa0 = new LocalVespaServer();
+        LocalVespaServer vespa1 = new LocalVespaServer();
+        ShardedEmbeddingStore sharded = new ShardedEmbeddingStore(metricRegistry,
+            List.of(new Shard("vespa-0", vespaStore(vespa0)),
+                new Shard("vespa-1", vespaStore(vespa1))),
+            Duration.ofSeconds(5))) {
+      sharded.addAll(embeddings, segments);
+      Embedding query = embeddings.get(7);
+      long expected = embeddings.stream()
+          .filter(embedding -> dot(embedding, query) >= 0.5)
+          .count();
+
+      List<EmbeddingMatch<TextSegment>> matches = sharded.search(EmbeddingSearchRequest.builder()
+          .queryEmbedding(query)
+          .maxResults(60)
+          .minScore(0.5)
+          .build()).matches();
+
+      assertTrue(expected > 1 && expected < 60, expected + " embeddings above the minScore");
+      assertEquals(expected, matches.size());
+      assertEquals("id:embeddings:books::source-2-1", matches.get(0).embeddingId());
+    }
+  }
+
+  @Test
+  public void givenNewShard_whenRouted_thenOnlySourcesOfTheNewShardMove() {
+    List<Shard> three = List.of(new Shard("a", null), new Shard("b", null),
+        new Shard("c", null));
+    List<Shard> four = List.of(new Shard("a", null), new Shard("b", null),
+        new Shard("c", null), new Shard("d", null));
+    ShardedEmbeddingStore before = new ShardedEmbeddingStore(metricRegistry, three,
+        Duration.ofSeconds(1));
+    ShardedEmbeddingStore after = new ShardedEmbeddingStore(metricRegistry, four,
+        Duration.ofSeconds(1));
+
+    int moved = 0;
+    List<TextSegment> segments = segments(1000, 1);
+    for (TextSegment segment : segments) {
+      int from = before.shard("id", segment);
+      int to = after.shard("id", segment);
+      if (from != to) {
+        assertEquals(3, to);
+        moved++;
+      }
+    }
+    assertTrue(moved > 150 && moved < 350, moved + " of 1000 sources moved");
+  }
+
+  private static List<String> ids(EmbeddingStore<TextSegment> store, Embedding query) {
+    return store.search(EmbeddingSearchRequest.builder()
+            .queryEmbedding(query)
+            .maxResults(10)
+            .build()).matches().stream()
+        .map(EmbeddingMatch::embeddingId)
+        .toList();
+  }
+
+  private static SimpleVespaEmbeddingStore vespaStore(LocalVespaServer vespa) {
+    return vespa.createStore(SimpleVespaEmbeddingConfig.builder()
+        .setVespaDocumentHandler(EpubVespaDocHandler.class.getName()));
+  }
+
+  private static List<TextSegment> bookSegments(int sources, int segmentsPerSource) {
+    List<TextSegment> segments = new ArrayList<>();
+    for (int source = 0; source < sources; source++) {
+      for (int segment = 0; segment < segmentsPerSource; segment++) {
+        segments.add(TextSegment.from("segment " + segment + " of " + source, Metadata.from(Map.of(
+            RagSample.METADATA_SRC_ID, "source-" + source,
+            RagSample.METADATA_SEGMENT_INDEX, String.valueOf(segment),
+            EpubDocumentsReader.METADATA_TITLE, "book " + source))));
+      }
+    }
+    return segments;
+  }
+
+  private static List<Embedding> normalized(List<Embedding> embeddings) {
+    embeddings.forEach(Embedding::normalize);
+    return embeddings;
+  }
+
+  private static double dot(Embedding a, Embedding b) {
+    double dot = 0.0;
+    for (int i = 0; i < DIMENSION; i++) {
+      dot += a.vector()[i] * b.vector()[i];
+    }
+    return dot;
+  }
+
+  private static List<TextSegment> segments(int sources, int segmentsPerSource) {
+    List<TextSegment> segments = new ArrayList<>();
+    for (int source = 0; source < sources; source++) {
+      for (int segment = 0; segment < segmentsPerSource; segment++) {
+        segments.add(TextSegment.from("segment " + segment + " of " + source,
+            new Metadata().put(RagSample.METADATA_SRC_ID, "source-" + source)));
+      }
+    }
+    return segments;
+  }
+}
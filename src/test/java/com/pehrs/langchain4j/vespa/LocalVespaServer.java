@@ -0,0 +1,700 @@
+package com.pehrs.langchain4j.vespa;
+
+import ai.vespa.feed.client.DocumentId;
+import ai.vespa.feed.client.FeedClient;
+import ai.vespa.feed.client.Result;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingConfig.VespaEmbeddingConfigBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * In-JVM stand-in for the Vespa container, for tests of {@link SimpleVespaEmbeddingStore}
+ * without a running Vespa. The store feeds with the HTTP/2 feed client, which the JDK server can
+ * not serve, so tests put their documents with {@link #putDocument}, or feed through a store of
+ * {@link #createStore} that puts and removes its documents here directly.
+ *
+ * <ul>
+ *   <li>{@code /document/v1/{namespace}/{docType}/docid/{id}} - GET and DELETE of
+ *   {@code {"fields": {...}}} documents</li>
+ *   <li>{@code /search/} - POST of a {@link YqlQueryRequest}, scored brute force:
+ *   <ul>
+ *     <li>the where clause: nearestNeighbor returns the {@code targetHits} documents with the
+ *     best dot product among the documents matching the rest of the clause, userInput matches
+ *     documents with any of its terms, and the filters of {@link YqlFilterMapper} are
+ *     applied</li>
+ *     <li>the rank profiles of the schemas: closeness, recommendation ({@code ts} times
+ *     closeness), hybrid (closeness, a count of the matched terms instead of bm25 and the recency
+ *     of {@code ts}) and the quantized profiles, scored with the float embedding like their
+ *     second phase</li>
+ *     <li>{@code order by}, which replaces the ranking, and {@code hits} (default 10)</li>
+ *   </ul>
+ *   </li>
+ * </ul>
+ *
+ * <p>Tensors must be written as JSON arrays or float32 hex strings. Every response can be
+ * delayed with {@link #setLatency(Duration)}.
+ */
+public class LocalVespaServer implements Closeable {
+
+  private static final Pattern SEARCH = Pattern.compile(
+      "\\bfrom\\s+(\\w+)\\s+where\\s+(.*?)(?:\\s+order\\s+by\\s+(\\w+)(?:\\s+(asc|desc))?)?\\s*$",
+      Pattern.DOTALL);
+  private static final Pattern TARGET_HITS = Pattern.compile("targetHits:\\s*(\\d+)");
+  private static final Pattern QUANTIZED_FIELD = Pattern.compile("_(int8|binary)$");
+  private static final Pattern TERMS = Pattern.compile("[^\\p{L}\\p{N}]+");
+  private static final int DEFAULT_HITS = 10;
+
+  private record Document(String id, String docType, ObjectNode fields,
+                          Map<String, float[]> tensors) {
+
+    Double number(String field) {
+      JsonNode value = fields.get(field);
+      if (value == null) {
+        return null;
+      }
+      try {
+        // The ts of the news is fed as a string
+        return value.isNumber() ? value.asDouble() : Double.parseDouble(value.asText());
+      } catch (NumberFormatException ex) {
+        return null;
+      }
+    }
+
+    Set<String> terms(String field) {
+      JsonNode value = fields.get(field);
+      return value == null || !value.isValueNode()
+          ? Set.of()
+          : LocalVespaServer.terms(value.asText());
+    }
+
+    Set<String> terms() {
+      Set<String> terms = new HashSet<>();
+      fields.fieldNames().forEachRemaining(field -> {
+        if (!tensors.containsKey(field)) {
+          terms.addAll(terms(field));
+        }
+      });
+      return terms;
+    }
+  }
+
+  private final ObjectMapper objectMapper = new ObjectMapper();
+  private final HttpServer server;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final Map<String, Document> documents = new ConcurrentHashMap<>();
+  private volatile Duration latency = Duration.ZERO;
+
+  private final AtomicLong searchRequests = new AtomicLong();
+
+  public LocalVespaServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext("/document/v1/", this::handleDocument);
+    server.createContext("/search/", this::handleSearch);
+    server.setExecutor(executor);
+    server.start();
+  }
+
+  public String url() {
+    return "http://localhost:" + server.getAddress().getPort();
+  }
+
+  /**
+   * Delay every response, the delay is not blocking the other requests.
+   */
+  public void setLatency(Duration latency) {
+    this.latency = latency;
+  }
+
+  /**
+   * Put the document the store would feed for the segment.
+   *
+   * @param docId the user specific part of the document id, e.g. "book-1"
+   */
+  public void putDocument(VespaDocumentHandler handler, String docId, Embedding embedding,
+      TextSegment segment) throws IOException {
+    DocumentId documentId = handler.createDocumentId(docId);
+    putDocument(documentId,
+        SimpleVespaEmbeddingStore.documentJson(handler, documentId, embedding, segment));
+  }
+
+  private void putDocument(DocumentId documentId, String documentJson) throws IOException {
+    JsonNode body = objectMapper.readTree(documentJson);
+    ObjectNode fields = (ObjectNode) body.get("fields");
+    Map<String, float[]> tensors = new HashMap<>();
+    fields.fields().forEachRemaining(field -> {
+      JsonNode values = field.getValue().get("values");
+      // The quantized copies are only searched through their float embedding
+      if (values != null && !QUANTIZED_FIELD.matcher(field.getKey()).find()) {
+        tensors.put(field.getKey(), tensor(values));
+      }
+    });
+    documents.put(documentId.toString(),
+        new Document(documentId.toString(), documentId.documentType(), fields, tensors));
+  }
+
+  /**
+   * @return a store searching this server, its feed client puts and removes the documents here
+   */
+  public SimpleVespaEmbeddingStore createStore(VespaEmbeddingConfigBuilder builder) {
+    SimpleVespaEmbeddingConfig config = builder.setUrl(url()).setFeedUrl(url()).build();
+    return new SimpleVespaEmbeddingStore(new MetricRegistry(), config) {
+      @Override
+      FeedClient buildFeedClient() {
+        return proxy(FeedClient.class, (method, args) -> switch (method.getName()) {
+          case "put" -> {
+            putDocument((DocumentId) args[0], (String) args[1]);
+            yield CompletableFuture.completedFuture(success((DocumentId) args[0]));
+          }
+          case "remove" -> {
+            documents.remove(args[0].toString());
+            yield CompletableFuture.completedFuture(success((DocumentId) args[0]));
+          }
+          case "close" -> null;
+          default -> throw new UnsupportedOperationException(method.getName());
+        });
+      }
+    };
+  }
+
+  private interface Invocation {
+
+    Object invoke(Method method, Object[] args) throws Exception;
+  }
+
+  /**
+   * Implement the interface with the methods the store calls, whatever the version of the feed
+   * client.
+   */
+  private static <T> T proxy(Class<T> type, Invocation invocation) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+        (instance, method, args) -> method.getDeclaringClass() == Object.class
+            ? switch (method.getName()) {
+              case "equals" -> instance == args[0];
+              case "hashCode" -> System.identityHashCode(instance);
+              default -> type.getSimpleName();
+            }
+            : invocation.invoke(method, args)));
+  }
+
+  private static Result success(DocumentId documentId) {
+    return proxy(Result.class, (method, args) -> switch (method.getName()) {
+      case "type" -> Result.Type.success;
+      case "documentId" -> documentId;
+      default -> Optional.empty();
+    });
+  }
+
+  public int documentCount() {
+    return documents.size();
+  }
+
+  public long searchRequests() {
+    return searchRequests.get();
+  }
+
+  @Override
+  public void close() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  private void handleDocument(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      delay();
+      // /document/v1/{namespace}/{docType}/docid/{id}
+      String[] path = exchange.getRequestURI().getRawPath().split("/", 7);
+      if (path.length != 7 || !"docid".equals(path[5])) {
+        respond(exchange, 400, error("Bad document path " + exchange.getRequestURI()));
+        return;
+      }
+      String docType = path[4];
+      String id = "id:" + path[3] + ":" + docType + "::"
+          + URLDecoder.decode(path[6], StandardCharsets.UTF_8);
+      ObjectNode response = objectMapper.createObjectNode()
+          .put("pathId", exchange.getRequestURI().getRawPath())
+          .put("id", id);
+
+      switch (exchange.getRequestMethod()) {
+        case "GET" -> {
+          Document document = documents.get(id);
+          if (document == null) {
+            respond(exchange, 404, response);
+            return;
+          }
+          response.set("fields", document.fields());
+          respond(exchange, 200, response);
+        }
+        case "DELETE" -> {
+          documents.remove(id);
+          respond(exchange, 200, response);
+        }
+        default -> respond(exchange, 405, error("Method not allowed"));
+      }
+    }
+  }
+
+  private void handleSearch(HttpExchange exchange) throws IOException {
+    try (exchange) {
+      delay();
+      searchRequests.incrementAndGet();
+      JsonNode request = objectMapper.readTree(exchange.getRequestBody());
+      String yql = request.path("yql").asText();
+      Matcher search = SEARCH.matcher(yql);
+      if (!search.find()) {
+        respond(exchange, 400, error("Not a supported query: " + yql));
+        return;
+      }
+      String docType = search.group(1);
+      Query query;
+      try {
+        query = new QueryParser(search.group(2)).parse();
+      } catch (IllegalArgumentException ex) {
+        respond(exchange, 400, error(ex.getMessage() + ": " + yql));
+        return;
+      }
+      String profile = request.path("ranking").asText("default");
+      if (!isRankProfile(profile)) {
+        respond(exchange, 400, error("Unknown rank profile " + profile));
+        return;
+      }
+      JsonNode input = request.path("input");
+      JsonNode queryEmbedding = input.get("query(q_embedding)");
+      if (query.nearestNeighbor() != null && queryEmbedding == null) {
+        respond(exchange, 400, error("Missing query(q_embedding)"));
+        return;
+      }
+      float[] queryVector = queryEmbedding == null ? null : tensor(queryEmbedding);
+
+      // nearestNeighbor is a pre-filtered search, its hits are the closest of the documents
+      // matching the rest of the query
+      List<Document> candidates = documents.values().stream()
+          .filter(document -> document.docType().equals(docType))
+          .filter(document -> query.where().test(document, nearest -> true))
+          .toList();
+      Set<Document> nearest = new HashSet<>();
+      NearestNeighbor nearestNeighbor = query.nearestNeighbor();
+      if (nearestNeighbor != null) {
+        candidates.stream()
+            .filter(document -> document.tensors().containsKey(nearestNeighbor.field()))
+            .sorted(Comparator.comparingDouble((Document document) ->
+                closeness(document, nearestNeighbor, queryVector)).reversed())
+            .limit(nearestNeighbor.targetHits())
+            .forEach(nearest::add);
+      }
+
+      record Hit(Document document, double relevance) {
+
+      }
+      Comparator<Hit> order = Comparator.comparingDouble(Hit::relevance).reversed();
+      String orderBy = search.group(3);
+      if (orderBy != null) {
+        Comparator<Hit> byField = Comparator.comparingDouble(
+            hit -> hit.document().number(orderBy) == null
+                ? Double.NEGATIVE_INFINITY
+                : hit.document().number(orderBy));
+        order = "desc".equals(search.group(4)) ? byField.reversed() : byField;
+      }
+      List<Hit> best = candidates.stream()
+          .filter(document -> query.where().test(document, nearest::contains))
+          .map(document -> new Hit(document, relevance(profile, input, document,
+              nearest.contains(document)
+                  ? closeness(document, nearestNeighbor, queryVector)
+                  : 0.0,
+              query.userInput())))
+          .sorted(order)
+          .limit(request.path("hits").asInt(DEFAULT_HITS))
+          .toList();
+      boolean includeTensors = !request.hasNonNull("presentation.summary");
+
+      ObjectNode root = objectMapper.createObjectNode();
+      root.put("id", "toplevel");
+      root.put("relevance", 1.0);
+      root.putObject("fields").put("totalCount", best.size());
+      ArrayNode children = root.putArray("children");
+      for (Hit hit : best) {
+        ObjectNode child = children.addObject();
+        child.put("id", hit.document().id());
+        child.put("relevance", hit.relevance());
+        child.put("source", "content");
+        ObjectNode fields = hit.document().fields().deepCopy();
+        if (!includeTensors) {
+          hit.document().tensors().keySet().forEach(fields::remove);
+        }
+        child.set("fields", fields);
+      }
+      ObjectNode response = objectMapper.createObjectNode();
+      response.set("root", root);
+      respond(exchange, 200, response);
+    }
+  }
+
+  private static boolean isRankProfile(String profile) {
+    return switch (profile) {
+      case "closeness", "recommendation", "int8", "binary" -> true;
+      default -> profile.equals("hybrid") || profile.startsWith("hybrid-");
+    };
+  }
+
+  /**
+   * @return the score of the rank profile, see the schemas in vespa/schemas
+   */
+  private static double relevance(String profile, JsonNode input, Document document,
+      double closeness, String userInput) {
+    Double ts = document.number("ts");
+    switch (profile) {
+      case "recommendation":
+        return ts == null ? closeness : ts * closeness;
+      case "closeness", "int8", "binary":
+        return closeness;
+      default:
+        double textWeight = input.path("query(textWeight)").asDouble(0.1);
+        double relevance = closeness;
+        if (userInput != null) {
+          Set<String> matched = new HashSet<>(terms(userInput));
+          matched.retainAll(document.terms());
+          relevance += textWeight * matched.size();
+        }
+        if (ts != null) {
+          double age = Math.max(0.0, System.currentTimeMillis() / 1000.0 - ts / 1000.0);
+          relevance += input.path("query(recencyWeight)").asDouble(0.1)
+              * Math.exp(-age / input.path("query(recencyDecay)").asDouble(86400));
+        }
+        return relevance;
+    }
+  }
+
+  /**
+   * @return the dot product with the float embedding, also for searches of a quantized copy
+   */
+  private static double closeness(Document document, NearestNeighbor nearestNeighbor,
+      float[] queryVector) {
+    float[] tensor = document.tensors().get(nearestNeighbor.field());
+    return tensor == null ? 0.0 : dot(tensor, queryVector);
+  }
+
+  private static Set<String> terms(String text) {
+    return Arrays.stream(TERMS.split(text.toLowerCase(Locale.ROOT)))
+        .filter(term -> !term.isEmpty())
+        .collect(Collectors.toSet());
+  }
+
+  /**
+   * A condition of the where clause, {@code nearest} tells if a document is a nearestNeighbor hit.
+   */
+  @FunctionalInterface
+  private interface Condition {
+
+    boolean test(Document document, Predicate<Document> nearest);
+  }
+
+  /**
+   * @param field the float embedding field, the quantized field of the query without its suffix
+   */
+  private record NearestNeighbor(String field, int targetHits) {
+
+  }
+
+  private record Query(Condition where, NearestNeighbor nearestNeighbor, String userInput) {
+
+  }
+
+  /**
+   * Parser of the where clauses written by the document handlers and {@link YqlFilterMapper}.
+   */
+  private static final class QueryParser {
+
+    private final List<String> tokens = new ArrayList<>();
+    private int pos;
+    private NearestNeighbor nearestNeighbor;
+    private String userInput;
+
+    QueryParser(String where) {
+      int i = 0;
+      while (i < where.length()) {
+        char c = where.charAt(i);
+        if (Character.isWhitespace(c)) {
+          i++;
+        } else if (c == '{') {
+          // Annotation, up to the matching brace outside of strings
+          int end = i + 1;
+          boolean quoted = false;
+          while (end < where.length() && (quoted || where.charAt(end) != '}')) {
+            if (where.charAt(end) == '"') {
+              quoted = !quoted;
+            }
+            end++;
+          }
+          tokens.add(where.substring(i, end + 1));
+          i = end + 1;
+        } else if (c == '"') {
+          // Strings are kept with their leading quote to tell them from words
+          StringBuilder value = new StringBuilder("\"");
+          i++;
+          while (i < where.length() && where.charAt(i) != '"') {
+            char next = where.charAt(i++);
+            if (next == '\\' && i < where.length()) {
+              char escaped = where.charAt(i++);
+              value.append(switch (escaped) {
+                case 'n' -> '\n';
+                case 'r' -> '\r';
+                case 't' -> '\t';
+                default -> escaped;
+              });
+            } else {
+              value.append(next);
+            }
+          }
+          tokens.add(value.toString());
+          i++;
+        } else if ("<>".indexOf(c) >= 0 && i + 1 < where.length() && where.charAt(i + 1) == '=') {
+          tokens.add(where.substring(i, i + 2));
+          i += 2;
+        } else if ("(),!=<>".indexOf(c) >= 0) {
+          tokens.add(String.valueOf(c));
+          i++;
+        } else {
+          int end = i;
+          while (end < where.length() && (Character.isLetterOrDigit(where.charAt(end))
+              || "_.-".indexOf(where.charAt(end)) >= 0)) {
+            end++;
+          }
+          if (end == i) {
+            throw new IllegalArgumentException("Unexpected '" + c + "' in the where clause");
+          }
+          tokens.add(where.substring(i, end));
+          i = end;
+        }
+      }
+    }
+
+    Query parse() {
+      Condition where = or();
+      if (pos != tokens.size()) {
+        throw new IllegalArgumentException("Unexpected '" + tokens.get(pos) + "'");
+      }
+      return new Query(where, nearestNeighbor, userInput);
+    }
+
+    private Condition or() {
+      Condition condition = and();
+      while (accept("or")) {
+        Condition left = condition;
+        Condition right = and();
+        condition = (document, nearest) ->
+            left.test(document, nearest) || right.test(document, nearest);
+      }
+      return condition;
+    }
+
+    private Condition and() {
+      Condition condition = unary();
+      while (accept("and")) {
+        Condition left = condition;
+        Condition right = unary();
+        condition = (document, nearest) ->
+            left.test(document, nearest) && right.test(document, nearest);
+      }
+      return condition;
+    }
+
+    private Condition unary() {
+      if (accept("!")) {
+        Condition negated = unary();
+        return (document, nearest) -> !negated.test(document, nearest);
+      }
+      if (accept("(")) {
+        Condition condition = or();
+        expect(")");
+        return condition;
+      }
+      String annotation = peek().startsWith("{") ? next() : "";
+      String word = next();
+      if (word.equals("nearestNeighbor")) {
+        expect("(");
+        String field = QUANTIZED_FIELD.matcher(next()).replaceFirst("");
+        expect(",");
+        next();
+        expect(")");
+        Matcher targetHits = TARGET_HITS.matcher(annotation);
+        nearestNeighbor = new NearestNeighbor(field,
+            targetHits.find() ? Integer.parseInt(targetHits.group(1)) : DEFAULT_HITS);
+        return (document, nearest) -> nearest.test(document);
+      }
+      if (word.equals("userInput")) {
+        expect("(");
+        String text = string(next());
+        expect(")");
+        userInput = text;
+        Set<String> terms = terms(text);
+        return (document, nearest) -> document.terms().stream().anyMatch(terms::contains);
+      }
+      return comparison(word);
+    }
+
+    private Condition comparison(String field) {
+      String operator = next();
+      switch (operator) {
+        case "contains" -> {
+          Set<String> terms = terms(string(next()));
+          return (document, nearest) -> document.terms(field).containsAll(terms);
+        }
+        case "in" -> {
+          expect("(");
+          List<String> values = new ArrayList<>();
+          do {
+            values.add(next());
+          } while (accept(","));
+          expect(")");
+          return (document, nearest) -> values.stream()
+              .anyMatch(value -> isEqual(document, field, value));
+        }
+        case "=" -> {
+          String value = next();
+          return (document, nearest) -> isEqual(document, field, value);
+        }
+        case "<", "<=", ">", ">=" -> {
+          double value = Double.parseDouble(next());
+          return (document, nearest) -> {
+            Double number = document.number(field);
+            if (number == null) {
+              return false;
+            }
+            return switch (operator) {
+              case "<" -> number < value;
+              case "<=" -> number <= value;
+              case ">" -> number > value;
+              default -> number >= value;
+            };
+          };
+        }
+        default -> throw new IllegalArgumentException("Unsupported operator '" + operator + "'");
+      }
+    }
+
+    private static boolean isEqual(Document document, String field, String value) {
+      if (value.startsWith("\"")) {
+        JsonNode fieldValue = document.fields().get(field);
+        return fieldValue != null && fieldValue.asText().equals(value.substring(1));
+      }
+      Double number = document.number(field);
+      return number != null && number == Double.parseDouble(value);
+    }
+
+    private static String string(String token) {
+      if (!token.startsWith("\"")) {
+        throw new IllegalArgumentException("Expected a string, not '" + token + "'");
+      }
+      return token.substring(1);
+    }
+
+    private String peek() {
+      if (pos == tokens.size()) {
+        throw new IllegalArgumentException("Unexpected end of the where clause");
+      }
+      return tokens.get(pos);
+    }
+
+    private String next() {
+      String token = peek();
+      pos++;
+      return token;
+    }
+
+    private boolean accept(String token) {
+      if (pos < tokens.size() && tokens.get(pos).equals(token)) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    private void expect(String token) {
+      if (!accept(token)) {
+        throw new IllegalArgumentException(
+            "Expected '" + token + "', not '" + (pos < tokens.size() ? tokens.get(pos) : "") + "'");
+      }
+    }
+  }
+
+  private static float[] tensor(JsonNode value) {
+    JsonNode values = value.isObject() ? value.get("values") : value;
+    if (values.isTextual()) {
+      return TensorEncoding.HEX_FLOAT32.fromHex(values.asText());
+    }
+    float[] tensor = new float[values.size()];
+    for (int i = 0; i < tensor.length; i++) {
+      tensor[i] = (float) values.get(i).asDouble();
+    }
+    return tensor;
+  }
+
+  private static double dot(float[] a, float[] b) {
+    double sum = 0.0;
+    for (int i = 0; i < Math.min(a.length, b.length); i++) {
+      sum += a[i] * b[i];
+    }
+    return sum;
+  }
+
+  private void delay() {
+    Duration delay = latency;
+    if (!delay.isZero()) {
+      try {
+        Thread.sleep(delay.toMillis());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private ObjectNode error(String message) {
+    ObjectNode error = objectMapper.createObjectNode();
+    error.put("message", message);
+    return error;
+  }
+
+  private void respond(HttpExchange exchange, int status, JsonNode body) throws IOException {
+    byte[] bytes = objectMapper.writeValueAsBytes(body);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+}
@@ -0,0 +1,75 @@
+package com.pehrs.langchain4j.vespa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+class QuantizationTest {
+
+  @Test
+  public void givenVector_whenInt8_thenLargestValueIs127() {
+    byte[] cells = Quantization.INT8.quantize(new float[]{0.5f, -1.0f, 0.25f, 0.0f});
+    assertArrayEquals(new byte[]{64, -127, 32, 0}, cells);
+  }
+
+  @Test
+  public void givenVector_whenBinary_thenSignBitsArePackedHighBitFirst() {
+    float[] vector = new float[16];
+    vector[0] = 1.0f;
+    vector[7] = 0.5f;
+    vector[8] = -1.0f;
+    vector[15] = 2.0f;
+    byte[] cells = Quantization.BINARY.quantize(vector);
+    assertArrayEquals(new byte[]{(byte) 0x81, 0x01}, cells);
+    assertEquals("8101", Quantization.queryValue(cells, TensorEncoding.HEX_FLOAT32));
+  }
+
+  @Test
+  public void givenBinaryQuantization_whenCreateYqlQueryRequest_thenSearchBinaryFieldAndRerank()
+      throws JsonProcessingException {
+    EpubVespaDocHandler handler = new EpubVespaDocHandler();
+    handler.configure(SimpleVespaEmbeddingConfig.builder()
+        .setQuantization(Quantization.BINARY)
+        .build());
+    float[] queryEmbedding = new float[16];
+
+    JsonNode request = new ObjectMapper().readTree(handler.createYqlQueryRequest(
+        new VespaSearchRequest(queryEmbedding, 5, 0.7, null, false)).toJson());
+    assertTrue(request.get("yql").asText()
+        .contains("{targetHits:100}nearestNeighbor(embedding_binary,q_binary)"));
+    assertEquals("binary", request.get("ranking").asText());
+    assertEquals(16, request.get("input").get("query(q_embedding)").size());
+    assertEquals(2, request.get("input").get("query(q_binary)").size());
+  }
+
+  @Test
+  public void givenQuantizedNewsRequest_whenCreateYqlQueryRequest_thenReRankedNotOrderedByTs()
+      throws JsonProcessingException {
+    RssNewsVespaDocHandler handler = new RssNewsVespaDocHandler();
+    handler.configure(SimpleVespaEmbeddingConfig.builder()
+        .setQuantization(Quantization.INT8)
+        .setHybrid(true)
+        .build());
+    float[] queryEmbedding = new float[16];
+
+    JsonNode request = new ObjectMapper().readTree(handler.createYqlQueryRequest(
+        new VespaSearchRequest(queryEmbedding, 5, 0.7, null, false)).toJson());
+    assertFalse(request.get("yql").asText().contains("order by"));
+    assertEquals("int8", request.get("ranking").asText());
+
+    JsonNode hybrid = new ObjectMapper().readTree(handler.createYqlQueryRequest(
+        new VespaSearchRequest(queryEmbedding, 5, 0.7, null, false, "red fox")).toJson());
+    assertTrue(hybrid.get("yql").asText().contains(
+        "({targetHits:100}nearestNeighbor(embedding_int8,q_int8) or "
+            + "{targetHits:100, grammar:\"weakAnd\"}userInput(\"red fox\"))"));
+    assertFalse(hybrid.get("yql").asText().contains("order by"));
+    assertEquals("hybrid-int8", hybrid.get("ranking").asText());
+    assertEquals(16, hybrid.get("input").get("query(q_int8)").size());
+  }
+}
@@ -1,17 +1,34 @@
 package com.pehrs.langchain4j.vespa;
 
+import static dev.langchain4j.store.embedding.filter.MetadataFilterBuilder.metadataKey;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
 import ai.vespa.client.dsl.A;
 import ai.vespa.client.dsl.Annotation;
 import ai.vespa.client.dsl.NearestNeighbor;
 import ai.vespa.client.dsl.Q;
+import ai.vespa.feed.client.DocumentId;
 import ai.vespa.feed.client.FeedClientBuilder;
 import ai.vespa.feed.client.FeedException;
 import ai.vespa.feed.client.JsonFeeder;
 import ai.vespa.feed.client.JsonFeeder.ResultCallback;
 import ai.vespa.feed.client.Result;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingStore.VespaInsertReq;
+import com.pehrs.langchain4j.RagSample;
+import com.pehrs.langchain4j.epub.EpubDocumentsReader;
+import com.pehrs.langchain4j.rss.RssFeedReader;
+import com.pehrs.langchain4j.vespa.SimpleVespaEmbeddingConfig.VespaEmbeddingConfigBuilder;
+import dev.langchain4j.data.document.Metadata;
+import dev.langchain4j.data.embedding.Embedding;
+import dev.langchain4j.data.segment.TextSegment;
 import dev.langchain4j.internal.Json;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import dev.langchain4j.store.embedding.EmbeddingSearchRequest;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -24,10 +41,181 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 class SimpleVespaEmbeddingStoreTest {
 
+  private LocalVespaServer vespaServer;
+
+  @BeforeEach
+  void startVespaServer() throws IOException {
+    vespaServer = new LocalVespaServer();
+  }
+
+  @AfterEach
+  void stopVespaServer() {
+    vespaServer.close();
+  }
+
+  private SimpleVespaEmbeddingStore createStore(boolean includeEmbedding, Duration timeout) {
+    return new SimpleVespaEmbeddingStore(new MetricRegistry(),
+        SimpleVespaEmbeddingConfig.builder()
+            .setUrl(vespaServer.url())
+            .setFeedUrl(vespaServer.url())
+            .setTimeout(timeout)
+            .setVespaDocumentHandler(EpubVespaDocHandler.class.getName())
+            .setIncludeEmbedding(includeEmbedding)
+            .build());
+  }
+
+  private SimpleVespaEmbeddingStore createNewsStore(VespaEmbeddingConfigBuilder builder) {
+    return new SimpleVespaEmbeddingStore(new MetricRegistry(), builder
+        .setUrl(vespaServer.url())
+        .setFeedUrl(vespaServer.url())
+        .setVespaDocumentHandler(RssNewsVespaDocHandler.class.getName())
+        .build());
+  }
+
+  private static TextSegment bookSegment(String text, int index) {
+    return TextSegment.from(text, Metadata.from(Map.of(
+        RagSample.METADATA_SRC_ID, "book",
+        RagSample.METADATA_SEGMENT_INDEX, String.valueOf(index),
+        EpubDocumentsReader.METADATA_TITLE, "title")));
+  }
+
+  /**
+   * The closest article is the oldest.
+   */
+  private void putNews() throws IOException {
+    RssNewsVespaDocHandler handler = new RssNewsVespaDocHandler();
+    vespaServer.putDocument(handler, "old-0", Embedding.from(new float[]{1.0f, 0.0f, 0.0f}),
+        newsSegment("old", "old", 1_000L));
+    vespaServer.putDocument(handler, "new-0", Embedding.from(new float[]{0.6f, 0.8f, 0.0f}),
+        newsSegment("new", "new", 3_000L));
+    vespaServer.putDocument(handler, "middle-0", Embedding.from(new float[]{0.8f, 0.6f, 0.0f}),
+        newsSegment("middle", "middle", 2_000L));
+  }
+
+  private static List<String> texts(List<EmbeddingMatch<TextSegment>> matches) {
+    return matches.stream().map(match -> match.embedded().text()).toList();
+  }
+
+  private void putBooks() throws IOException {
+    EpubVespaDocHandler handler = new EpubVespaDocHandler();
+    vespaServer.putDocument(handler, "book-0", Embedding.from(new float[]{1.0f, 0.0f, 0.0f}),
+        bookSegment("first", 0));
+    vespaServer.putDocument(handler, "book-1", Embedding.from(new float[]{0.0f, 1.0f, 0.0f}),
+        bookSegment("second", 1));
+    vespaServer.putDocument(handler, "book-2", Embedding.from(new float[]{0.6f, 0.8f, 0.0f}),
+        bookSegment("third", 2));
+  }
+
+  private static TextSegment newsSegment(String text, String newsId, long ts) {
+    return TextSegment.from(text, Metadata.from(Map.of(
+        RagSample.METADATA_SRC_ID, newsId,
+        RagSample.METADATA_SEGMENT_INDEX, "0",
+        RssFeedReader.METADATA_URL, "https://news/" + newsId,
+        RssFeedReader.METADATA_NEWS_ID, newsId,
+        RssFeedReader.METADATA_TITLE, text,
+        RssFeedReader.METADATA_TS, String.valueOf(ts))));
+  }
+
+  @Test
+  public void givenSegments_whenSearch_thenNearestSegmentsAreReturned() throws IOException {
+    try (SimpleVespaEmbeddingStore store = createStore(true, Duration.ofSeconds(5))) {
+      putBooks();
+      assertEquals(3, vespaServer.documentCount());
+
+      List<EmbeddingMatch<TextSegment>> matches = store.search(EmbeddingSearchRequest.builder()
+          .queryEmbedding(Embedding.from(new float[]{0.0f, 1.0f, 0.0f}))
+          .maxResults(2)
+          .build()).matches();
+
+      assertEquals(2, matches.size());
+      assertEquals("id:embeddings:books::book-1", matches.get(0).embeddingId());
+      assertEquals("second", matches.get(0).embedded().text());
+      assertEquals("1", matches.get(0).embedded().metadata()
+          .getString(RagSample.METADATA_SEGMENT_INDEX));
+      assertEquals("third", matches.get(1).embedded().text());
+      assertArrayEquals(new float[]{0.0f, 1.0f, 0.0f}, matches.get(0).embedding().vector());
+    }
+  }
+
+  @Test
+  public void givenNewsOrderedByRecency_whenSearch_thenNewestFirst() throws IOException {
+    try (SimpleVespaEmbeddingStore store = createNewsStore(SimpleVespaEmbeddingConfig.builder())) {
+      putNews();
+
+      List<EmbeddingMatch<TextSegment>> matches = store.search(EmbeddingSearchRequest.builder()
+          .queryEmbedding(Embedding.from(new float[]{1.0f, 0.0f, 0.0f}))
+          .maxResults(3)
+          .build()).matches();
+
+      assertEquals(List.of("new", "middle", "old"), texts(matches));
+    }
+  }
+
+  @Test
+  public void givenClosenessProfileAndFilter_whenSearch_thenFilteredHitsByCloseness()
+      throws IOException {
+    try (SimpleVespaEmbeddingStore store = createNewsStore(SimpleVespaEmbeddingConfig.builder()
+        .setRankProfile("closeness")
+        .setOrderByRecency(false))) {
+      putNews();
+
+      List<EmbeddingMatch<TextSegment>> matches = store.search(EmbeddingSearchRequest.builder()
+          .queryEmbedding(Embedding.from(new float[]{1.0f, 0.0f, 0.0f}))
+          .maxResults(3)
+          .filter(metadataKey(RssFeedReader.METADATA_TS).isGreaterThan(1_500L))
+          .build()).matches();
+
+      assertEquals(List.of("middle", "new"), texts(matches));
+      assertEquals(0.8, matches.get(0).score(), 1e-6);
+    }
+  }
+
+  @Test
+  public void givenSearchWithoutEmbedding_whenFetchEmbedding_thenEmbeddingIsReturned()
+      throws IOException {
+    try (SimpleVespaEmbeddingStore store = createStore(false, Duration.ofSeconds(5))) {
+      putBooks();
+
+      EmbeddingMatch<TextSegment> match = store.search(EmbeddingSearchRequest.builder()
+          .queryEmbedding(Embedding.from(new float[]{1.0f, 0.0f, 0.0f}))
+          .maxResults(1)
+          .build()).matches().get(0);
+
+      assertNull(match.embedding());
+      assertArrayEquals(new float[]{1.0f, 0.0f, 0.0f},
+          store.fetchEmbedding(match.embeddingId()).vector());
+      assertNull(store.fetchEmbedding("id:embeddings:books::missing-0"));
+    }
+  }
+
+  @Test
+  public void givenSlowVespa_whenSearch_thenSearchTimesOut() throws IOException {
+    try (SimpleVespaEmbeddingStore store = createStore(true, Duration.ofMillis(200))) {
+      putBooks();
+      vespaServer.setLatency(Duration.ofSeconds(2));
+
+      assertThrows(RuntimeException.class, () -> store.search(EmbeddingSearchRequest.builder()
+          .queryEmbedding(Embedding.from(new float[]{1.0f, 0.0f, 0.0f}))
+          .maxResults(1)
+          .build()));
+    }
+  }
+
+  @Test
+  public void givenEmbeddingsWithoutSegments_whenAddAll_thenRejected() throws IOException {
+    try (SimpleVespaEmbeddingStore store = createStore(true, Duration.ofSeconds(5))) {
+      assertThrows(IllegalArgumentException.class, () -> store.addAll(
+          List.of(Embedding.from(new float[]{1.0f, 0.0f, 0.0f})), null));
+      assertEquals(0, vespaServer.documentCount());
+    }
+  }
+
   // @Test
   void feedTest() throws IOException {
 
@@ -50,10 +238,8 @@ class SimpleVespaEmbeddingStoreTest {
         "embedding", embedding
     );
     ObjectMapper objectMapper = new ObjectMapper();
-    VespaInsertReq insertReq = new VespaInsertReq(docId, fields);
-
-    List<VespaInsertReq> records = new ArrayList<>();
-    records.add(insertReq);
+    List<Map<String, Object>> records = new ArrayList<>();
+    records.add(Map.of("id", docId, "fields", fields));
 
     String json = objectMapper.writeValueAsString(records);
     try (InputStream inStream = new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8))) {
@@ -77,6 +263,27 @@ class SimpleVespaEmbeddingStoreTest {
   }
 
 
+  @Test
+  public void givenEpubSegment_whenDocumentJson_thenFieldsAndEmbeddingAreWritten()
+      throws IOException {
+    EpubVespaDocHandler handler = new EpubVespaDocHandler();
+    DocumentId documentId = handler.createDocumentId("4242-0");
+    TextSegment segment = TextSegment.from("content", Metadata.from(Map.of(
+        RagSample.METADATA_SEGMENT_INDEX, "0",
+        EpubDocumentsReader.METADATA_TITLE, "title")));
+
+    String json = SimpleVespaEmbeddingStore.documentJson(handler, documentId,
+        Embedding.from(new float[]{0.5f, -1.0f, 42.0f}), segment);
+
+    JsonNode fields = new ObjectMapper().readTree(json).get("fields");
+    assertEquals("content", fields.get("content").asText());
+    assertEquals("title", fields.get("title").asText());
+    assertEquals(0, fields.get("segment_index").asInt());
+    JsonNode values = fields.get("embedding").get("values");
+    assertEquals(3, values.size());
+    assertEquals(42.0, values.get(2).asDouble());
+  }
+
   @Test
   void testQ() throws InvocationTargetException, NoSuchMethodException, IllegalAccessException {
 
@@ -0,0 +1,52 @@
+package com.pehrs.langchain4j.vespa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.jupiter.api.Test;
+
+class TensorEncodingTest {
+
+  private static final float[] VECTOR = {1.0f, -0.5f, 0.1f, 42.0f};
+
+  @Test
+  public void givenFloat32Hex_whenDecoded_thenSameVector() {
+    String hex = (String) TensorEncoding.HEX_FLOAT32.queryValue(VECTOR);
+    assertEquals("3f800000bf0000003dcccccd42280000", hex);
+    assertArrayEquals(VECTOR, TensorEncoding.HEX_FLOAT32.fromHex(hex));
+  }
+
+  @Test
+  public void givenBFloat16Hex_whenDecoded_thenRoundedVector() {
+    String hex = (String) TensorEncoding.HEX_BFLOAT16.queryValue(VECTOR);
+    assertEquals("3f80bf003dcd4228", hex);
+    assertArrayEquals(VECTOR, TensorEncoding.HEX_BFLOAT16.fromHex(hex), 0.001f);
+  }
+
+  @Test
+  public void givenEncodings_whenWriteField_thenValuesAreArrayOrHexString() throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+
+    JsonNode json = mapper.readTree(writeField(mapper, TensorEncoding.JSON));
+    assertEquals(4, json.get("embedding").get("values").size());
+    assertEquals(-0.5, json.get("embedding").get("values").get(1).asDouble());
+
+    JsonNode hex = mapper.readTree(writeField(mapper, TensorEncoding.HEX_FLOAT32));
+    assertEquals("3f800000bf0000003dcccccd42280000", hex.get("embedding").get("values").asText());
+  }
+
+  private String writeField(ObjectMapper mapper, TensorEncoding encoding) throws IOException {
+    StringWriter out = new StringWriter();
+    try (JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+      generator.writeStartObject();
+      encoding.writeField(generator, "embedding", VECTOR);
+      generator.writeEndObject();
+    }
+    return out.toString();
+  }
+}
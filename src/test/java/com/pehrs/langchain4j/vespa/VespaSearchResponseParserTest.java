@@ -0,0 +1,64 @@
+package com.pehrs.langchain4j.vespa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pehrs.langchain4j.RagSample;
+import com.pehrs.langchain4j.epub.EpubDocumentsReader;
+import dev.langchain4j.data.segment.TextSegment;
+import dev.langchain4j.store.embedding.EmbeddingMatch;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class VespaSearchResponseParserTest {
+
+  private final VespaSearchResponseParser parser =
+      new VespaSearchResponseParser(new ObjectMapper(), new EpubVespaDocHandler());
+
+  @Test
+  public void givenHitsWithArrayAndHexTensors_whenParse_thenFloatEmbeddings() throws IOException {
+    String response = """
+        {"root": {"id": "toplevel", "relevance": 1.0,
+          "fields": {"totalCount": 2},
+          "coverage": {"coverage": 100, "documents": 2, "full": true},
+          "children": [
+            {"id": "id:embeddings:books::a-0", "relevance": 0.9, "source": "books",
+             "fields": {"title": "A", "content": "first", "segment_index": 0,
+               "embedding": {"type": "tensor<float>(d0[3])", "values": [0.5, -1.0, 42.0]}}},
+            {"id": "id:embeddings:books::b-1", "relevance": 0.8,
+             "fields": {"title": "B", "content": "second", "segment_index": 1,
+               "embedding": {"type": "tensor<float>(d0[3])", "values": "3f000000bf80000042280000"}}}
+          ]}}
+        """;
+
+    List<EmbeddingMatch<TextSegment>> matches =
+        parser.parse(response.getBytes(StandardCharsets.UTF_8));
+
+    assertEquals(2, matches.size());
+    EmbeddingMatch<TextSegment> first = matches.get(0);
+    assertEquals("id:embeddings:books::a-0", first.embeddingId());
+    assertEquals(0.9, first.score());
+    assertEquals("first", first.embedded().text());
+    assertEquals("A", first.embedded().metadata().getString(EpubDocumentsReader.METADATA_TITLE));
+    assertEquals("0", first.embedded().metadata().getString(RagSample.METADATA_SEGMENT_INDEX));
+    assertArrayEquals(new float[]{0.5f, -1.0f, 42.0f}, first.embedding().vector());
+    assertArrayEquals(new float[]{0.5f, -1.0f, 42.0f}, matches.get(1).embedding().vector());
+  }
+
+  @Test
+  public void givenNoChildren_whenParse_thenNoMatches() throws IOException {
+    String response = "{\"root\": {\"id\": \"toplevel\", \"fields\": {\"totalCount\": 0}}}";
+    assertEquals(0, parser.parse(response.getBytes(StandardCharsets.UTF_8)).size());
+  }
+
+  @Test
+  public void givenErrors_whenParse_thenThrow() {
+    String response = "{\"root\": {\"errors\": [{\"code\": 4, \"message\": \"bad query\"}]}}";
+    assertThrows(RuntimeException.class,
+        () -> parser.parse(response.getBytes(StandardCharsets.UTF_8)));
+  }
+}
@@ -0,0 +1,60 @@
+package com.pehrs.langchain4j.vespa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.pehrs.langchain4j.vespa.YqlFilterMapper.Field;
+import com.pehrs.langchain4j.vespa.YqlFilterMapper.FieldType;
+import dev.langchain4j.store.embedding.filter.comparison.IsEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsGreaterThan;
+import dev.langchain4j.store.embedding.filter.comparison.IsIn;
+import dev.langchain4j.store.embedding.filter.comparison.IsLessThanOrEqualTo;
+import dev.langchain4j.store.embedding.filter.comparison.IsNotIn;
+import dev.langchain4j.store.embedding.filter.logical.And;
+import dev.langchain4j.store.embedding.filter.logical.Not;
+import dev.langchain4j.store.embedding.filter.logical.Or;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class YqlFilterMapperTest {
+
+  private final YqlFilterMapper mapper = new YqlFilterMapper(Map.of(
+      "title", new Field("title", FieldType.TEXT),
+      "ts", new Field("ts", FieldType.NUMERIC),
+      "index", new Field("segment_index", FieldType.NUMERIC),
+      "lang", new Field("lang", FieldType.STRING_ATTRIBUTE)
+  ));
+
+  @Test
+  public void givenComparisons_whenMap_thenYqlConditions() {
+    assertNull(mapper.map(null));
+    assertEquals("ts > 1700000000", mapper.map(new IsGreaterThan("ts", "1700000000")));
+    assertEquals("segment_index <= 3", mapper.map(new IsLessThanOrEqualTo("index", 3)));
+    assertEquals("title contains \"Dune\"", mapper.map(new IsEqualTo("title", "Dune")));
+    assertEquals("lang in (\"en\", \"sv\")", mapper.map(new IsIn("lang", List.of("en", "sv"))));
+    assertEquals("!(segment_index in (1, 2))",
+        mapper.map(new IsNotIn("index", List.of(1, 2))));
+  }
+
+  @Test
+  public void givenLogicalFilters_whenMap_thenParenthesized() {
+    assertEquals("(ts > 10 and !((title contains \"a\" or title contains \"b\")))",
+        mapper.map(new And(
+            new IsGreaterThan("ts", 10L),
+            new Not(new IsIn("title", List.of("a", "b"))))));
+    assertEquals("(title contains \"say \\\"hi\\\"\" or segment_index = 0)",
+        mapper.map(new Or(new IsEqualTo("title", "say \"hi\""), new IsEqualTo("index", 0))));
+  }
+
+  @Test
+  public void givenUnsupportedFilter_whenMap_thenThrow() {
+    assertThrows(IllegalArgumentException.class,
+        () -> mapper.map(new IsEqualTo("author", "x")));
+    assertThrows(IllegalArgumentException.class,
+        () -> mapper.map(new IsGreaterThan("title", "x")));
+    assertThrows(IllegalArgumentException.class,
+        () -> mapper.map(new IsGreaterThan("ts", "yesterday")));
+  }
+}
@@ -1,6 +1,12 @@
 package com.pehrs.langchain4j.vespa;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -28,4 +34,75 @@ class YqlQueryRequestTest {
     System.out.println(yqlRequest.toJson());
   }
 
-}
\ No newline at end of file
+  @Test
+  public void givenNoEmbeddingRequest_whenCreateYqlQueryRequest_thenSelectSummaryWithoutEmbedding()
+      throws JsonProcessingException {
+    EpubVespaDocHandler handler = new EpubVespaDocHandler();
+    float[] queryEmbedding = {0.5f, 0.25f};
+
+    JsonNode withEmbedding = new ObjectMapper().readTree(handler.createYqlQueryRequest(
+        new VespaSearchRequest(queryEmbedding, 5, 0.7, null, true)).toJson());
+    assertTrue(withEmbedding.get("yql").asText().contains("embedding, title"));
+    assertFalse(withEmbedding.has("presentation.summary"));
+
+    JsonNode withoutEmbedding = new ObjectMapper().readTree(handler.createYqlQueryRequest(
+        new VespaSearchRequest(queryEmbedding, 5, 0.7, null, false)).toJson());
+    assertFalse(withoutEmbedding.get("yql").asText().contains("embedding, title"));
+    assertEquals("no-embedding", withoutEmbedding.get("presentation.summary").asText());
+    assertEquals(5, withoutEmbedding.get("hits").asInt());
+    assertEquals(2, withoutEmbedding.get("input").get("query(q_embedding)").size());
+  }
+
+  @Test
+  public void givenHybridConfig_whenCreateYqlQueryRequest_thenTextMatchIsOredWithNearestNeighbor()
+      throws JsonProcessingException {
+    EpubVespaDocHandler handler = new EpubVespaDocHandler();
+    handler.configure(SimpleVespaEmbeddingConfig.builder().setHybrid(true).build());
+    float[] queryEmbedding = {0.5f, 0.25f};
+
+    JsonNode hybrid = new ObjectMapper().readTree(handler.createYqlQueryRequest(
+        new VespaSearchRequest(queryEmbedding, 5, 0.7, null, false, "the \"red\" fox")).toJson());
+    assertTrue(hybrid.get("yql").asText().endsWith(
+        "where ({targetHits:5}nearestNeighbor(embedding,q_embedding) or "
+            + "{targetHits:5, grammar:\"weakAnd\"}userInput(\"the \\\"red\\\" fox\"))"));
+    assertEquals("hybrid", hybrid.get("ranking").asText());
+
+    JsonNode nearestNeighbor = new ObjectMapper().readTree(handler.createYqlQueryRequest(
+        new VespaSearchRequest(queryEmbedding, 5, 0.7, null, false)).toJson());
+    assertFalse(nearestNeighbor.get("yql").asText().contains("userInput"));
+    assertEquals("recommendation", nearestNeighbor.get("ranking").asText());
+  }
+
+  @Test
+  public void givenHybridNewsRequest_whenCreateYqlQueryRequest_thenRankedNotOrderedByTs()
+      throws JsonProcessingException {
+    RssNewsVespaDocHandler handler = new RssNewsVespaDocHandler();
+    handler.configure(SimpleVespaEmbeddingConfig.builder().setHybrid(true).build());
+    float[] queryEmbedding = {0.5f, 0.25f};
+
+    JsonNode hybrid = new ObjectMapper().readTree(handler.createYqlQueryRequest(
+        new VespaSearchRequest(queryEmbedding, 5, 0.7, null, false, "red fox")).toJson());
+    assertFalse(hybrid.get("yql").asText().contains("order by"));
+    assertEquals("hybrid", hybrid.get("ranking").asText());
+
+    JsonNode nearestNeighbor = new ObjectMapper().readTree(handler.createYqlQueryRequest(
+        new VespaSearchRequest(queryEmbedding, 5, 0.7, null, false)).toJson());
+    assertTrue(nearestNeighbor.get("yql").asText().endsWith(" order by ts desc"));
+  }
+
+  @Test
+  public void givenNoRecencyOrder_whenCreateYqlQueryRequest_thenRankedByTheProfile()
+      throws JsonProcessingException {
+    RssNewsVespaDocHandler handler = new RssNewsVespaDocHandler();
+    handler.configure(SimpleVespaEmbeddingConfig.builder()
+        .setRankProfile("closeness")
+        .setOrderByRecency(false)
+        .build());
+
+    JsonNode request = new ObjectMapper().readTree(handler.createYqlQueryRequest(
+        new VespaSearchRequest(new float[]{0.5f, 0.25f}, 5, 0.7, null, false)).toJson());
+    assertFalse(request.get("yql").asText().contains("order by"));
+    assertEquals("closeness", request.get("ranking").asText());
+  }
+
+}